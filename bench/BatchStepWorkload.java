@@ -0,0 +1,62 @@
+import benchmark.Workload;
+
+/**
+ * The {@code BatchStepWorkload} class advances a {@link SnakeBatch} of
+ * 25x25 games by one tick. Each snake turns every few ticks, in a pattern
+ * that differs from game to game, and games that end are started again.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class BatchStepWorkload implements Workload {
+
+	/**
+	 * The number of columns and rows on each board.
+	 */
+	private static final int SIZE = 25;
+
+	/**
+	 * The games being stepped.
+	 */
+	private SnakeBatch batch;
+
+	/**
+	 * The action of each game, rewritten before each tick.
+	 */
+	private int[] actions;
+
+	/**
+	 * The number of ticks run.
+	 */
+	private int tick;
+
+	/**
+	 * Prepares the games.
+	 * @param params The number of games.
+	 */
+	@Override
+	public void setUp(String... params) {
+		int games = Integer.parseInt(params[0]);
+		this.batch = new SnakeBatch(games, SIZE, SIZE);
+		this.actions = new int[games];
+		long[] seeds = new long[games];
+		for(int i = 0; i < games; i++) {
+			seeds[i] = i;
+		}
+		batch.reset(seeds);
+	}
+
+	@Override
+	public Object run() {
+		tick++;
+		for(int i = 0; i < actions.length; i++) {
+			actions[i] = (tick + i) % 7 == 0 ? (tick + i) & 3 : -1;
+		}
+		return batch.step(actions);
+	}
+
+	@Override
+	public void tearDown() {
+	}
+
+}
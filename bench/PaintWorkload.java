@@ -0,0 +1,132 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import benchmark.Workload;
+
+/**
+ * The {@code PaintWorkload} class paints a {@link BoardPanel} into an
+ * offscreen image. In "tick" mode the snake moves one tile before each
+ * paint, so only the tiles that changed are drawn again (plus the whole
+ * viewport when it scrolls); in "full" mode every tile is drawn again.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class PaintWorkload implements Workload, GameView {
+
+	/**
+	 * The length of the snake.
+	 */
+	private static final int SNAKE_LENGTH = 40;
+
+	/**
+	 * The engine holding the board.
+	 */
+	private SnakeEngine engine;
+
+	/**
+	 * The number of columns and rows on the board.
+	 */
+	private int size;
+
+	/**
+	 * Whether every tile is drawn again on each paint.
+	 */
+	private boolean full;
+
+	/**
+	 * The panel being painted.
+	 */
+	private BoardPanel panel;
+
+	/**
+	 * The image painted into.
+	 */
+	private BufferedImage image;
+
+	/**
+	 * The graphics object of the image.
+	 */
+	private Graphics2D graphics;
+
+	/**
+	 * The number of ticks run.
+	 */
+	private long ticks;
+
+	/**
+	 * The input latency the panel reports to.
+	 */
+	private final InputLatency latency = new InputLatency();
+
+	/**
+	 * Prepares the panel.
+	 * @param params The number of columns and rows on the board (even),
+	 * and the mode, "tick" or "full".
+	 */
+	@Override
+	public void setUp(String... params) {
+		this.size = Integer.parseInt(params[0]);
+		this.full = params[1].equals("full");
+		this.engine = StepWorkload.createEngine(size, SNAKE_LENGTH);
+		this.panel = new BoardPanel(this);
+		panel.setSize(panel.getPreferredSize());
+		this.image = new BufferedImage(panel.getWidth(), panel.getHeight(),
+				BufferedImage.TYPE_INT_RGB);
+		this.graphics = image.createGraphics();
+		panel.paintComponent(graphics);
+	}
+
+	@Override
+	public Object run() {
+		if(full) {
+			int view = Math.min(size, BoardPanel.COL_COUNT);
+			for(int y = 0; y < view; y++) {
+				for(int x = 0; x < view; x++) {
+					panel.tileChanged(x, y);
+				}
+			}
+		} else {
+			engine.step(StepWorkload.nextDirection(getHead(), size));
+			ticks++;
+		}
+		panel.paintComponent(graphics);
+		return image;
+	}
+
+	@Override
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Override
+	public Board getBoard() {
+		return engine.getBoard();
+	}
+
+	@Override
+	public long getHead() {
+		return engine.getSnakeRing().peekHead();
+	}
+
+	@Override
+	public Direction getDirection() {
+		return engine.getDirection();
+	}
+
+	@Override
+	public int getMessage() {
+		return 0;
+	}
+
+	@Override
+	public long getTicks() {
+		return ticks;
+	}
+
+	@Override
+	public InputLatency getInputLatency() {
+		return latency;
+	}
+
+}
@@ -0,0 +1,91 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import benchmark.Workload;
+
+/**
+ * The {@code SaveLoadWorkload} class saves a game and loads it back into a
+ * second engine, through memory, a temporary file, or the slot of a player
+ * in a temporary {@link SlotStore}, the way the G and C keys do.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SaveLoadWorkload implements Workload {
+
+	/**
+	 * The engine saved.
+	 */
+	private SnakeEngine source;
+
+	/**
+	 * The engine loaded into.
+	 */
+	private SnakeEngine target;
+
+	/**
+	 * The temporary file, or null when saving to memory.
+	 */
+	private Path file;
+
+	/**
+	 * The temporary slot store, or null when not saving to a slot.
+	 */
+	private SlotStore slots;
+
+	/**
+	 * Whether the saved game is compressed.
+	 */
+	private boolean compress;
+
+	/**
+	 * Prepares a game in progress.
+	 * @param params The number of columns and rows on the board, where to
+	 * save, "memory", "file" or "slots", and optionally "raw" to skip compression.
+	 * @throws Exception If the temporary file could not be created.
+	 */
+	@Override
+	public void setUp(String... params) throws Exception {
+		int size = Integer.parseInt(params[0]);
+		this.source = new SnakeEngine(size, size);
+		this.target = new SnakeEngine(size, size);
+		source.reset();
+		for(int i = 0; i < 3; i++) {
+			source.step();
+		}
+		if(params[1].equals("file")) {
+			this.file = Files.createTempFile("snake", ".bin");
+		} else if(params[1].equals("slots")) {
+			this.file = Files.createTempFile("snake", ".slots");
+			Files.delete(file);
+			this.slots = new SlotStore(file);
+		}
+		this.compress = params.length < 3 || !params[2].equals("raw");
+	}
+
+	@Override
+	public Object run() throws Exception {
+		if(slots != null) {
+			slots.put("player", GameFile.save(source, false, true, compress));
+			return GameFile.load(target, slots.get("player"));
+		}
+		if(file != null) {
+			GameFile.save(source, false, true, file);
+			return GameFile.load(target, file);
+		}
+		ByteBuffer buffer = GameFile.save(source, false, true, compress);
+		return GameFile.load(target, buffer);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		if(slots != null) {
+			slots.close();
+		}
+		if(file != null) {
+			Files.delete(file);
+		}
+	}
+
+}
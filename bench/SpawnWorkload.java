@@ -0,0 +1,63 @@
+import java.util.Random;
+
+import benchmark.Workload;
+
+/**
+ * The {@code SpawnWorkload} class spawns a fruit of a given type onto a
+ * board filled to a given fraction, and removes it again so that the fill
+ * stays the same from one call to the next.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SpawnWorkload implements Workload {
+
+	/**
+	 * The engine spawning the fruits.
+	 */
+	private SnakeEngine engine;
+
+	/**
+	 * The type of fruit spawned.
+	 */
+	private TileType type;
+
+	/**
+	 * Prepares the board.
+	 * @param params The type of fruit, the number of columns and rows, and
+	 * the fraction of the board filled before spawning.
+	 */
+	@Override
+	public void setUp(String... params) {
+		this.type = TileType.valueOf(params[0]);
+		int size = Integer.parseInt(params[1]);
+		double fill = Double.parseDouble(params[2]);
+
+		this.engine = new SnakeEngine(size, size);
+		engine.reset();
+		Board board = engine.getBoard();
+		board.clear();
+		Random random = new Random(42L);
+		long tileCount = board.getTileCount();
+		long target = (long)(fill * tileCount);
+		for(long filled = 0; filled < target;) {
+			long index = (long)(random.nextDouble() * tileCount);
+			if(board.getTile(index) == null) {
+				board.setTile(index, TileType.SnakeBody);
+				filled++;
+			}
+		}
+	}
+
+	@Override
+	public Object run() {
+		long index = engine.spawnFruit(type);
+		engine.getBoard().setTile(index, null);
+		return index;
+	}
+
+	@Override
+	public void tearDown() {
+	}
+
+}
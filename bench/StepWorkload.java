@@ -0,0 +1,119 @@
+import java.awt.Point;
+import java.util.LinkedList;
+
+import benchmark.Workload;
+
+/**
+ * The {@code StepWorkload} class advances a snake of a given length by one
+ * tick. The snake follows a cycle through every tile of a board twice its
+ * length, so it never dies, never eats and keeps its length.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class StepWorkload implements Workload {
+
+	/**
+	 * The engine being stepped.
+	 */
+	private SnakeEngine engine;
+
+	/**
+	 * The number of columns and rows on the board.
+	 */
+	private int size;
+
+	/**
+	 * Prepares the engine.
+	 * @param params The length of the snake.
+	 */
+	@Override
+	public void setUp(String... params) {
+		int length = Integer.parseInt(params[0]);
+		int side = (int)Math.ceil(Math.sqrt(2.0 * length));
+		this.size = Math.max(8, side + (side & 1));
+		this.engine = createEngine(size, length);
+	}
+
+	@Override
+	public Object run() {
+		engine.step(nextDirection(engine.getSnakeRing().peekHead(), size));
+		return engine.getSnakeRing();
+	}
+
+	@Override
+	public void tearDown() {
+	}
+
+	/**
+	 * Creates an engine whose board only holds a snake of the given length,
+	 * laid along the cycle followed by {@code nextDirection}.
+	 * @param size The number of columns and rows on the board, even.
+	 * @param length The length of the snake.
+	 * @return The engine.
+	 */
+	static SnakeEngine createEngine(int size, int length) {
+		SnakeEngine engine = new SnakeEngine(size, size);
+		engine.reset();
+		Board board = engine.getBoard();
+		board.clear();
+
+		LinkedList<Point> snake = new LinkedList<Point>();
+		long cell = 0;
+		for(int i = 0; i < length; i++) {
+			snake.addFirst(new Point((int)(cell % size), (int)(cell / size)));
+			board.setTile(cell, i == length - 1 ? TileType.SnakeHead
+					: TileType.SnakeBody);
+			cell = move(cell, nextDirection(cell, size), size);
+		}
+		engine.setSnake(snake);
+		LinkedList<Direction> directions = new LinkedList<Direction>();
+		directions.add(nextDirection(engine.getSnakeRing().peekHead(), size));
+		engine.setDirections(directions);
+		return engine;
+	}
+
+	/**
+	 * Gets the direction of a cycle through every tile of a square board
+	 * with an even number of rows: the rows are swept back and forth from
+	 * the second column on, and the first column leads back to the top.
+	 * @param cell The packed index of the current cell.
+	 * @param size The number of columns and rows on the board.
+	 * @return The direction to the next cell of the cycle.
+	 */
+	static Direction nextDirection(long cell, int size) {
+		int x = (int)(cell % size);
+		int y = (int)(cell / size);
+		if(x == 0) {
+			return y > 0 ? Direction.North : Direction.East;
+		}
+		if((y & 1) == 0) {
+			return x < size - 1 ? Direction.East : Direction.South;
+		}
+		if(x > 1 || y == size - 1) {
+			return Direction.West;
+		}
+		return Direction.South;
+	}
+
+	/**
+	 * Moves a cell one tile in a direction.
+	 * @param cell The packed index of the cell.
+	 * @param direction The direction to move in.
+	 * @param size The number of columns on the board.
+	 * @return The packed index of the next cell.
+	 */
+	static long move(long cell, Direction direction, int size) {
+		switch(direction) {
+		case North:
+			return cell - size;
+		case South:
+			return cell + size;
+		case West:
+			return cell - 1;
+		default:
+			return cell + 1;
+		}
+	}
+
+}
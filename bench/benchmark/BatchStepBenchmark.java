@@ -0,0 +1,59 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code BatchStepBenchmark} class measures one tick of a batch of
+ * games, for training agents, at various numbers of games.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchStepBenchmark {
+
+	/**
+	 * The number of games.
+	 */
+	@Param({"1", "4096"})
+	public int games;
+
+	/**
+	 * The workload being measured.
+	 */
+	private Workload workload;
+
+	@Setup
+	public void setUp() throws Exception {
+		workload = Workload.create("BatchStepWorkload", String.valueOf(games));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object step() throws Exception {
+		return workload.run();
+	}
+
+}
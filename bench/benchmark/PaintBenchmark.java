@@ -0,0 +1,65 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code PaintBenchmark} class measures painting the board panel
+ * into an offscreen image, after a tick or with every tile changed.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaintBenchmark {
+
+	/**
+	 * The number of columns and rows on the board.
+	 */
+	@Param({"24", "1000"})
+	public int size;
+
+	/**
+	 * Whether the snake moves ("tick") or every tile changes ("full").
+	 */
+	@Param({"tick", "full"})
+	public String mode;
+
+	/**
+	 * The workload being measured.
+	 */
+	private Workload workload;
+
+	@Setup
+	public void setUp() throws Exception {
+		workload = Workload.create("PaintWorkload", String.valueOf(size), mode);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object paint() throws Exception {
+		return workload.run();
+	}
+
+}
@@ -0,0 +1,65 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code SaveLoadBenchmark} class measures saving a game and loading
+ * it back, through memory, a temporary file or a slot store.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SaveLoadBenchmark {
+
+	/**
+	 * The number of columns and rows on the board.
+	 */
+	@Param({"25", "1000"})
+	public int size;
+
+	/**
+	 * Where the game is saved, "memory", "file" or "slots".
+	 */
+	@Param({"memory", "file", "slots"})
+	public String target;
+
+	/**
+	 * The workload being measured.
+	 */
+	private Workload workload;
+
+	@Setup
+	public void setUp() throws Exception {
+		workload = Workload.create("SaveLoadWorkload", String.valueOf(size), target);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object saveLoad() throws Exception {
+		return workload.run();
+	}
+
+}
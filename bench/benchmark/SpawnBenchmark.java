@@ -0,0 +1,72 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code SpawnBenchmark} class measures spawning each kind of fruit
+ * onto boards of various sizes and fill ratios.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpawnBenchmark {
+
+	/**
+	 * The type of fruit spawned.
+	 */
+	@Param({"Fruit", "FruitBlue", "FruitGreen", "badFruit"})
+	public String type;
+
+	/**
+	 * The number of columns and rows on the board.
+	 */
+	@Param({"25", "1000", "5000"})
+	public int size;
+
+	/**
+	 * The fraction of the board filled before spawning.
+	 */
+	@Param({"0.0", "0.5", "0.9", "0.99"})
+	public double fill;
+
+	/**
+	 * The workload being measured.
+	 */
+	private Workload workload;
+
+	@Setup
+	public void setUp() throws Exception {
+		workload = Workload.create("SpawnWorkload", type, String.valueOf(size),
+				String.valueOf(fill));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object spawn() throws Exception {
+		return workload.run();
+	}
+
+}
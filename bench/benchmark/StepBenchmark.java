@@ -0,0 +1,59 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code StepBenchmark} class measures one tick of the engine, at
+ * various snake lengths.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StepBenchmark {
+
+	/**
+	 * The length of the snake.
+	 */
+	@Param({"8", "1000", "100000", "1000000"})
+	public int length;
+
+	/**
+	 * The workload being measured.
+	 */
+	private Workload workload;
+
+	@Setup
+	public void setUp() throws Exception {
+		workload = Workload.create("StepWorkload", String.valueOf(length));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object step() throws Exception {
+		return workload.run();
+	}
+
+}
@@ -0,0 +1,50 @@
+package benchmark;
+
+/**
+ * The {@code Workload} interface is one operation of the game being
+ * benchmarked. JMH does not accept benchmarks in the default package, and
+ * classes in a named package cannot refer to the game's classes, so each
+ * benchmark drives a workload written in the default package through this
+ * interface. Every benchmark uses a single implementation, so the calls are
+ * inlined by the JIT and add nothing to the measurement.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public interface Workload {
+
+	/**
+	 * Prepares the workload.
+	 * @param params The parameters of the benchmark, as strings.
+	 * @throws Exception If the workload could not be prepared.
+	 */
+	void setUp(String... params) throws Exception;
+
+	/**
+	 * Runs the operation once.
+	 * @return A result, so that the work is not optimized away.
+	 * @throws Exception If the operation failed.
+	 */
+	Object run() throws Exception;
+
+	/**
+	 * Releases what the workload holds, such as temporary files.
+	 * @throws Exception If the workload could not be released.
+	 */
+	void tearDown() throws Exception;
+
+	/**
+	 * Creates and prepares a workload from the default package.
+	 * @param name The name of the workload class.
+	 * @param params The parameters of the benchmark.
+	 * @return The prepared workload.
+	 * @throws Exception If the workload could not be created.
+	 */
+	static Workload create(String name, String... params) throws Exception {
+		Workload workload = (Workload)Class.forName(name)
+				.getDeclaredConstructor().newInstance();
+		workload.setUp(params);
+		return workload;
+	}
+
+}
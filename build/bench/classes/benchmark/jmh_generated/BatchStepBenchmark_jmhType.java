@@ -0,0 +1,4 @@
+package benchmark.jmh_generated;
+public class BatchStepBenchmark_jmhType extends BatchStepBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package benchmark.jmh_generated;
+public class PaintBenchmark_jmhType extends PaintBenchmark_jmhType_B3 {
+}
+
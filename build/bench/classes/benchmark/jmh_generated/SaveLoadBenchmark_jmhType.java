@@ -0,0 +1,4 @@
+package benchmark.jmh_generated;
+public class SaveLoadBenchmark_jmhType extends SaveLoadBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package benchmark.jmh_generated;
+public class SpawnBenchmark_jmhType extends SpawnBenchmark_jmhType_B3 {
+}
+
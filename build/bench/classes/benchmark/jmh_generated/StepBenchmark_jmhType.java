@@ -0,0 +1,4 @@
+package benchmark.jmh_generated;
+public class StepBenchmark_jmhType extends StepBenchmark_jmhType_B3 {
+}
+
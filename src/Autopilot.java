@@ -0,0 +1,26 @@
+/**
+ * The {@code Autopilot} interface is a bot that plays the game, as run by
+ * the {@link Tournament}. Each worker thread of a tournament creates its
+ * own instance and reuses it for every game it plays, so an autopilot may
+ * keep state between ticks but must not share it between instances.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public interface Autopilot {
+
+	/**
+	 * Called when a new game starts, before its first tick.
+	 * @param engine The engine playing the game.
+	 */
+	void reset(SnakeEngine engine);
+
+	/**
+	 * Chooses the direction the snake goes in on the next tick.
+	 * @param engine The engine playing the game, between two ticks. It must
+	 * not be changed.
+	 * @return The direction, or null to keep going straight.
+	 */
+	Direction choose(SnakeEngine engine);
+
+}
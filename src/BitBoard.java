@@ -0,0 +1,140 @@
+/**
+ * The {@code BitBoard} class mirrors which tiles of a {@link Board} are
+ * occupied as a packed bitset, for picking a random empty tile regardless
+ * of the length of the snake. Bit {@code y * colCount + x} stands for the
+ * tile at {@code (x, y)}. The board itself answers what is on a tile, so
+ * the types of the tiles are not kept here.
+ * <p>
+ * The bitset takes one bit per tile of the board whether or not it is
+ * used, so boards only keep one up to {@link Board#DENSE_LIMIT} tiles.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class BitBoard {
+
+	/**
+	 * The number of words in each block of {@code blockTree}.
+	 */
+	private static final int BLOCK_WORDS = 64;
+
+	/**
+	 * The number of tiles in each block of {@code blockTree}.
+	 */
+	private static final int BLOCK_TILES = BLOCK_WORDS << 6;
+
+	/**
+	 * The number of tiles on the board.
+	 */
+	private final int tileCount;
+
+	/**
+	 * The number of words in the bitset.
+	 */
+	private final int wordCount;
+
+	/**
+	 * The bitset of tiles that are not empty.
+	 */
+	private final long[] occupied;
+
+	/**
+	 * The number of occupied tiles in each block of {@code BLOCK_WORDS}
+	 * words of {@code occupied}, as a Fenwick tree: element {@code i}, from
+	 * 1, holds the count of the {@code i & -i} blocks ending with block
+	 * {@code i - 1}. Finding the n-th empty tile then only has to descend
+	 * the tree and count the bits of one block.
+	 */
+	private final int[] blockTree;
+
+	/**
+	 * Creates a new, empty BitBoard.
+	 * @param colCount The number of columns on the board.
+	 * @param rowCount The number of rows on the board.
+	 */
+	public BitBoard(int colCount, int rowCount) {
+		this.tileCount = colCount * rowCount;
+		this.wordCount = (tileCount + 63) >>> 6;
+		this.occupied = new long[wordCount];
+		this.blockTree = new int[(wordCount + BLOCK_WORDS - 1) / BLOCK_WORDS
+				+ 1];
+	}
+
+	/**
+	 * Updates the bitset after a tile became occupied or empty.
+	 * @param index The packed index of the tile.
+	 * @param isOccupied Whether the tile is now occupied.
+	 */
+	public void set(int index, boolean isOccupied) {
+		int word = index >>> 6;
+		long bit = 1L << index;
+		if(isOccupied) {
+			occupied[word] |= bit;
+			addToBlock(word / BLOCK_WORDS, 1);
+		} else {
+			occupied[word] &= ~bit;
+			addToBlock(word / BLOCK_WORDS, -1);
+		}
+	}
+
+	/**
+	 * Adds to the occupied count of a block, in every element of
+	 * {@code blockTree} covering it.
+	 * @param block The index of the block.
+	 * @param delta The number of tiles to add.
+	 */
+	private void addToBlock(int block, int delta) {
+		for(int i = block + 1; i < blockTree.length; i += i & -i) {
+			blockTree[i] += delta;
+		}
+	}
+
+	/**
+	 * Finds the n-th empty tile in row-major order. The block holding it is
+	 * found by descending {@code blockTree}, skipping as many blocks at a
+	 * time as their empty tiles allow, so this takes one step per level of
+	 * the tree plus one per word of a single block. The result only
+	 * depends on which tiles are empty, not on the order they were emptied
+	 * in.
+	 * @param rank The number of empty tiles before the one to find.
+	 * @return The packed index of the tile, or -1 if there are not that
+	 * many empty tiles.
+	 */
+	public int selectFree(int rank) {
+		if(rank < 0) {
+			return -1;
+		}
+		int blockCount = blockTree.length - 1;
+		int block = 0;
+		for(int step = Integer.highestOneBit(blockCount); step > 0;
+				step >>>= 1) {
+			int next = block + step;
+			if(next > blockCount) {
+				continue;
+			}
+			int free = Math.min(next * BLOCK_TILES, tileCount)
+					- block * BLOCK_TILES - blockTree[next];
+			if(rank >= free) {
+				rank -= free;
+				block = next;
+			}
+		}
+		for(int w = block * BLOCK_WORDS; w < wordCount; w++) {
+			long empty = ~occupied[w];
+			if(w == wordCount - 1 && (tileCount & 63) != 0) {
+				empty &= (1L << tileCount) - 1;
+			}
+			int count = Long.bitCount(empty);
+			if(rank >= count) {
+				rank -= count;
+				continue;
+			}
+			for(; rank > 0; rank--) {
+				empty &= empty - 1;
+			}
+			return (w << 6) + Long.numberOfTrailingZeros(empty);
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,487 @@
+
+import java.util.Random;
+
+/**
+ * The {@code Board} class holds the contents of the game board. It has no
+ * dependency on Swing, so the game can be simulated without a display.
+ * <p>
+ * Tiles are stored in square chunks of {@code CHUNK_SIZE} tiles per side,
+ * which are only allocated once something is placed in them and released
+ * when they become empty again. Memory therefore grows with the occupied
+ * area rather than with the size of the board, which may be up to
+ * {@code MAX_SIZE} tiles per side. Chunks can be shared with a snapshot,
+ * and are then copied the next time they change. A tile is addressed either by its
+ * coordinates or by its packed index {@code y * colCount + x}.
+ * <p>
+ * Boards of up to {@code DENSE_LIMIT} tiles also keep a {@link BitBoard}
+ * of their occupied tiles, updated by {@code setTile}, for picking a random
+ * empty tile regardless of the length of the snake. Larger boards are
+ * mostly empty, so they pick empty tiles by sampling instead, and only
+ * count the empty tiles of each chunk if sampling keeps failing. Either way the tile picked only depends on the random
+ * number generator and on which tiles are empty, so a game restored from a
+ * save goes on exactly as the original.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class Board {
+
+	/**
+	 * The maximum number of columns or rows on a board.
+	 */
+	public static final int MAX_SIZE = 65536;
+
+	/**
+	 * The largest number of tiles for which the bit board is kept. Its
+	 * bitset takes one bit per tile however empty the board is, 2 MB at
+	 * this limit but 512 MB at {@code MAX_SIZE} tiles per side, while the
+	 * chunks only take memory where the snake is.
+	 */
+	public static final long DENSE_LIMIT = 1L << 24;
+
+	/**
+	 * The number of bits in the side of a chunk.
+	 */
+	private static final int CHUNK_SHIFT = 6;
+
+	/**
+	 * The number of tiles along each side of a chunk.
+	 */
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	/**
+	 * The number of random tiles to try before counting the empty tiles of
+	 * each chunk on a board without a bit board.
+	 */
+	private static final int SAMPLE_ATTEMPTS = 64;
+
+	/**
+	 * The tile types, indexed by their code minus one.
+	 */
+	private static final TileType[] TYPES = TileType.values();
+
+	/**
+	 * The number of columns on the board.
+	 */
+	private final int colCount;
+
+	/**
+	 * The number of rows on the board.
+	 */
+	private final int rowCount;
+
+	/**
+	 * The number of tiles on the board.
+	 */
+	private final long tileCount;
+
+	/**
+	 * The number of chunks along the width of the board.
+	 */
+	private final int chunkCols;
+
+	/**
+	 * The chunks of the board, in row-major order. Each chunk holds one
+	 * code per tile: 0 for an empty tile, or the ordinal of its type plus
+	 * one. A chunk is null while all of its tiles are empty.
+	 */
+	private final byte[][] chunks;
+
+	/**
+	 * Whether each chunk is shared with a snapshot taken by
+	 * {@code shareChunks}, and must be copied before it is changed.
+	 */
+	private final boolean[] sharedChunks;
+
+	/**
+	 * The number of tiles in each chunk that are not empty.
+	 */
+	private final int[] chunkCounts;
+
+	/**
+	 * The indices of the allocated chunks. Only the first
+	 * {@code liveChunkCount} entries are used, in no particular order.
+	 */
+	private final int[] liveChunks;
+
+	/**
+	 * The position of each chunk in {@code liveChunks}.
+	 */
+	private final int[] livePositions;
+
+	/**
+	 * The number of allocated chunks.
+	 */
+	private int liveChunkCount;
+
+	/**
+	 * The number of tiles on the board that are not empty.
+	 */
+	private long occupiedCount;
+
+	/**
+	 * The bitset of occupied tiles, or null if the board is larger than
+	 * {@code DENSE_LIMIT}.
+	 */
+	private final BitBoard bits;
+
+	/**
+	 * The listener notified of tile changes, or null.
+	 */
+	private TileListener listener;
+
+	/**
+	 * Creates a new, empty Board instance.
+	 * @param colCount The number of columns on the board.
+	 * @param rowCount The number of rows on the board.
+	 */
+	public Board(int colCount, int rowCount) {
+		if(colCount < 1 || colCount > MAX_SIZE
+				|| rowCount < 1 || rowCount > MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid board size: "
+					+ colCount + "x" + rowCount);
+		}
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.tileCount = (long)colCount * rowCount;
+		this.chunkCols = (colCount + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+		int chunkRows = (rowCount + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+		this.chunks = new byte[chunkCols * chunkRows][];
+		this.sharedChunks = new boolean[chunks.length];
+		this.chunkCounts = new int[chunks.length];
+		this.liveChunks = new int[chunks.length];
+		this.livePositions = new int[chunks.length];
+		this.bits = tileCount <= DENSE_LIMIT
+				? new BitBoard(colCount, rowCount) : null;
+	}
+
+	/**
+	 * Gets the number of columns on the board.
+	 * @return The number of columns.
+	 */
+	public int getColCount() {
+		return colCount;
+	}
+
+	/**
+	 * Gets the number of rows on the board.
+	 * @return The number of rows.
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Gets the number of tiles on the board.
+	 * @return The number of tiles.
+	 */
+	public long getTileCount() {
+		return tileCount;
+	}
+
+	/**
+	 * Clears all of the tiles on the board and releases their chunks. Only
+	 * the allocated chunks are visited, so clearing a mostly empty board is
+	 * cheap.
+	 */
+	public void clear() {
+		while(liveChunkCount > 0) {
+			int i = liveChunks[liveChunkCount - 1];
+			byte[] codes = chunks[i];
+			int baseX = (i % chunkCols) << CHUNK_SHIFT;
+			int baseY = (i / chunkCols) << CHUNK_SHIFT;
+			for(int offset = 0; offset < codes.length
+					&& chunks[i] != null; offset++) {
+				if(codes[offset] != 0) {
+					setTile(baseX + (offset & (CHUNK_SIZE - 1)),
+							baseY + (offset >>> CHUNK_SHIFT), null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the tile at the desired coordinate.
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @param type The type to set the tile to.
+	 */
+	public void setTile(int x, int y, TileType type) {
+		int chunk = (y >>> CHUNK_SHIFT) * chunkCols + (x >>> CHUNK_SHIFT);
+		int offset = ((y & (CHUNK_SIZE - 1)) << CHUNK_SHIFT)
+				| (x & (CHUNK_SIZE - 1));
+		byte[] codes = chunks[chunk];
+		if(codes == null) {
+			if(type == null) {
+				return;
+			}
+			codes = chunks[chunk] = new byte[CHUNK_SIZE * CHUNK_SIZE];
+			liveChunks[liveChunkCount] = chunk;
+			livePositions[chunk] = liveChunkCount++;
+		} else if(sharedChunks[chunk]) {
+			codes = chunks[chunk] = codes.clone();
+			sharedChunks[chunk] = false;
+		}
+
+		TileType old = codes[offset] == 0 ? null : TYPES[codes[offset] - 1];
+		codes[offset] = (byte)(type == null ? 0 : type.ordinal() + 1);
+		if(old == null && type != null) {
+			chunkCounts[chunk]++;
+			occupiedCount++;
+			if(bits != null) {
+				bits.set(y * colCount + x, true);
+			}
+		} else if(old != null && type == null) {
+			occupiedCount--;
+			if(bits != null) {
+				bits.set(y * colCount + x, false);
+			}
+			if(--chunkCounts[chunk] == 0) {
+				chunks[chunk] = null;
+				sharedChunks[chunk] = false;
+				int last = liveChunks[--liveChunkCount];
+				liveChunks[livePositions[chunk]] = last;
+				livePositions[last] = livePositions[chunk];
+			}
+		}
+
+		if(listener != null && old != type) {
+			listener.tileChanged(x, y);
+		}
+	}
+
+	/**
+	 * Gets the tile at the desired coordinate.
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @return The type of the tile, or null if it is empty.
+	 */
+	public TileType getTile(int x, int y) {
+		byte[] codes = chunks[(y >>> CHUNK_SHIFT) * chunkCols
+				+ (x >>> CHUNK_SHIFT)];
+		if(codes == null) {
+			return null;
+		}
+		int code = codes[((y & (CHUNK_SIZE - 1)) << CHUNK_SHIFT)
+				| (x & (CHUNK_SIZE - 1))];
+		return code == 0 ? null : TYPES[code - 1];
+	}
+
+	/**
+	 * Sets the tile at the desired packed index ({@code y * colCount + x}).
+	 * @param index The packed index of the tile.
+	 * @param type The type to set the tile to.
+	 */
+	public void setTile(long index, TileType type) {
+		setTile((int)(index % colCount), (int)(index / colCount), type);
+	}
+
+	/**
+	 * Gets the tile at the desired packed index ({@code y * colCount + x}).
+	 * @param index The packed index of the tile.
+	 * @return The type of the tile, or null if it is empty.
+	 */
+	public TileType getTile(long index) {
+		return getTile((int)(index % colCount), (int)(index / colCount));
+	}
+
+	/**
+	 * Replaces every tile on the board.
+	 * @param ttTiles The new tiles, in row-major order.
+	 */
+	public void setTiles(TileType[] ttTiles) {
+		if(ttTiles.length != tileCount) {
+			throw new IllegalArgumentException("Expected " + tileCount
+					+ " tiles, got " + ttTiles.length);
+		}
+		clear();
+		for(int i = 0; i < ttTiles.length; i++) {
+			if(ttTiles[i] != null) {
+				setTile(i, ttTiles[i]);
+			}
+		}
+	}
+
+	/**
+	 * Copies the tiles of the board into a new array, in row-major order.
+	 * @return The tile array.
+	 */
+	public TileType[] getTiles() {
+		if(tileCount > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("The board is too large to copy"
+					+ " into an array.");
+		}
+		TileType[] tiles = new TileType[(int)tileCount];
+		for(int y = 0; y < rowCount; y++) {
+			for(int x = 0; x < colCount; x++) {
+				tiles[y * colCount + x] = getTile(x, y);
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Gets the number of chunks along the width of the board. Chunks are
+	 * squares of {@code CHUNK_SIZE} tiles, numbered in row-major order;
+	 * the last column and row of chunks may hang over the board.
+	 * @return The number of chunk columns.
+	 */
+	public int getChunkCols() {
+		return chunkCols;
+	}
+
+	/**
+	 * Gets the number of chunks the board is split into.
+	 * @return The number of chunks.
+	 */
+	public int getChunkCount() {
+		return chunks.length;
+	}
+
+	/**
+	 * Gets the number of chunks that hold at least one tile.
+	 * @return The number of allocated chunks.
+	 */
+	public int getLiveChunkCount() {
+		return liveChunkCount;
+	}
+
+	/**
+	 * Hands the allocated chunks to a snapshot without copying them. Each
+	 * chunk is marked as shared and is copied the next time one of its
+	 * tiles changes, so the codes handed out never change afterwards and
+	 * may be read from another thread. Costs one step per allocated chunk.
+	 * @param indices The array that receives the index of each chunk, at
+	 * least {@code getLiveChunkCount()} long.
+	 * @param codes The array that receives the codes of each chunk, one
+	 * per tile in row-major order within the chunk, as read by
+	 * {@code typeOf}.
+	 */
+	public void shareChunks(int[] indices, byte[][] codes) {
+		for(int i = 0; i < liveChunkCount; i++) {
+			int chunk = liveChunks[i];
+			sharedChunks[chunk] = true;
+			indices[i] = chunk;
+			codes[i] = chunks[chunk];
+		}
+	}
+
+	/**
+	 * Gets the type of tile a chunk code stands for.
+	 * @param code The code, as handed out by {@code shareChunks}.
+	 * @return The type of the tile, or null if it is empty.
+	 */
+	public static TileType typeOf(int code) {
+		return code == 0 ? null : TYPES[code - 1];
+	}
+
+	/**
+	 * Gets the chunk code that stands for a type of tile.
+	 * @param type The type of the tile, or null if it is empty.
+	 * @return The code, as read by {@code typeOf}.
+	 */
+	public static byte codeOf(TileType type) {
+		return (byte)(type == null ? 0 : type.ordinal() + 1);
+	}
+
+	/**
+	 * Gets the number of empty tiles on the board.
+	 * @return The number of empty tiles.
+	 */
+	public long getFreeCount() {
+		return tileCount - occupiedCount;
+	}
+
+	/**
+	 * Picks an empty tile at random, each empty tile being equally likely.
+	 * On boards with a bit board the pick is the n-th empty tile in
+	 * row-major order, for a random n. On larger boards random tiles are
+	 * sampled until an empty one is found. If the board is so full that
+	 * every sample fails, the pick is the n-th empty tile in chunk order
+	 * instead, found by the occupied counts of the chunks, so it takes one
+	 * step per chunk plus a scan of one chunk rather than of the board.
+	 * @param random The random number generator to use.
+	 * @return The packed index of the tile, or -1 if the board is full.
+	 */
+	public long randomFreeTile(Random random) {
+		if(occupiedCount == tileCount) {
+			return -1;
+		}
+		if(bits != null) {
+			return bits.selectFree(random.nextInt((int)(tileCount
+					- occupiedCount)));
+		}
+
+		for(int i = 0; i < SAMPLE_ATTEMPTS; i++) {
+			int x = random.nextInt(colCount);
+			int y = random.nextInt(rowCount);
+			if(getTile(x, y) == null) {
+				return (long)y * colCount + x;
+			}
+		}
+		return selectFree(nextLong(random, tileCount - occupiedCount));
+	}
+
+	/**
+	 * Finds the n-th empty tile, counting the chunks in order and the tiles
+	 * of each chunk in row-major order. Chunks are skipped by their
+	 * occupied counts, so only the chunk holding the tile is scanned.
+	 * @param rank The number of empty tiles before the one to find.
+	 * @return The packed index of the tile, or -1 if there are not that
+	 * many empty tiles.
+	 */
+	private long selectFree(long rank) {
+		for(int chunk = 0; chunk < chunks.length; chunk++) {
+			int baseX = (chunk % chunkCols) << CHUNK_SHIFT;
+			int baseY = (chunk / chunkCols) << CHUNK_SHIFT;
+			int width = Math.min(CHUNK_SIZE, colCount - baseX);
+			int height = Math.min(CHUNK_SIZE, rowCount - baseY);
+			int free = width * height - chunkCounts[chunk];
+			if(rank >= free) {
+				rank -= free;
+				continue;
+			}
+			byte[] codes = chunks[chunk];
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					if(codes == null || codes[(y << CHUNK_SHIFT) | x] == 0) {
+						if(rank-- == 0) {
+							return (long)(baseY + y) * colCount + baseX + x;
+						}
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Draws a uniform random number that may not fit in an int, the way
+	 * {@code Random.nextInt(int)} does for ints: values from the uneven
+	 * end of the range of {@code nextLong} are drawn again.
+	 * @param random The random number generator to use.
+	 * @param bound The bound, which must be positive.
+	 * @return A number from 0 to {@code bound}, exclusive.
+	 */
+	private static long nextLong(Random random, long bound) {
+		if(bound <= Integer.MAX_VALUE) {
+			return random.nextInt((int)bound);
+		}
+		long bits;
+		long value;
+		do {
+			bits = random.nextLong() >>> 1;
+			value = bits % bound;
+		} while(bits - value + (bound - 1) < 0);
+		return value;
+	}
+
+	/**
+	 * Sets the listener notified every time a tile changes.
+	 * @param listener The listener, or null to remove it.
+	 */
+	public void setTileListener(TileListener listener) {
+		this.listener = listener;
+	}
+
+}
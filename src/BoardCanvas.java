@@ -0,0 +1,210 @@
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code BoardCanvas} class displays the game board with active
+ * rendering. A dedicated render thread draws the latest
+ * {@link BoardSnapshot} published by the game loop into a
+ * {@link BufferStrategy} and flips it, without going through the Swing
+ * repaint queue. The render thread never reads the live board, so frames
+ * are never torn, and it runs independently of the logic rate: while the
+ * snake is moving, frames are drawn at the refresh rate of the display with
+ * the snake interpolated between the last two ticks.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class BoardCanvas extends Canvas implements Runnable {
+
+	/**
+	 * Serial Version UID.
+	 */
+	private static final long serialVersionUID = 2830195512783464105L;
+
+	/**
+	 * The longest time the render thread sleeps between checks for lost
+	 * buffer contents when no new snapshot arrives.
+	 */
+	private static final long IDLE_NANOS = 1000000000L / 60L;
+
+	/**
+	 * The refresh rate assumed when the display does not report one.
+	 */
+	private static final int DEFAULT_REFRESH_RATE = 60;
+
+	/**
+	 * The SnakeGame instance.
+	 */
+	private final SnakeGame game;
+
+	/**
+	 * The number of columns shown at once.
+	 */
+	private final int viewCols;
+
+	/**
+	 * The number of rows shown at once.
+	 */
+	private final int viewRows;
+
+	/**
+	 * The renderer that draws the tiles, the grid and the messages.
+	 */
+	private final BoardRenderer renderer;
+
+	/**
+	 * The render thread, or null before {@code start} is called.
+	 */
+	private volatile Thread renderThread;
+
+	/**
+	 * Whether the window system asked for the canvas to be drawn again.
+	 */
+	private volatile boolean redraw;
+
+	/**
+	 * The time between two frames, matching the refresh rate of the
+	 * display.
+	 */
+	private long frameNanos = IDLE_NANOS;
+
+	/**
+	 * Creates a new BoardCanvas instance.
+	 * @param game The SnakeGame instance.
+	 */
+	public BoardCanvas(SnakeGame game) {
+		this.game = game;
+		Board board = game.getBoard();
+		this.viewCols = Math.min(board.getColCount(), BoardPanel.COL_COUNT);
+		this.viewRows = Math.min(board.getRowCount(), BoardPanel.ROW_COUNT);
+		this.renderer = new BoardRenderer(viewCols, viewRows);
+
+		setPreferredSize(new Dimension(viewCols * BoardPanel.TILE_SIZE,
+				viewRows * BoardPanel.TILE_SIZE));
+		setBackground(Color.WHITE);
+		setIgnoreRepaint(true);
+		setFocusable(false);
+	}
+
+	/**
+	 * Gets the number of columns shown at once.
+	 * @return The number of columns.
+	 */
+	public int getViewCols() {
+		return viewCols;
+	}
+
+	/**
+	 * Gets the number of rows shown at once.
+	 * @return The number of rows.
+	 */
+	public int getViewRows() {
+		return viewRows;
+	}
+
+	/**
+	 * Creates the buffer strategy and starts the render thread. The canvas
+	 * must already be displayable.
+	 */
+	public void start() {
+		int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+		GraphicsConfiguration config = getGraphicsConfiguration();
+		if(config != null) {
+			refreshRate = config.getDevice().getDisplayMode()
+					.getRefreshRate();
+		}
+		if(refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN) {
+			refreshRate = DEFAULT_REFRESH_RATE;
+		}
+		this.frameNanos = 1000000000L / refreshRate;
+		createBufferStrategy(2);
+		Thread thread = new Thread(this, "Render");
+		thread.setDaemon(true);
+		this.renderThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Wakes the render thread up after a new snapshot was published.
+	 */
+	public void wake() {
+		Thread thread = renderThread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	@Override
+	public void paint(Graphics g) {
+		redraw = true;
+		wake();
+	}
+
+	@Override
+	public void update(Graphics g) {
+		paint(g);
+	}
+
+	/**
+	 * The render loop. Draws a frame per display refresh until the latest
+	 * snapshot is fully interpolated, and sleeps until the next one is
+	 * published.
+	 */
+	@Override
+	public void run() {
+		BufferStrategy strategy = getBufferStrategy();
+		BoardSnapshot drawn = null;
+		float drawnAlpha = 1.0f;
+		while(true) {
+			BoardSnapshot snapshot = game.getSnapshot();
+			long now = System.nanoTime();
+			if(snapshot != null && (snapshot != drawn || drawnAlpha < 1.0f
+					|| redraw || strategy.contentsLost())) {
+				redraw = false;
+				float alpha = snapshot.getAlpha(now);
+				render(strategy, snapshot, alpha);
+				long shown = System.nanoTime();
+				game.getStats().recordRender(shown - now);
+				game.getInputLatency().frameShown(snapshot.getTick(), shown);
+				drawn = snapshot;
+				drawnAlpha = alpha;
+				long wait = now + frameNanos - System.nanoTime();
+				if(wait > 0) {
+					LockSupport.parkNanos(this, wait);
+				}
+			} else {
+				LockSupport.parkNanos(this, IDLE_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Draws a snapshot into the back buffer and shows it, drawing it again
+	 * if the buffer contents were lost in the meantime.
+	 * @param strategy The buffer strategy of the canvas.
+	 * @param snapshot The snapshot to draw.
+	 * @param alpha How far into the tick to draw the snake.
+	 */
+	private void render(BufferStrategy strategy, BoardSnapshot snapshot,
+			float alpha) {
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				renderer.drawSnapshot(g, snapshot, alpha, getBackground(),
+						getWidth(), getHeight());
+				g.dispose();
+			} while(strategy.contentsRestored());
+			strategy.show();
+			Toolkit.getDefaultToolkit().sync();
+		} while(strategy.contentsLost());
+	}
+
+}
@@ -1,11 +1,11 @@
 
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Image;
 import java.awt.Point;
-import java.awt.Toolkit;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
 
@@ -16,7 +16,7 @@ import javax.swing.JPanel;
  * @author Ricardo Licea
  *
  */
-public class BoardPanel extends JPanel {
+public class BoardPanel extends JPanel implements TileListener {
 	
 	/**
 	 * Serial Version UID.
@@ -24,13 +24,15 @@ public class BoardPanel extends JPanel {
 	private static final long serialVersionUID = -1102632585936750607L;
 
 	/**
-	 * The number of columns on the board. (Should be odd so we can start in
+	 * The default number of columns on the board, which is also the largest
+	 * number of columns shown at once. (Should be odd so we can start in
 	 * the center).
 	 */
 	public static final int COL_COUNT = 25;
 	
 	/**
-	 * The number of rows on the board. (Should be odd so we can start in
+	 * The default number of rows on the board, which is also the largest
+	 * number of rows shown at once. (Should be odd so we can start in
 	 * the center).
 	 */
 	public static final int ROW_COUNT = 25;
@@ -41,52 +43,94 @@ public class BoardPanel extends JPanel {
 	public static final int TILE_SIZE = 20;
 	
 	/**
-	 * The number of pixels to offset the eyes from the sides.
+	 * The number of changed tiles recorded between two paints before the
+	 * whole viewport is drawn again instead.
 	 */
-	private static final int EYE_LARGE_INSET = TILE_SIZE / 3;
+	private static final int MAX_DIRTY_TILES = 64;
 	
 	/**
-	 * The number of pixels to offset the eyes from the front.
+	 * The game being shown.
 	 */
-	private static final int EYE_SMALL_INSET = TILE_SIZE / 6;
+	private GameView game;
 	
 	/**
-	 * The length of the eyes from the base (small inset).
+	 * The board whose tiles are displayed by this panel.
 	 */
-	private static final int EYE_LENGTH = TILE_SIZE / 5;
-	
+	private Board board;
+
 	/**
-	 * The font to draw the text with.
+	 * The number of columns shown at once.
 	 */
-	private static final Font FONT = new Font("Skia", Font.BOLD, 25);
-		
+	private int viewCols;
+
 	/**
-	 * The SnakeGame instance.
+	 * The number of rows shown at once.
 	 */
-	private SnakeGame game;
-	
+	private int viewRows;
+
 	/**
-	 * The array of tiles that make up this board.
+	 * The renderer that draws the tiles, the grid and the messages.
 	 */
-	private TileType[] tiles;
-        
-        private Image imaImagenAzul;
-        private Image imaImagenRed;
-        private Image imaImagenGreen;
-        private Image imaImagenChocoMalo;
-        
- 
+	private BoardRenderer renderer;
+
+	/**
+	 * The image the viewport is drawn to. Only the tiles that changed are
+	 * drawn again, and each paint copies it to the screen.
+	 */
+	private BufferedImage backBuffer;
+
+	/**
+	 * The column and row of the board at the top left of the back buffer.
+	 */
+	private int bufferOriginX, bufferOriginY;
+
+	/**
+	 * The lock guarding the dirty tiles, which are recorded by the game
+	 * loop and drawn by the event dispatch thread.
+	 */
+	private final Object dirtyLock = new Object();
+
+	/**
+	 * The coordinates of the tiles that changed since the last paint, as
+	 * x and y pairs.
+	 */
+	private final int[] dirtyTiles = new int[MAX_DIRTY_TILES * 2];
+
+	/**
+	 * The coordinates of the tiles being drawn by the current paint.
+	 */
+	private final int[] paintTiles = new int[MAX_DIRTY_TILES * 2];
+
+	/**
+	 * The number of tiles that changed since the last paint.
+	 */
+	private int dirtyCount;
+
+	/**
+	 * Whether the whole viewport has to be drawn again.
+	 */
+	private boolean allDirty = true;
+
+	/**
+	 * The message state and viewport origin seen by the last call to
+	 * {@code repaintIfDirty}.
+	 */
+	private int lastMessage = -1, lastOriginX = -1, lastOriginY = -1;
 		
 	/**
 	 * Creates a new BoardPanel instance.
-	 * @param game The SnakeGame instance.
+	 * @param game The game to show, usually the SnakeGame instance.
 	 */
-	public BoardPanel(SnakeGame game) {
+	public BoardPanel(GameView game) {
 		this.game = game;
-		this.tiles = new TileType[ROW_COUNT * COL_COUNT];
+		this.board = game.getBoard();
+		this.viewCols = Math.min(board.getColCount(), COL_COUNT);
+		this.viewRows = Math.min(board.getRowCount(), ROW_COUNT);
+		this.renderer = new BoardRenderer(viewCols, viewRows);
+		board.setTileListener(this);
 		
-		setPreferredSize(new Dimension(COL_COUNT * 
-                        TILE_SIZE, ROW_COUNT * TILE_SIZE));
+		setPreferredSize(new Dimension(viewCols * 
+                        TILE_SIZE, viewRows * TILE_SIZE));
 		setBackground(Color.WHITE);
 	}
 	
@@ -94,9 +138,7 @@ public class BoardPanel extends JPanel {
 	 * Clears all of the tiles on the board and sets their values to null.
 	 */
 	public void clearBoard() {
-		for(int i = 0; i < tiles.length; i++) {
-			tiles[i] = null;
-		}
+		board.clear();
 	}
 	
 	/**
@@ -115,7 +157,7 @@ public class BoardPanel extends JPanel {
 	 * @param type The type to set the tile to.
 	 */
 	public void setTile(int x, int y, TileType type) {
-		tiles[y * ROW_COUNT + x] = type;
+		board.setTile(x, y, type);
 	}
 	
 	/**
@@ -125,259 +167,211 @@ public class BoardPanel extends JPanel {
 	 * @return
 	 */
 	public TileType getTile(int x, int y) {
-		return tiles[y * ROW_COUNT + x];
+		return board.getTile(x, y);
+	}
+	
+	/**
+	 * Records a changed tile so that the next paint draws it again.
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 */
+	@Override
+	public void tileChanged(int x, int y) {
+		synchronized(dirtyLock) {
+			if(allDirty) {
+				return;
+			}
+			if(dirtyCount == MAX_DIRTY_TILES) {
+				allDirty = true;
+				return;
+			}
+			dirtyTiles[dirtyCount * 2] = x;
+			dirtyTiles[dirtyCount * 2 + 1] = y;
+			dirtyCount++;
+		}
+	}
+	
+	/**
+	 * Asks Swing to repaint the parts of the board that changed since the
+	 * last frame. Nothing is repainted if no tile changed, the viewport did
+	 * not scroll and the message shown did not change.
+	 */
+	public void repaintIfDirty() {
+		long head = game.getHead();
+		int originX = BoardSnapshot.getViewOrigin(board, head, viewCols,
+				true);
+		int originY = BoardSnapshot.getViewOrigin(board, head, viewRows,
+				false);
+		int message = game.getMessage();
+		if(message != lastMessage || originX != lastOriginX
+				|| originY != lastOriginY) {
+			lastMessage = message;
+			lastOriginX = originX;
+			lastOriginY = originY;
+			repaint();
+			return;
+		}
+
+		Rectangle dirty = null;
+		synchronized(dirtyLock) {
+			if(allDirty) {
+				dirty = new Rectangle(0, 0, getWidth(), getHeight());
+			}
+			for(int i = 0; i < dirtyCount && !allDirty; i++) {
+				dirty = addTile(dirty, dirtyTiles[i * 2] - originX,
+						dirtyTiles[i * 2 + 1] - originY);
+			}
+		}
+		if(dirty != null) {
+			repaint(dirty);
+		}
 	}
 	
 	@Override
 	public void paintComponent(Graphics g) {
-		super.paintComponent(g);
-		
 		/*
-		 * Loop through each tile on the board and draw it if it
-		 * is not null.
+		 * Draw the tiles that changed into the back buffer, and copy it to
+		 * the screen. Boards larger than the viewport scroll to keep the
+		 * head of the snake in the middle.
 		 */
-		for(int x = 0; x < COL_COUNT; x++) {
-			for(int y = 0; y < ROW_COUNT; y++) {
-				TileType type = getTile(x, y);
-				if(type != null) {
-					drawTile(x * TILE_SIZE,
-                                                y * TILE_SIZE, type, g);
-				}
-			}
+		long tick = game.getTicks();
+		long head = game.getHead();
+		Rectangle drawn = updateBackBuffer(
+				BoardSnapshot.getViewOrigin(board, head, viewCols, true),
+				BoardSnapshot.getViewOrigin(board, head, viewRows, false));
+		if(backBuffer == null) {
+			super.paintComponent(g);
+			return;
 		}
+		g.drawImage(backBuffer, 0, 0, null);
+		game.getInputLatency().frameShown(tick, System.nanoTime());
 		
 		/*
-		 * Draw the grid on the board. This makes it easier to see exactly
-		 * where we in relation to the fruit.
-		 * 
-		 * The panel is one pixel too small to draw the bottom and right
-		 * outlines, so we outline the board with a rectangle separately.
+		 * Tiles that changed after the repaint was requested may lie
+		 * outside of the area being painted, so ask for them again.
 		 */
-		g.setColor(Color.LIGHT_GRAY);
-		g.drawRect(0, 0, getWidth() - 1, getHeight() - 1);
-		for(int x = 0; x < COL_COUNT; x++) {
-			for(int y = 0; y < ROW_COUNT; y++) {
-				g.drawLine(x * TILE_SIZE, 0, 
-                                        x * TILE_SIZE, getHeight());
-				g.drawLine(0, y * TILE_SIZE,
-                                        getWidth(), y * TILE_SIZE);
-			}
-		}		
+		Rectangle clip = g.getClipBounds();
+		if(drawn != null && clip != null && !clip.contains(drawn)) {
+			repaint(drawn);
+		}
 		
 		/*
 		 * Show a message on the screen based on the current game state.
 		 */
-		if(game.isGameOver() || game.isNewGame() || game.isPaused()) {
-			g.setColor(Color.BLUE);
-			
-			/*
-			 * Get the center coordinates of the board.
-			 */
-			int centerX = getWidth() / 2;
-			int centerY = getHeight() / 2;
-			
+		renderer.drawMessage(g, game.getMessage(), getWidth(), getHeight());
+	}
+	
+	/**
+	 * Draws the tiles that changed since the last paint into the back
+	 * buffer, or the whole viewport if too many tiles changed, the viewport
+	 * scrolled or the panel was resized.
+	 * @param originX The first column shown.
+	 * @param originY The first row shown.
+	 * @return The area of the panel that was drawn, or null if none.
+	 */
+	private Rectangle updateBackBuffer(int originX, int originY) {
+		int width = getWidth();
+		int height = getHeight();
+		if(width <= 0 || height <= 0) {
+			return null;
+		}
+
+		boolean resized = backBuffer == null
+				|| backBuffer.getWidth() != width
+				|| backBuffer.getHeight() != height;
+		boolean full;
+		int count;
+		synchronized(dirtyLock) {
+			full = allDirty || resized || originX != bufferOriginX
+					|| originY != bufferOriginY;
+			count = full ? 0 : dirtyCount;
+			System.arraycopy(dirtyTiles, 0, paintTiles, 0, count * 2);
+			dirtyCount = 0;
+			allDirty = false;
+		}
+		if(resized) {
+			backBuffer = SpriteAtlas.createImage(width, height,
+					Transparency.OPAQUE);
+		}
+
+		Graphics g = backBuffer.getGraphics();
+		BufferedImage grid = renderer.getGridLayer(width, height);
+		Rectangle drawn = null;
+		if(full) {
 			/*
-			 * Allocate the messages for and set their
-                        values based on the game
-			 * state.
+			 * Loop through each tile in the viewport and draw it if it
+			 * is not null, then draw the grid over the tiles. This makes
+			 * it easier to see exactly where we in relation to the fruit.
 			 */
-			String largeMessage = null;
-			String smallMessage = null;
-                       
-			if(game.isNewGame()) {
-				largeMessage = "Snake Game!";
-				smallMessage = "Press Enter to Start";
-			} else if(game.isGameOver()) {
-				largeMessage = "Game Over!";
-				smallMessage = "Press Enter to Restart";
-			} else if(game.isPaused()) {
-				largeMessage = "Paused";
-				smallMessage = "Press P to Resume";
-                                
-                                        
-                                        
-                                
+			g.setColor(getBackground());
+			g.fillRect(0, 0, width, height);
+			for(int x = 0; x < viewCols; x++) {
+				for(int y = 0; y < viewRows; y++) {
+					TileType type = getTile(originX + x, originY + y);
+					if(type != null) {
+						renderer.drawTile(x * TILE_SIZE, y * TILE_SIZE,
+								type, game.getDirection(), g);
+					}
+				}
 			}
-			
+			g.drawImage(grid, 0, 0, null);
+			bufferOriginX = originX;
+			bufferOriginY = originY;
+			drawn = new Rectangle(0, 0, width, height);
+		} else {
 			/*
-			 * Set the message font and draw the messages
-                        in the center of the board.
+			 * Draw each changed tile again, along with the part of the
+			 * grid that covers it.
 			 */
-			g.setFont(FONT);
-			g.drawString(largeMessage, centerX -
-                                g.getFontMetrics().stringWidth(largeMessage)
-                                        / 2, centerY - 50);
-			g.drawString(smallMessage, centerX -
-                                g.getFontMetrics().stringWidth(smallMessage)
-                                        / 2, centerY + 50);
-                  
+			for(int i = 0; i < count; i++) {
+				int x = paintTiles[i * 2] - originX;
+				int y = paintTiles[i * 2 + 1] - originY;
+				if(x < 0 || x >= viewCols || y < 0 || y >= viewRows) {
+					continue;
+				}
+				int left = x * TILE_SIZE;
+				int top = y * TILE_SIZE;
+				g.setColor(getBackground());
+				g.fillRect(left, top, TILE_SIZE, TILE_SIZE);
+				TileType type = getTile(originX + x, originY + y);
+				if(type != null) {
+					renderer.drawTile(left, top, type, game.getDirection(),
+							g);
+				}
+				g.drawImage(grid, left, top, left + TILE_SIZE,
+						top + TILE_SIZE, left, top, left + TILE_SIZE,
+						top + TILE_SIZE, null);
+				drawn = addTile(drawn, x, y);
+			}
 		}
+		g.dispose();
+		return drawn;
 	}
 	
 	/**
-	 * Draws a tile onto the board.
-	 * @param x The x coordinate of the tile (in pixels).
-	 * @param y The y coordinate of the tile (in pixels).
-	 * @param type The type of tile to draw.
-	 * @param g The graphics object to draw to.
-	 */
-	private void drawTile(int x, int y, TileType type, Graphics g) {
-	/*
-	 * Because each type of tile is drawn differently, it's easiest
-	 * to just run through a switch statement rather than come up with some
-	 * overly complex code to handle everything.
+	 * Adds the area of a tile in the viewport to a rectangle.
+	 * @param area The rectangle, or null.
+	 * @param x The column of the tile in the viewport.
+	 * @param y The row of the tile in the viewport.
+	 * @return The rectangle covering both, or null if the tile is outside
+	 * of the viewport and the rectangle is null.
 	 */
-		switch(type) {
-		
-		/*
-		 * A fruit is depicted as a small red 
-                    circle that with a bit of padding
-		 * on each side.
-		 */
-		case Fruit:
-                    //obtener imagen de la fruta red
-                    imaImagenRed = Toolkit.getDefaultToolkit()
-                .getImage(this.getClass().getResource("candyRed.png"));
-                        g.drawImage(imaImagenRed,
-                               x + 2, y + 2, TILE_SIZE - 4, TILE_SIZE -4, this);
-			break;
-                 /*
-		 * A fruit is depicted as a small blue 
-                    circle that with a bit of padding
-		 * on each side.
-		 */       
-                case FruitBlue:
-                    //obtener imagen de la fruta azul
-                    imaImagenAzul = Toolkit.getDefaultToolkit()
-                .getImage(this.getClass().getResource("candyBlue.png"));
-			g.drawImage(imaImagenAzul,
-                               x + 2, y + 2, TILE_SIZE - 4, TILE_SIZE -4, this);
-			break;
-                /*
-		 * A fruit is depicted as a small purple 
-                    circle that with a bit of padding
-		 * on each side.
-		 */
-                case FruitGreen:
-			//obtener imagen de la fruta azul
-                    imaImagenGreen = Toolkit.getDefaultToolkit()
-                .getImage(this.getClass().getResource("candyGreen.png"));
-			g.drawImage(imaImagenGreen,
-                               x + 2, y + 2, TILE_SIZE - 4, TILE_SIZE -4, this);
-			break;
-                /*
-		 * A fruit is depicted as a small black
-                    circle that with a bit of padding
-		 * on each side.
-		 */        
-                case badFruit:
-			//obtener imagen de la fruta azul
-                    imaImagenChocoMalo = Toolkit.getDefaultToolkit()
-                .getImage(this.getClass().getResource("creamChoco.png"));
-			g.drawImage(imaImagenChocoMalo,
-                               x + 2, y + 2, TILE_SIZE - 4, TILE_SIZE -4, this);
-			break;
-			
-		/*
-		 * The snake body is depicted as a green square that takes up the
-		 * entire tile.
-		 */
-		case SnakeBody:
-			g.setColor(Color.BLACK);
-			g.fillRect(x, y, TILE_SIZE, TILE_SIZE);
-			break;
-			
-		/*
-		 * The snake head is depicted similarly to the body, but with two
-		 * lines (representing eyes) that indicate it's direction.
-		 */
-		case SnakeHead:
-			//Fill the tile in with green.
-			g.setColor(Color.BLACK);
-			g.fillRect(x, y, TILE_SIZE, TILE_SIZE);
-			
-		//Set the color to black so that we can start drawing the eyes.
-			g.setColor(Color.RED);
-			
-		/*
-		 * The eyes will always 'face' the direction that the snake is
-		 * moving.
-		 * 
-		 * Vertical lines indicate that it's facing North or South, and
-		 * Horizontal lines indicate that it's facing East or West.
-		 * 
-		 * Additionally, the eyes will be closer to whichever edge it's
-		 * facing.
-		 * 
-		 * Drawing the eyes is fairly simple, but is a bit difficult to
-		 * explain. The basic process is this:
-		 * 
-		 * First, we add (or subtract) EYE_SMALL_INSET to or from the
-		 * side of the tile representing the direction we're facing. This
-		 * will be constant for both eyes, and is represented by the
-		 * variable 'baseX' or 'baseY' (depending on orientation).
-		 * 
-		 * Next, we add (or subtract) EYE_LARGE_INSET to and from the two
-		 * neighboring directions (Example; East and West if we're facing
-		 * north).
-		 * 
-		 * Finally, we draw a line from the base offset that is EYE_LENGTH
-		 * pixels in length at whatever the offset is from the neighboring
-		 * directions.
-		 * 
-		 */
-			switch(game.getDirection()) {
-			case North: {
-				int baseY = y + EYE_SMALL_INSET;
-				g.drawLine(x + EYE_LARGE_INSET,
-                                        baseY, x + EYE_LARGE_INSET, 
-                                        baseY + EYE_LENGTH);
-				g.drawLine(x + TILE_SIZE -
-                                        EYE_LARGE_INSET, baseY,
-                                        x + TILE_SIZE - EYE_LARGE_INSET, 
-                                        baseY + EYE_LENGTH);
-				break;
-			}
-				
-			case South: {
-				int baseY = y + TILE_SIZE - EYE_SMALL_INSET;
-				g.drawLine(x + EYE_LARGE_INSET, 
-                                        baseY, x + EYE_LARGE_INSET,
-                                        baseY - EYE_LENGTH);
-				g.drawLine(x + TILE_SIZE -
-                                        EYE_LARGE_INSET, baseY,
-                                        x + TILE_SIZE - EYE_LARGE_INSET, 
-                                        baseY - EYE_LENGTH);
-				break;
-			}
-			
-			case West: {
-				int baseX = x + EYE_SMALL_INSET;
-				g.drawLine(baseX, y + EYE_LARGE_INSET,
-                                        baseX + EYE_LENGTH, y + EYE_LARGE_INSET);
-				g.drawLine(baseX, y + TILE_SIZE - 
-                                        EYE_LARGE_INSET, baseX + EYE_LENGTH,
-                                        y + TILE_SIZE - EYE_LARGE_INSET);
-				break;
-			}
-				
-			case East: {
-				int baseX = x + TILE_SIZE - EYE_SMALL_INSET;
-				g.drawLine(baseX, y + EYE_LARGE_INSET,
-                                        baseX - EYE_LENGTH, y + EYE_LARGE_INSET);
-				g.drawLine(baseX, y + TILE_SIZE - 
-                                        EYE_LARGE_INSET, baseX - EYE_LENGTH,
-                                        y + TILE_SIZE - EYE_LARGE_INSET);
-				break;
-			}
-			
-			}
-			break;
+	private Rectangle addTile(Rectangle area, int x, int y) {
+		if(x < 0 || x >= viewCols || y < 0 || y >= viewRows) {
+			return area;
 		}
+		Rectangle tile = new Rectangle(x * TILE_SIZE, y * TILE_SIZE,
+				TILE_SIZE, TILE_SIZE);
+		if(area == null) {
+			return tile;
+		}
+		area.add(tile);
+		return area;
 	}
+	
         public void setState(int[] State) {
         // Create title similar to the board
-        tiles = new TileType[State.length];
+        TileType[] tiles = new TileType[State.length];
         // If different from -1 assign a value to the cel 
         for (int iC = 0; iC < State.length; iC++) {            
                 if (State[iC] != -1) {
@@ -386,6 +380,7 @@ public class BoardPanel extends JPanel {
                     tiles[iC] = null;
                 }            
         }
+        board.setTiles(tiles);
     }
     
     /**
@@ -395,6 +390,7 @@ public class BoardPanel extends JPanel {
     * 
     */
     public int[] getState() {
+        TileType[] tiles = board.getTiles();
         // New matrix for sotring the type of piece 
         int State[] = new int[tiles.length];
         // In case of a null value on a cel assign -1 else assign a value
@@ -417,7 +413,7 @@ public class BoardPanel extends JPanel {
          * to null to clear the board.
          */
         for (int i = 0; i < ROW_COUNT; i++) {            
-                tiles[i] = null;            
+                board.setTile(i, null);            
         }
     }
     
@@ -427,18 +423,19 @@ public class BoardPanel extends JPanel {
          * to null if snake is found
          */
         for (int i = 0; i < ROW_COUNT; i++) { 
-            if (tiles[i].getTipo() == 1 || tiles[i].getTipo() == 2)
-                tiles[i] = null;            
+            TileType tile = board.getTile(i);
+            if (tile.getTipo() == 1 || tile.getTipo() == 2)
+                board.setTile(i, null);            
         }
     }
     
     public void setTile(TileType[] ttTiles){
         
-        this.tiles = ttTiles;
+        board.setTiles(ttTiles);
     }
     
     public TileType[] getTileType(){
-        return tiles;
+        return board.getTiles();
 }
 
 }
\ No newline at end of file
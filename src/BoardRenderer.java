@@ -0,0 +1,375 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * The {@code BoardRenderer} class draws the tiles, the grid and the game
+ * messages of the board. It is shared by {@link BoardPanel}, which paints
+ * through Swing, and {@link BoardCanvas}, which renders actively on its own
+ * thread.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class BoardRenderer {
+
+	/**
+	 * The size of each tile in pixels.
+	 */
+	private static final int TILE_SIZE = BoardPanel.TILE_SIZE;
+	
+	/**
+	 * The number of pixels to offset the eyes from the sides.
+	 */
+	private static final int EYE_LARGE_INSET = TILE_SIZE / 3;
+	
+	/**
+	 * The number of pixels to offset the eyes from the front.
+	 */
+	private static final int EYE_SMALL_INSET = TILE_SIZE / 6;
+	
+	/**
+	 * The length of the eyes from the base (small inset).
+	 */
+	private static final int EYE_LENGTH = TILE_SIZE / 5;
+	
+	/**
+	 * The font to draw the text with.
+	 */
+	private static final Font FONT = new Font("Skia", Font.BOLD, 25);
+	
+	/**
+	 * The number of columns shown at once.
+	 */
+	private final int viewCols;
+
+	/**
+	 * The number of rows shown at once.
+	 */
+	private final int viewRows;
+
+	/**
+	 * The fruit sprites, decoded and scaled once.
+	 */
+	private final SpriteAtlas sprites;
+
+	/**
+	 * The grid lines, drawn once for the current size of the board.
+	 */
+	private BufferedImage gridLayer;
+
+	/**
+	 * Creates a new BoardRenderer.
+	 * @param viewCols The number of columns shown at once.
+	 * @param viewRows The number of rows shown at once.
+	 */
+	public BoardRenderer(int viewCols, int viewRows) {
+		this.viewCols = viewCols;
+		this.viewRows = viewRows;
+		this.sprites = new SpriteAtlas(TILE_SIZE - 4);
+	}
+
+	/**
+	 * Draws a whole snapshot: the background, the tiles, the grid over the
+	 * tiles and the message. While the tick is not over, the head and the
+	 * tail of the snake are drawn part of the way between where they were
+	 * before the tick and where they are now, so the snake glides instead
+	 * of jumping one tile per tick.
+	 * @param g The graphics object to draw to.
+	 * @param snapshot The snapshot to draw.
+	 * @param alpha How far into the tick to draw the snake, from 0 to 1.
+	 * @param background The background color.
+	 * @param width The width of the board in pixels.
+	 * @param height The height of the board in pixels.
+	 */
+	public void drawSnapshot(Graphics g, BoardSnapshot snapshot, float alpha,
+			Color background, int width, int height) {
+		g.setColor(background);
+		g.fillRect(0, 0, width, height);
+
+		long head = snapshot.getHead();
+		long previousHead = snapshot.getPreviousHead();
+		boolean slideHead = alpha < 1.0f && head != -1 && previousHead != -1
+				&& head != previousHead;
+		int headX = slideHead ? snapshot.getViewX(head) : -1;
+		int headY = slideHead ? snapshot.getViewY(head) : -1;
+		for(int x = 0; x < snapshot.getViewCols(); x++) {
+			for(int y = 0; y < snapshot.getViewRows(); y++) {
+				TileType type = snapshot.getTile(x, y);
+				if(type != null && (x != headX || y != headY)) {
+					drawTile(x * TILE_SIZE, y * TILE_SIZE, type,
+							snapshot.getDirection(), g);
+				}
+			}
+		}
+
+		/*
+		 * The removed tail slides onto the new tail, unless something was
+		 * spawned where it used to be. The head slides out of the tile it
+		 * left, which is already drawn as part of the body.
+		 */
+		long previousTail = snapshot.getPreviousTail();
+		if(alpha < 1.0f && previousTail != -1 && snapshot.getTail() != -1) {
+			int x = snapshot.getViewX(previousTail);
+			int y = snapshot.getViewY(previousTail);
+			if(x < 0 || y < 0 || x >= snapshot.getViewCols()
+					|| y >= snapshot.getViewRows()
+					|| snapshot.getTile(x, y) == null) {
+				drawSliding(g, snapshot, previousTail, snapshot.getTail(),
+						alpha, TileType.SnakeBody);
+			}
+		}
+		if(slideHead) {
+			drawSliding(g, snapshot, previousHead, head, alpha,
+					TileType.SnakeHead);
+		}
+		BufferedImage grid = getGridLayer(width, height);
+		if(grid != null) {
+			g.drawImage(grid, 0, 0, null);
+		}
+		drawMessage(g, snapshot.getMessage(), width, height);
+	}
+
+	/**
+	 * Draws a snake tile part of the way from one cell to the next.
+	 * @param g The graphics object to draw to.
+	 * @param snapshot The snapshot being drawn.
+	 * @param from The packed index of the cell the tile leaves.
+	 * @param to The packed index of the cell the tile moves to.
+	 * @param alpha How far the tile has moved, from 0 to 1.
+	 * @param type The type of tile to draw.
+	 */
+	private void drawSliding(Graphics g, BoardSnapshot snapshot, long from,
+			long to, float alpha, TileType type) {
+		int fromX = snapshot.getViewX(from) * TILE_SIZE;
+		int fromY = snapshot.getViewY(from) * TILE_SIZE;
+		int toX = snapshot.getViewX(to) * TILE_SIZE;
+		int toY = snapshot.getViewY(to) * TILE_SIZE;
+		drawTile(fromX + Math.round((toX - fromX) * alpha),
+				fromY + Math.round((toY - fromY) * alpha), type,
+				snapshot.getDirection(), g);
+	}
+
+	/**
+	 * Gets the image of the grid lines, drawing it again if the size of the
+	 * board changed since it was last drawn.
+	 * @param width The width of the board in pixels.
+	 * @param height The height of the board in pixels.
+	 * @return The grid image, or null if the board has no size yet.
+	 */
+	public BufferedImage getGridLayer(int width, int height) {
+		if(width <= 0 || height <= 0) {
+			return null;
+		}
+		if(gridLayer != null && gridLayer.getWidth() == width
+				&& gridLayer.getHeight() == height) {
+			return gridLayer;
+		}
+
+		/*
+		 * The panel is one pixel too small to draw the bottom and right
+		 * outlines, so we outline the board with a rectangle separately.
+		 */
+		gridLayer = SpriteAtlas.createImage(width, height,
+				Transparency.TRANSLUCENT);
+		Graphics g = gridLayer.getGraphics();
+		g.setColor(Color.LIGHT_GRAY);
+		g.drawRect(0, 0, width - 1, height - 1);
+		for(int x = 0; x < viewCols; x++) {
+			g.drawLine(x * TILE_SIZE, 0, x * TILE_SIZE, height);
+		}
+		for(int y = 0; y < viewRows; y++) {
+			g.drawLine(0, y * TILE_SIZE, width, y * TILE_SIZE);
+		}
+		g.dispose();
+		return gridLayer;
+	}
+
+	/**
+	 * Shows a message on the screen based on the current game state.
+	 * @param g The graphics object to draw to.
+	 * @param message The message flags from {@link BoardSnapshot}.
+	 * @param width The width of the board in pixels.
+	 * @param height The height of the board in pixels.
+	 */
+	public void drawMessage(Graphics g, int message, int width, int height) {
+		if(message != 0) {
+			g.setColor(Color.BLUE);
+			
+			/*
+			 * Get the center coordinates of the board.
+			 */
+			int centerX = width / 2;
+			int centerY = height / 2;
+			
+			/*
+			 * Allocate the messages for and set their
+                        values based on the game
+			 * state.
+			 */
+			String largeMessage = null;
+			String smallMessage = null;
+                       
+			if((message & BoardSnapshot.NEW_GAME) != 0) {
+				largeMessage = "Snake Game!";
+				smallMessage = "Press Enter to Start";
+			} else if((message & BoardSnapshot.GAME_OVER) != 0) {
+				largeMessage = "Game Over!";
+				smallMessage = "Press Enter to Restart";
+			} else if((message & BoardSnapshot.PAUSED) != 0) {
+				largeMessage = "Paused";
+				smallMessage = "Press P to Resume";
+                                
+                                        
+                                        
+                                
+			}
+			
+			/*
+			 * Set the message font and draw the messages
+                        in the center of the board.
+			 */
+			g.setFont(FONT);
+			g.drawString(largeMessage, centerX -
+                                g.getFontMetrics().stringWidth(largeMessage)
+                                        / 2, centerY - 50);
+			g.drawString(smallMessage, centerX -
+                                g.getFontMetrics().stringWidth(smallMessage)
+                                        / 2, centerY + 50);
+                  
+		}
+	}
+
+	/**
+	 * Draws a tile onto the board.
+	 * @param x The x coordinate of the tile (in pixels).
+	 * @param y The y coordinate of the tile (in pixels).
+	 * @param type The type of tile to draw.
+	 * @param direction The direction the snake is facing.
+	 * @param g The graphics object to draw to.
+	 */
+	public void drawTile(int x, int y, TileType type, Direction direction,
+			Graphics g) {
+	/*
+	 * Because each type of tile is drawn differently, it's easiest
+	 * to just run through a switch statement rather than come up with some
+	 * overly complex code to handle everything.
+	 */
+		switch(type) {
+		
+		/*
+		 * Each fruit is depicted by its sprite, with a bit of padding on
+		 * each side. The sprites are already scaled in the atlas, so this
+		 * is a plain copy.
+		 */
+		case Fruit:
+		case FruitBlue:
+		case FruitGreen:
+		case badFruit:
+			sprites.draw(g, type, x + 2, y + 2);
+			break;
+			
+		/*
+		 * The snake body is depicted as a green square that takes up the
+		 * entire tile.
+		 */
+		case SnakeBody:
+			g.setColor(Color.BLACK);
+			g.fillRect(x, y, TILE_SIZE, TILE_SIZE);
+			break;
+			
+		/*
+		 * The snake head is depicted similarly to the body, but with two
+		 * lines (representing eyes) that indicate it's direction.
+		 */
+		case SnakeHead:
+			//Fill the tile in with green.
+			g.setColor(Color.BLACK);
+			g.fillRect(x, y, TILE_SIZE, TILE_SIZE);
+			
+		//Set the color to black so that we can start drawing the eyes.
+			g.setColor(Color.RED);
+			
+		/*
+		 * The eyes will always 'face' the direction that the snake is
+		 * moving.
+		 * 
+		 * Vertical lines indicate that it's facing North or South, and
+		 * Horizontal lines indicate that it's facing East or West.
+		 * 
+		 * Additionally, the eyes will be closer to whichever edge it's
+		 * facing.
+		 * 
+		 * Drawing the eyes is fairly simple, but is a bit difficult to
+		 * explain. The basic process is this:
+		 * 
+		 * First, we add (or subtract) EYE_SMALL_INSET to or from the
+		 * side of the tile representing the direction we're facing. This
+		 * will be constant for both eyes, and is represented by the
+		 * variable 'baseX' or 'baseY' (depending on orientation).
+		 * 
+		 * Next, we add (or subtract) EYE_LARGE_INSET to and from the two
+		 * neighboring directions (Example; East and West if we're facing
+		 * north).
+		 * 
+		 * Finally, we draw a line from the base offset that is EYE_LENGTH
+		 * pixels in length at whatever the offset is from the neighboring
+		 * directions.
+		 * 
+		 */
+			if(direction == null) {
+				break;
+			}
+			switch(direction) {
+			case North: {
+				int baseY = y + EYE_SMALL_INSET;
+				g.drawLine(x + EYE_LARGE_INSET,
+                                        baseY, x + EYE_LARGE_INSET, 
+                                        baseY + EYE_LENGTH);
+				g.drawLine(x + TILE_SIZE -
+                                        EYE_LARGE_INSET, baseY,
+                                        x + TILE_SIZE - EYE_LARGE_INSET, 
+                                        baseY + EYE_LENGTH);
+				break;
+			}
+				
+			case South: {
+				int baseY = y + TILE_SIZE - EYE_SMALL_INSET;
+				g.drawLine(x + EYE_LARGE_INSET, 
+                                        baseY, x + EYE_LARGE_INSET,
+                                        baseY - EYE_LENGTH);
+				g.drawLine(x + TILE_SIZE -
+                                        EYE_LARGE_INSET, baseY,
+                                        x + TILE_SIZE - EYE_LARGE_INSET, 
+                                        baseY - EYE_LENGTH);
+				break;
+			}
+			
+			case West: {
+				int baseX = x + EYE_SMALL_INSET;
+				g.drawLine(baseX, y + EYE_LARGE_INSET,
+                                        baseX + EYE_LENGTH, y + EYE_LARGE_INSET);
+				g.drawLine(baseX, y + TILE_SIZE - 
+                                        EYE_LARGE_INSET, baseX + EYE_LENGTH,
+                                        y + TILE_SIZE - EYE_LARGE_INSET);
+				break;
+			}
+				
+			case East: {
+				int baseX = x + TILE_SIZE - EYE_SMALL_INSET;
+				g.drawLine(baseX, y + EYE_LARGE_INSET,
+                                        baseX - EYE_LENGTH, y + EYE_LARGE_INSET);
+				g.drawLine(baseX, y + TILE_SIZE - 
+                                        EYE_LARGE_INSET, baseX - EYE_LENGTH,
+                                        y + TILE_SIZE - EYE_LARGE_INSET);
+				break;
+			}
+			
+			}
+			break;
+		}
+	}
+
+}
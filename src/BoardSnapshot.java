@@ -0,0 +1,321 @@
+
+/**
+ * The {@code BoardSnapshot} class is an immutable copy of the part of the
+ * board that is visible on screen, taken by the game loop at the end of a
+ * tick. Renderers on other threads draw from the latest snapshot instead of
+ * reading the live board, so they never see a half-updated tick.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public final class BoardSnapshot {
+
+	/**
+	 * The message flag shown before the first game.
+	 */
+	public static final int NEW_GAME = 1;
+
+	/**
+	 * The message flag shown once the game is over.
+	 */
+	public static final int GAME_OVER = 2;
+
+	/**
+	 * The message flag shown while the game is paused.
+	 */
+	public static final int PAUSED = 4;
+
+	/**
+	 * The tile types, indexed by their code minus one.
+	 */
+	private static final TileType[] TYPES = TileType.values();
+
+	/**
+	 * The first column and row of the board shown.
+	 */
+	private final int originX, originY;
+
+	/**
+	 * The number of columns and rows shown.
+	 */
+	private final int viewCols, viewRows;
+
+	/**
+	 * The tiles shown, in row-major order: 0 for an empty tile, or the
+	 * ordinal of its type plus one.
+	 */
+	private final byte[] codes;
+
+	/**
+	 * The direction the snake is facing, or null.
+	 */
+	private final Direction direction;
+
+	/**
+	 * The message flags.
+	 */
+	private final int message;
+
+	/**
+	 * The number of logic ticks run before the snapshot was taken.
+	 */
+	private final long tick;
+
+	/**
+	 * The number of columns on the board, used to unpack cell indices.
+	 */
+	private final int colCount;
+
+	/**
+	 * The packed index of the head and of the tail of the snake, or -1.
+	 */
+	private final long head, tail;
+
+	/**
+	 * The packed index of the head before the last tick and of the tail
+	 * removed during it, or -1.
+	 */
+	private final long previousHead, previousTail;
+
+	/**
+	 * The {@code System.nanoTime} at which the last tick was due.
+	 */
+	private final long tickNanos;
+
+	/**
+	 * The length of a tick in nanoseconds, or 0 if the snake is not moving
+	 * and should not be interpolated.
+	 */
+	private final long periodNanos;
+
+	/**
+	 * Creates a new BoardSnapshot.
+	 * @param originX The first column shown.
+	 * @param originY The first row shown.
+	 * @param viewCols The number of columns shown.
+	 * @param viewRows The number of rows shown.
+	 * @param codes The codes of the tiles shown.
+	 * @param direction The direction the snake is facing, or null.
+	 * @param message The message flags.
+	 * @param tick The number of logic ticks run so far.
+	 * @param engine The engine the snake is read from.
+	 * @param tickNanos The time at which the last tick was due.
+	 * @param periodNanos The length of a tick, or 0 if not moving.
+	 */
+	private BoardSnapshot(int originX, int originY, int viewCols,
+			int viewRows, byte[] codes, Direction direction, int message,
+			long tick, SnakeEngine engine, long tickNanos, long periodNanos) {
+		this.originX = originX;
+		this.originY = originY;
+		this.viewCols = viewCols;
+		this.viewRows = viewRows;
+		this.codes = codes;
+		this.direction = direction;
+		this.message = message;
+		this.tick = tick;
+		SnakeRing snake = engine.getSnakeRing();
+		this.colCount = engine.getBoard().getColCount();
+		this.head = snake.size() > 0 ? snake.peekHead() : -1;
+		this.tail = snake.size() > 0 ? snake.peekTail() : -1;
+		this.previousHead = engine.getPreviousHead();
+		this.previousTail = engine.getPreviousTail();
+		this.tickNanos = tickNanos;
+		this.periodNanos = periodNanos;
+	}
+
+	/**
+	 * Copies the visible part of the board of an engine, along with where
+	 * the head and tail of the snake were before the last tick. The
+	 * viewport scrolls to keep the head of the snake as close to its middle
+	 * as the edges allow.
+	 * @param engine The engine to copy.
+	 * @param viewCols The number of columns shown.
+	 * @param viewRows The number of rows shown.
+	 * @param message The message flags.
+	 * @param tick The number of logic ticks run so far.
+	 * @param tickNanos The {@code System.nanoTime} at which the last tick
+	 * was due.
+	 * @param periodNanos The length of a tick in nanoseconds, or 0 if the
+	 * snake should be drawn without interpolation.
+	 * @return The new snapshot.
+	 */
+	public static BoardSnapshot capture(SnakeEngine engine, int viewCols,
+			int viewRows, int message, long tick, long tickNanos,
+			long periodNanos) {
+		Board board = engine.getBoard();
+		SnakeRing snake = engine.getSnakeRing();
+		long head = snake.size() > 0 ? snake.peekHead() : -1;
+		int originX = getViewOrigin(board, head, viewCols, true);
+		int originY = getViewOrigin(board, head, viewRows, false);
+		byte[] codes = new byte[viewCols * viewRows];
+		for(int y = 0; y < viewRows; y++) {
+			for(int x = 0; x < viewCols; x++) {
+				TileType type = board.getTile(originX + x, originY + y);
+				if(type != null) {
+					codes[y * viewCols + x] = (byte)(type.ordinal() + 1);
+				}
+			}
+		}
+		return new BoardSnapshot(originX, originY, viewCols, viewRows,
+				codes, engine.getDirection(), message, tick, engine, tickNanos,
+				periodNanos);
+	}
+
+	/**
+	 * Gets the first column or row of the viewport, keeping the head of the
+	 * snake as close to its middle as the edges of the board allow.
+	 * @param board The board shown.
+	 * @param head The packed index of the head, or -1 if there is none.
+	 * @param view The number of columns or rows shown.
+	 * @param column Whether to get the column rather than the row.
+	 * @return The first column or row shown.
+	 */
+	public static int getViewOrigin(Board board, long head, int view,
+			boolean column) {
+		int size = column ? board.getColCount() : board.getRowCount();
+		if(head < 0 || size == view) {
+			return (size - view) / 2;
+		}
+		int center = (int)(column ? head % board.getColCount()
+				: head / board.getColCount());
+		return Math.max(0, Math.min(size - view, center - view / 2));
+	}
+
+	/**
+	 * Gets a visible tile.
+	 * @param x The column of the tile in the viewport.
+	 * @param y The row of the tile in the viewport.
+	 * @return The type of the tile, or null if it is empty.
+	 */
+	public TileType getTile(int x, int y) {
+		int code = codes[y * viewCols + x];
+		return code == 0 ? null : TYPES[code - 1];
+	}
+
+	/**
+	 * Gets how far the display is between the previous tick and the last
+	 * one.
+	 * @param now The current {@code System.nanoTime}.
+	 * @return The fraction of the tick elapsed, from 0 to 1, or 1 if the
+	 * snake is not moving.
+	 */
+	public float getAlpha(long now) {
+		if(periodNanos <= 0) {
+			return 1.0f;
+		}
+		long elapsed = now - tickNanos;
+		if(elapsed <= 0) {
+			return 0.0f;
+		}
+		return elapsed >= periodNanos ? 1.0f
+				: (float)elapsed / periodNanos;
+	}
+
+	/**
+	 * Gets the column of a cell in the viewport.
+	 * @param cell The packed index of the cell.
+	 * @return The column, which may lie outside the viewport.
+	 */
+	public int getViewX(long cell) {
+		return (int)(cell % colCount) - originX;
+	}
+
+	/**
+	 * Gets the row of a cell in the viewport.
+	 * @param cell The packed index of the cell.
+	 * @return The row, which may lie outside the viewport.
+	 */
+	public int getViewY(long cell) {
+		return (int)(cell / colCount) - originY;
+	}
+
+	/**
+	 * Gets the head of the snake.
+	 * @return The packed index of the head, or -1.
+	 */
+	public long getHead() {
+		return head;
+	}
+
+	/**
+	 * Gets the tail of the snake.
+	 * @return The packed index of the tail, or -1.
+	 */
+	public long getTail() {
+		return tail;
+	}
+
+	/**
+	 * Gets the head of the snake before the last tick.
+	 * @return The packed index of the previous head, or -1.
+	 */
+	public long getPreviousHead() {
+		return previousHead;
+	}
+
+	/**
+	 * Gets the tail removed from the snake during the last tick.
+	 * @return The packed index of the removed tail, or -1.
+	 */
+	public long getPreviousTail() {
+		return previousTail;
+	}
+
+	/**
+	 * Gets the first column of the board shown.
+	 * @return The first column.
+	 */
+	public int getOriginX() {
+		return originX;
+	}
+
+	/**
+	 * Gets the first row of the board shown.
+	 * @return The first row.
+	 */
+	public int getOriginY() {
+		return originY;
+	}
+
+	/**
+	 * Gets the number of columns shown.
+	 * @return The number of columns.
+	 */
+	public int getViewCols() {
+		return viewCols;
+	}
+
+	/**
+	 * Gets the number of rows shown.
+	 * @return The number of rows.
+	 */
+	public int getViewRows() {
+		return viewRows;
+	}
+
+	/**
+	 * Gets the direction the snake is facing.
+	 * @return The direction, or null.
+	 */
+	public Direction getDirection() {
+		return direction;
+	}
+
+	/**
+	 * Gets the message flags.
+	 * @return A combination of {@code NEW_GAME}, {@code GAME_OVER} and
+	 * {@code PAUSED}.
+	 */
+	public int getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the number of logic ticks run before the snapshot was taken.
+	 * @return The tick number.
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+}
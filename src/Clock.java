@@ -1,7 +1,8 @@
 
 /**
  * The {@code Clock} class is responsible for tracking the number of cycles
- * that have elapsed over time. 
+ * that have elapsed over time. Time is kept in nanoseconds, so the clock
+ * stays exact at high cycle rates.
  * @author Miguel Bazan
  * @author Ricardo Licea
  *
@@ -9,13 +10,13 @@
 public class Clock {
 	
 	/**
-	 * The number of milliseconds that make up one cycle.
+	 * The number of nanoseconds that make up one cycle.
 	 */
-	private float millisPerCycle;
+	private long nanosPerCycle;
 	
 	/**
 	 * The last time that the clock was updated (used for calculating the
-	 * delta time).
+	 * delta time), in nanoseconds.
 	 */
 	private long lastUpdate;
 	
@@ -25,9 +26,22 @@ public class Clock {
 	private int elapsedCycles;
 	
 	/**
-	 * The amount of excess time towards the next elapsed cycle.
+	 * The amount of excess time towards the next elapsed cycle, in
+	 * nanoseconds.
 	 */
-	private float excessCycles;
+	private long excessNanos;
+	
+	/**
+	 * The largest number of cycles that may be pending after an update, or
+	 * 0 for no limit.
+	 */
+	private int maxCyclesPerUpdate;
+	
+	/**
+	 * The number of cycles dropped because of {@code maxCyclesPerUpdate}
+	 * since the clock was reset.
+	 */
+	private long droppedCycles;
 	
 	/**
 	 * Whether or not the clock is paused.
@@ -48,7 +62,21 @@ public class Clock {
 	 * @param cyclesPerSecond The number of cycles per second.
 	 */
 	public void setCyclesPerSecond(float cyclesPerSecond) {
-		this.millisPerCycle = (1.0f / cyclesPerSecond) * 1000;
+		this.nanosPerCycle = Math.max(1L,
+				Math.round(1000000000.0 / cyclesPerSecond));
+	}
+	
+	/**
+	 * Limits how many cycles may be pending after an update. When the
+	 * program falls behind (a slow frame, a stall of the machine), the
+	 * clock catches up by at most this many cycles and drops the rest,
+	 * instead of running a burst of cycles that makes it fall further
+	 * behind.
+	 * @param maxCycles The largest number of pending cycles, or 0 for no
+	 * limit.
+	 */
+	public void setMaxCyclesPerUpdate(int maxCycles) {
+		this.maxCyclesPerUpdate = maxCycles;
 	}
 	
 	/**
@@ -58,8 +86,9 @@ public class Clock {
 	 */
 	public void reset() {
 		this.elapsedCycles = 0;
-		this.excessCycles = 0.0f;
-		this.lastUpdate = getCurrentTime();
+		this.excessNanos = 0L;
+		this.droppedCycles = 0L;
+		this.lastUpdate = System.nanoTime();
 		this.isPaused = false;
 	}
 	
@@ -71,14 +100,20 @@ public class Clock {
 	 */
 	public void update() {
 		//Get the current time and calculate the delta time.
-		long currUpdate = getCurrentTime();
-		float delta = (float)(currUpdate - lastUpdate) + excessCycles;
+		long currUpdate = System.nanoTime();
+		long delta = (currUpdate - lastUpdate) + excessNanos;
 		
 		//Update the number of elapsed and excess ticks if we're not paused.
 		if(!isPaused) {
-			this.elapsedCycles += (int)Math.floor(delta 
-                                / millisPerCycle);
-			this.excessCycles = delta % millisPerCycle;
+			long cycles = delta / nanosPerCycle;
+			this.excessNanos = delta - cycles * nanosPerCycle;
+			if(maxCyclesPerUpdate > 0
+					&& elapsedCycles + cycles > maxCyclesPerUpdate) {
+				long allowed = Math.max(0, maxCyclesPerUpdate - elapsedCycles);
+				this.droppedCycles += cycles - allowed;
+				cycles = allowed;
+			}
+			this.elapsedCycles += (int)cycles;
 		}
 		
 		//Set the last update time for the next update cycle.
@@ -104,6 +139,58 @@ public class Clock {
 		return isPaused;
 	}
 	
+	/**
+	 * Gets the number of milliseconds that make up one cycle.
+	 * @return The length of a cycle in milliseconds.
+	 */
+	public float getMillisPerCycle() {
+		return nanosPerCycle / 1000000.0f;
+	}
+	
+	/**
+	 * Gets the number of nanoseconds that make up one cycle.
+	 * @return The length of a cycle in nanoseconds.
+	 */
+	public long getNanosPerCycle() {
+		return nanosPerCycle;
+	}
+	
+	/**
+	 * Gets how far the clock is into the next cycle, as of the last update.
+	 * Renderers use it to interpolate between the last two cycles.
+	 * @return The fraction of a cycle elapsed, from 0 (inclusive) to 1
+	 * (exclusive).
+	 */
+	public float getInterpolation() {
+		return (float)excessNanos / nanosPerCycle;
+	}
+	
+	/**
+	 * Gets the time at which the next cycle elapses, so that the caller can
+	 * wait exactly until then.
+	 * @return The {@code System.nanoTime} of the next cycle, the time of
+	 * the last update if a cycle is already pending, or
+	 * {@code Long.MAX_VALUE} while paused.
+	 */
+	public long getNextCycleTime() {
+		if(isPaused) {
+			return Long.MAX_VALUE;
+		}
+		if(elapsedCycles > 0) {
+			return lastUpdate;
+		}
+		return lastUpdate + (nanosPerCycle - excessNanos);
+	}
+	
+	/**
+	 * Gets the number of cycles dropped by the catch-up limit since the
+	 * clock was reset.
+	 * @return The number of dropped cycles.
+	 */
+	public long getDroppedCycles() {
+		return droppedCycles;
+	}
+	
 	/**
 	 * Checks to see if a cycle has elapsed for this clock yet. If so,
 	 * the number of elapsed cycles will be decremented by one.
@@ -128,16 +215,5 @@ public class Clock {
 	public boolean peekElapsedCycle() {
 		return (elapsedCycles > 0);
 	}
-	
-	/**
-	 * Calculates the current time in milliseconds using the computer's high
-	 * resolution clock. This is much more reliable than
-	 * {@code System.getCurrentTimeMillis()}, and quicker than
-	 * {@code System.nanoTime()}.
-	 * @return The current time in milliseconds.
-	 */
-	private static final long getCurrentTime() {
-		return (System.nanoTime() / 1000000L);
-	}
 
 }
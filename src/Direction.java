@@ -25,8 +25,25 @@ public enum Direction {
 	/**
 	 * Moving West (Left).
 	 */
-	West
-	
+	West;
+
+	/**
+	 * Gets the direction opposite to this one.
+	 * @return The opposite direction.
+	 */
+	public Direction opposite() {
+		switch(this) {
+		case North:
+			return South;
+		case East:
+			return West;
+		case South:
+			return North;
+		default:
+			return East;
+		}
+	}
+
 }
 
 
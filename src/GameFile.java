@@ -0,0 +1,658 @@
+
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The {@code GameFile} class writes a {@link SavedGame} and reads it back.
+ * Encoding and decoding only touch the saved copy, never the engine, so
+ * they can run on another thread than the game loop. The window asks the
+ * player for the file name; this class only deals with the contents.
+ * <p>
+ * A saved game is laid out as follows, big-endian:
+ * <pre>
+ * int    magic ("SNAK")
+ * short  version
+ * byte   flags (compressed, new game, paused, game over)
+ * int    payload length
+ * int    stored length (payload length unless compressed)
+ * byte[] payload, deflated if the compressed flag is set
+ * int    CRC-32 of everything before it
+ * </pre>
+ * The payload holds, as unsigned varints unless noted: the number of
+ * columns and rows, the score, the fruits eaten, the extra score of the
+ * next fruit, the queued directions (a count byte and one byte each), the
+ * non-empty chunks of the board (the gap since the previous chunk, then
+ * 3-bit {@link TileType#getTipo} codes for each of its tiles on the board,
+ * 7 meaning empty), and the snake (its length, its pending growth, the head
+ * cell and the zig-zag encoded difference to each following cell).
+ * <p>
+ * Games saved with Java serialization by earlier versions are still read.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public final class GameFile {
+
+	/**
+	 * The first four bytes of a saved game.
+	 */
+	private static final int MAGIC = 0x534E414B;
+
+	/**
+	 * The version of the format written.
+	 */
+	private static final short VERSION = 1;
+
+	/**
+	 * The first two bytes of a game saved with Java serialization.
+	 */
+	private static final short LEGACY_MAGIC = (short)0xACED;
+
+	/**
+	 * The size of the header, before the payload.
+	 */
+	private static final int HEADER_SIZE = 15;
+
+	/**
+	 * The flag set when the payload is deflated.
+	 */
+	private static final int COMPRESSED = 1;
+
+	/**
+	 * The flag set when no game was started yet.
+	 */
+	private static final int NEW_GAME = 2;
+
+	/**
+	 * The flag set when the game is paused.
+	 */
+	private static final int PAUSED = 4;
+
+	/**
+	 * The flag set when the game is over.
+	 */
+	private static final int GAME_OVER = 8;
+
+	/**
+	 * The tile code of an empty tile.
+	 */
+	private static final int EMPTY_CODE = 7;
+
+	/**
+	 * The number of bits per tile code.
+	 */
+	private static final int CODE_BITS = 3;
+
+	/**
+	 * The directions, indexed by their code in the file.
+	 */
+	private static final Direction[] DIRECTIONS = {
+		Direction.North, Direction.East, Direction.South, Direction.West
+	};
+
+	/**
+	 * The {@link Board} chunk codes, indexed by tile code.
+	 */
+	private static final byte[] CODES = new byte[EMPTY_CODE + 1];
+
+	/**
+	 * The tile codes, indexed by {@link Board} chunk code.
+	 */
+	private static final long[] TIPOS = new long[TileType.values().length
+			+ 1];
+
+	static {
+		TIPOS[Board.codeOf(null)] = EMPTY_CODE;
+		for(TileType type : TileType.values()) {
+			CODES[type.getTipo()] = Board.codeOf(type);
+			TIPOS[Board.codeOf(type)] = type.getTipo();
+		}
+	}
+
+	/**
+	 * The class only has static methods.
+	 */
+	private GameFile() {
+	}
+
+	/**
+	 * Writes a game to a file, compressed.
+	 * @param engine The engine holding the game.
+	 * @param isNewGame Whether no game was started yet.
+	 * @param isPaused Whether the game is paused.
+	 * @param file The file to write.
+	 * @throws IOException If the game could not be written.
+	 */
+	public static void save(SnakeEngine engine, boolean isNewGame,
+			boolean isPaused, Path file) throws IOException {
+		write(SavedGame.capture(engine, isNewGame, isPaused), file);
+	}
+
+	/**
+	 * Writes a game into a new buffer.
+	 * @param engine The engine holding the game.
+	 * @param isNewGame Whether no game was started yet.
+	 * @param isPaused Whether the game is paused.
+	 * @param compress Whether to deflate the payload.
+	 * @return The saved game, ready to be read from.
+	 */
+	public static ByteBuffer save(SnakeEngine engine, boolean isNewGame,
+			boolean isPaused, boolean compress) {
+		return encode(SavedGame.capture(engine, isNewGame, isPaused),
+				compress);
+	}
+
+	/**
+	 * Reads a game from a file into an engine.
+	 * @param engine The engine to load the game into.
+	 * @param file The file to read.
+	 * @return The {@link BoardSnapshot} flags {@code NEW_GAME} and
+	 * {@code PAUSED} of the saved game.
+	 * @throws IOException If the file is not a valid saved game for the
+	 * engine's board.
+	 */
+	public static int load(SnakeEngine engine, Path file) throws IOException {
+		return install(read(file), engine);
+	}
+
+	/**
+	 * Reads a game from a buffer into an engine. The engine is only
+	 * changed once the whole game was read and verified.
+	 * @param engine The engine to load the game into.
+	 * @param buffer The saved game.
+	 * @return The {@link BoardSnapshot} flags {@code NEW_GAME} and
+	 * {@code PAUSED} of the saved game.
+	 * @throws IOException If the buffer is not a valid saved game for the
+	 * engine's board.
+	 */
+	public static int load(SnakeEngine engine, ByteBuffer buffer)
+			throws IOException {
+		return install(decode(buffer), engine);
+	}
+
+	/**
+	 * Writes a saved game to a file, compressed.
+	 * @param game The game.
+	 * @param file The file to write.
+	 * @throws IOException If the game could not be written.
+	 */
+	public static void write(SavedGame game, Path file) throws IOException {
+		write(encode(game, true), file);
+	}
+
+	/**
+	 * Writes an encoded game to a file. The game is written and flushed to
+	 * the disk in a temporary file next to it first, which then replaces
+	 * the file, so that a failed save never leaves a truncated game behind.
+	 * @param buffer The encoded game, as returned by {@code encode}.
+	 * @param file The file to write.
+	 * @throws IOException If the game could not be written.
+	 */
+	public static void write(ByteBuffer buffer, Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Gets the checksum of an encoded game, which tells apart two saves.
+	 * @param buffer The encoded game, as returned by {@code encode}.
+	 * @return The CRC-32 stored at its end.
+	 */
+	public static int getChecksum(ByteBuffer buffer) {
+		return buffer.getInt(buffer.limit() - 4);
+	}
+
+	/**
+	 * Reads a saved game from a file. The whole file is read into a single
+	 * buffer.
+	 * @param file The file to read.
+	 * @return The game.
+	 * @throws IOException If the file is not a valid saved game.
+	 */
+	public static SavedGame read(Path file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("The saved game is too large.");
+			}
+			buffer = ByteBuffer.allocate((int)size);
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+		}
+		buffer.flip();
+		return decode(buffer);
+	}
+
+	/**
+	 * Writes a saved game into a new buffer.
+	 * @param game The game.
+	 * @param compress Whether to deflate the payload.
+	 * @return The saved game, ready to be read from.
+	 */
+	public static ByteBuffer encode(SavedGame game, boolean compress) {
+		ByteBuffer payload = writePayload(game);
+		int length = payload.remaining();
+
+		byte[] stored = payload.array();
+		int storedLength = length;
+		if(compress) {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(stored, 0, length);
+			deflater.finish();
+			byte[] deflated = new byte[length + length / 1000 + 64];
+			int deflatedLength = 0;
+			while(!deflater.finished() && deflatedLength < deflated.length) {
+				deflatedLength += deflater.deflate(deflated, deflatedLength,
+						deflated.length - deflatedLength);
+			}
+			boolean smaller = deflater.finished() && deflatedLength < length;
+			deflater.end();
+			if(smaller) {
+				stored = deflated;
+				storedLength = deflatedLength;
+			} else {
+				compress = false;
+			}
+		}
+
+		int flags = (compress ? COMPRESSED : 0)
+				| (game.isNewGame() ? NEW_GAME : 0)
+				| (game.isPaused() ? PAUSED : 0)
+				| (game.isGameOver() ? GAME_OVER : 0);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + storedLength
+				+ 4);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.put((byte)flags);
+		buffer.putInt(length);
+		buffer.putInt(storedLength);
+		buffer.put(stored, 0, storedLength);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int)crc.getValue());
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads a saved game from a buffer.
+	 * @param buffer The saved game.
+	 * @return The game.
+	 * @throws IOException If the buffer is not a valid saved game.
+	 */
+	public static SavedGame decode(ByteBuffer buffer) throws IOException {
+		if(buffer.remaining() >= 2
+				&& buffer.getShort(buffer.position()) == LEGACY_MAGIC) {
+			return decodeLegacy(buffer);
+		}
+		int start = buffer.position();
+		if(buffer.remaining() < HEADER_SIZE + 4
+				|| buffer.getInt() != MAGIC) {
+			throw new IOException("Not a saved game.");
+		}
+		short version = buffer.getShort();
+		if(version != VERSION) {
+			throw new IOException("Unsupported saved game version "
+					+ version + ".");
+		}
+		int flags = buffer.get();
+		int length = buffer.getInt();
+		int storedLength = buffer.getInt();
+		if(length < 0 || storedLength < 0
+				|| buffer.remaining() != storedLength + 4) {
+			throw new IOException("The saved game is truncated.");
+		}
+
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = buffer.duplicate();
+		checked.position(start).limit(buffer.position() + storedLength);
+		crc.update(checked);
+		buffer.position(buffer.position() + storedLength);
+		if(buffer.getInt() != (int)crc.getValue()) {
+			throw new IOException("The saved game is corrupt.");
+		}
+
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(HEADER_SIZE + start).limit(HEADER_SIZE + start
+				+ storedLength);
+		if((flags & COMPRESSED) != 0) {
+			payload = inflate(payload, length);
+		}
+		try {
+			return readPayload(payload, (flags & NEW_GAME) != 0,
+					(flags & PAUSED) != 0, (flags & GAME_OVER) != 0);
+		} catch (RuntimeException ex) {
+			throw new IOException("The saved game is invalid.", ex);
+		}
+	}
+
+	/**
+	 * Installs a saved game into an engine.
+	 * @param game The game.
+	 * @param engine The engine to install the game into.
+	 * @return The {@link BoardSnapshot} flags {@code NEW_GAME} and
+	 * {@code PAUSED} of the game.
+	 * @throws IOException If the game was saved on a board of another size.
+	 */
+	private static int install(SavedGame game, SnakeEngine engine)
+			throws IOException {
+		if(!game.fits(engine.getBoard())) {
+			throw new IOException("The game was saved on a "
+					+ game.getColCount() + "x" + game.getRowCount()
+					+ " board.");
+		}
+		return game.install(engine);
+	}
+
+	/**
+	 * Writes the payload of a game into a new buffer.
+	 * @param game The game.
+	 * @return The payload, ready to be read from.
+	 */
+	private static ByteBuffer writePayload(SavedGame game) {
+		int chunkSize = Board.CHUNK_SIZE;
+		int[] chunkIndices = game.getChunkIndices();
+		byte[][] chunkCodes = game.getChunkCodes();
+		long[] snake = game.getSnake();
+		Direction[] directions = game.getDirections();
+
+		/*
+		 * Every varint takes at most 10 bytes, and every chunk at most 5
+		 * bytes for its gap and 3 bits per tile.
+		 */
+		long bound = 8 * 10L + 1 + directions.length
+				+ chunkIndices.length * (5L + chunkSize * chunkSize
+				* CODE_BITS / 8 + 1) + 10L * snake.length;
+		if(bound > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("The game is too large to save.");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int)bound);
+
+		putVarLong(buffer, game.getColCount());
+		putVarLong(buffer, game.getRowCount());
+		putVarLong(buffer, game.getScore());
+		putVarLong(buffer, game.getFruitsEaten());
+		putVarLong(buffer, game.getNextFruitScore());
+
+		buffer.put((byte)directions.length);
+		for(Direction direction : directions) {
+			buffer.put((byte)codeOf(direction));
+		}
+
+		/*
+		 * Visit the chunks in order so that their gaps are positive.
+		 */
+		long[] order = new long[chunkIndices.length];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = (long)chunkIndices[i] << 32 | i;
+		}
+		Arrays.sort(order);
+		putVarLong(buffer, order.length);
+		int chunkCols = (game.getColCount() + chunkSize - 1) / chunkSize;
+		int previous = -1;
+		for(long entry : order) {
+			int chunk = (int)(entry >>> 32);
+			byte[] codes = chunkCodes[(int)entry];
+			putVarLong(buffer, chunk - previous - 1);
+			previous = chunk;
+			int baseX = (chunk % chunkCols) * chunkSize;
+			int baseY = (chunk / chunkCols) * chunkSize;
+			int width = Math.min(chunkSize, game.getColCount() - baseX);
+			int height = Math.min(chunkSize, game.getRowCount() - baseY);
+			long bits = 0;
+			int bitCount = 0;
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					bits = (bits << CODE_BITS)
+							| TIPOS[codes[y * chunkSize + x]];
+					bitCount += CODE_BITS;
+					if(bitCount >= 8) {
+						bitCount -= 8;
+						buffer.put((byte)(bits >>> bitCount));
+					}
+				}
+			}
+			if(bitCount > 0) {
+				buffer.put((byte)(bits << (8 - bitCount)));
+			}
+		}
+
+		putVarLong(buffer, snake.length);
+		putVarLong(buffer, game.getPendingGrowth());
+		if(snake.length > 0) {
+			putVarLong(buffer, snake[0]);
+		}
+		for(int i = 1; i < snake.length; i++) {
+			long delta = snake[i] - snake[i - 1];
+			putVarLong(buffer, (delta << 1) ^ (delta >> 63));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads the payload of a game.
+	 * @param buffer The payload.
+	 * @param isNewGame Whether no game was started yet.
+	 * @param isPaused Whether the game is paused.
+	 * @param isGameOver Whether the game is over.
+	 * @return The game.
+	 * @throws IOException If the payload describes an impossible game.
+	 */
+	private static SavedGame readPayload(ByteBuffer buffer, boolean isNewGame,
+			boolean isPaused, boolean isGameOver) throws IOException {
+		long colCount = getVarLong(buffer);
+		long rowCount = getVarLong(buffer);
+		if(colCount < 1 || colCount > Board.MAX_SIZE
+				|| rowCount < 1 || rowCount > Board.MAX_SIZE) {
+			throw new IOException("Invalid board size: " + colCount + "x"
+					+ rowCount);
+		}
+		int score = (int)getVarLong(buffer);
+		int fruitsEaten = (int)getVarLong(buffer);
+		int nextFruitScore = (int)getVarLong(buffer);
+
+		Direction[] directions = new Direction[buffer.get()];
+		for(int i = 0; i < directions.length; i++) {
+			directions[i] = DIRECTIONS[buffer.get() & 3];
+		}
+
+		int chunkSize = Board.CHUNK_SIZE;
+		int chunkCols = (int)(colCount + chunkSize - 1) / chunkSize;
+		int chunkRows = (int)(rowCount + chunkSize - 1) / chunkSize;
+		long live = getVarLong(buffer);
+		if(live > (long)chunkCols * chunkRows) {
+			throw new IOException("Too many chunks in the saved game.");
+		}
+		int[] chunkIndices = new int[(int)live];
+		byte[][] chunkCodes = new byte[(int)live][];
+		int chunk = -1;
+		for(int i = 0; i < live; i++) {
+			chunk += (int)getVarLong(buffer) + 1;
+			if(chunk >= chunkCols * chunkRows) {
+				throw new IOException("Invalid chunk in the saved game.");
+			}
+			byte[] codes = new byte[chunkSize * chunkSize];
+			int baseX = (chunk % chunkCols) * chunkSize;
+			int baseY = (chunk / chunkCols) * chunkSize;
+			int width = (int)Math.min(chunkSize, colCount - baseX);
+			int height = (int)Math.min(chunkSize, rowCount - baseY);
+			int bits = 0;
+			int bitCount = 0;
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					if(bitCount < CODE_BITS) {
+						bits = (bits << 8) | (buffer.get() & 0xFF);
+						bitCount += 8;
+					}
+					bitCount -= CODE_BITS;
+					codes[y * chunkSize + x] =
+							CODES[(bits >>> bitCount) & EMPTY_CODE];
+				}
+			}
+			chunkIndices[i] = chunk;
+			chunkCodes[i] = codes;
+		}
+
+		long length = getVarLong(buffer);
+		int growth = (int)getVarLong(buffer);
+		if(length > colCount * rowCount) {
+			throw new IOException("The saved snake is too long.");
+		}
+		long[] snake = new long[(int)length];
+		long cell = length > 0 ? getVarLong(buffer) : 0;
+		for(int i = 0; i < length; i++) {
+			if(i > 0) {
+				long zigzag = getVarLong(buffer);
+				cell += (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+			snake[i] = cell;
+		}
+
+		return new SavedGame((int)colCount, (int)rowCount, score,
+				fruitsEaten, nextFruitScore, directions, snake, growth,
+				isNewGame, isPaused, isGameOver, chunkIndices, chunkCodes);
+	}
+
+	/**
+	 * Inflates a compressed payload.
+	 * @param stored The deflated payload.
+	 * @param length The length of the payload once inflated.
+	 * @return The inflated payload.
+	 * @throws IOException If the payload could not be inflated.
+	 */
+	private static ByteBuffer inflate(ByteBuffer stored, int length)
+			throws IOException {
+		byte[] payload = new byte[length];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(stored.array(), stored.arrayOffset()
+					+ stored.position(), stored.remaining());
+			int inflated = 0;
+			while(inflated < length && !inflater.finished()) {
+				int count = inflater.inflate(payload, inflated,
+						length - inflated);
+				if(count == 0 && (inflater.needsInput()
+						|| inflater.needsDictionary())) {
+					break;
+				}
+				inflated += count;
+			}
+			if(inflated != length) {
+				throw new IOException("The saved game is truncated.");
+			}
+		} catch (DataFormatException ex) {
+			throw new IOException("The saved game is corrupt.", ex);
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(payload);
+	}
+
+	/**
+	 * Reads a game saved with Java serialization by earlier versions,
+	 * which always played on the default board.
+	 * @param buffer The saved game.
+	 * @return The game.
+	 * @throws IOException If the game could not be read.
+	 */
+	@SuppressWarnings("unchecked")
+	private static SavedGame decodeLegacy(ByteBuffer buffer)
+			throws IOException {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		SnakeEngine engine = new SnakeEngine(BoardPanel.COL_COUNT,
+				BoardPanel.ROW_COUNT);
+		try (ObjectInputStream oArchivo = new ObjectInputStream(
+				new ByteArrayInputStream(bytes))) {
+			engine.setScore(oArchivo.readInt());
+			engine.setDirections((LinkedList<Direction>) oArchivo.readObject());
+			engine.setFruitsEaten(oArchivo.readInt());
+			engine.setGameOver(oArchivo.readBoolean());
+			boolean isNewGame = oArchivo.readBoolean();
+			boolean isPaused = oArchivo.readBoolean();
+			engine.setNextFruitScore(oArchivo.readInt());
+			engine.getBoard().setTiles((TileType[]) oArchivo.readObject());
+			engine.setSnake((LinkedList<Point>) oArchivo.readObject());
+			return SavedGame.capture(engine, isNewGame, isPaused);
+		} catch (ClassNotFoundException | RuntimeException ex) {
+			throw new IOException("Not a saved game.", ex);
+		}
+	}
+
+	/**
+	 * Gets the code of a direction in the file.
+	 * @param direction The direction.
+	 * @return The code.
+	 */
+	private static int codeOf(Direction direction) {
+		for(int i = 0; i < DIRECTIONS.length; i++) {
+			if(DIRECTIONS[i] == direction) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown direction " + direction);
+	}
+
+	/**
+	 * Writes an unsigned varint: seven bits per byte, low bits first, the
+	 * high bit set on every byte but the last.
+	 * @param buffer The buffer to write to.
+	 * @param value The value, treated as unsigned.
+	 */
+	static void putVarLong(ByteBuffer buffer, long value) {
+		while((value & ~0x7FL) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+
+	/**
+	 * Reads an unsigned varint.
+	 * @param buffer The buffer to read from.
+	 * @return The value.
+	 */
+	static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			int b = buffer.get();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint.");
+	}
+
+}
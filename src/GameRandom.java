@@ -0,0 +1,84 @@
+import java.util.Random;
+
+/**
+ * The {@code GameRandom} class is a {@link Random} whose state can be read
+ * and restored, so that a game can be resumed from a keyframe with exactly
+ * the random numbers it would have drawn. It uses the same generator as
+ * {@code Random}, so a given seed yields the same numbers with either.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class GameRandom extends Random {
+
+	/**
+	 * The Serial Version UID.
+	 */
+	private static final long serialVersionUID = 3918450175203365014L;
+
+	/**
+	 * The multiplier of the linear congruential generator.
+	 */
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+
+	/**
+	 * The increment of the linear congruential generator.
+	 */
+	private static final long ADDEND = 0xBL;
+
+	/**
+	 * The mask of the 48 bits of state.
+	 */
+	private static final long MASK = (1L << 48) - 1;
+
+	/**
+	 * The 48 bits of state. Set by {@code setSeed}, which the constructors
+	 * of {@code Random} call, so it has no initializer.
+	 */
+	private long state;
+
+	/**
+	 * Creates a new GameRandom with a seed that differs on every call.
+	 */
+	public GameRandom() {
+		super();
+	}
+
+	/**
+	 * Creates a new GameRandom.
+	 * @param seed The seed.
+	 */
+	public GameRandom(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		this.state = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	/**
+	 * Gets the state of the generator.
+	 * @return The state, as taken by {@code setState}.
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * Restores the state of the generator, after which it draws the same
+	 * numbers as when the state was read.
+	 * @param state The state, as returned by {@code getState}.
+	 */
+	public void setState(long state) {
+		this.state = state & MASK;
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int)(state >>> (48 - bits));
+	}
+
+}
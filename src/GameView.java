@@ -0,0 +1,48 @@
+/**
+ * The {@code GameView} interface is what {@link BoardPanel} reads from the
+ * game to draw the board. {@link SnakeGame} implements it; having the panel
+ * depend on this rather than on the window lets it be painted without one,
+ * for example into an offscreen image.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public interface GameView {
+
+	/**
+	 * Gets the board the game is played on.
+	 * @return The board.
+	 */
+	Board getBoard();
+
+	/**
+	 * Gets the packed index of the snake's head.
+	 * @return The index of the head, or -1 if there is no snake yet.
+	 */
+	long getHead();
+
+	/**
+	 * Gets the current direction of the snake.
+	 * @return The current direction, or null.
+	 */
+	Direction getDirection();
+
+	/**
+	 * Gets the messages that should be shown over the board.
+	 * @return A combination of the {@link BoardSnapshot} message flags.
+	 */
+	int getMessage();
+
+	/**
+	 * Gets the number of logic ticks run so far.
+	 * @return The tick count.
+	 */
+	long getTicks();
+
+	/**
+	 * Gets the latency of turns, from key press to display.
+	 * @return The input latency.
+	 */
+	InputLatency getInputLatency();
+
+}
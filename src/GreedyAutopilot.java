@@ -0,0 +1,121 @@
+/**
+ * The {@code GreedyAutopilot} class is a simple {@link Autopilot} that
+ * heads for the nearest red, blue or green fruit, and never moves into a
+ * wall, the snake's body or a bad fruit if it has another choice. It is a
+ * baseline for the {@link Tournament}.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class GreedyAutopilot implements Autopilot {
+
+	/**
+	 * The directions, in the order they are tried.
+	 */
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	/**
+	 * The packed index of the fruit headed for, or -1 if it must be looked
+	 * for again.
+	 */
+	private long target = -1;
+
+	@Override
+	public void reset(SnakeEngine engine) {
+		target = -1;
+	}
+
+	@Override
+	public Direction choose(SnakeEngine engine) {
+		Board board = engine.getBoard();
+		int colCount = board.getColCount();
+		long head = engine.getSnakeRing().peekHead();
+		if(target == -1 || !isFruit(board.getTile(target))) {
+			target = findFruit(board, head);
+		}
+		int headX = (int)(head % colCount);
+		int headY = (int)(head / colCount);
+		int targetX = (int)(target % colCount);
+		int targetY = (int)(target / colCount);
+
+		/*
+		 * Take the safe move that gets closest to the fruit.
+		 */
+		Direction best = null;
+		int bestDistance = Integer.MAX_VALUE;
+		for(Direction direction : DIRECTIONS) {
+			int x = headX + dx(direction);
+			int y = headY + dy(direction);
+			if(x < 0 || y < 0 || x >= colCount || y >= board.getRowCount()) {
+				continue;
+			}
+			TileType tile = board.getTile(x, y);
+			if(tile != null && !isFruit(tile)) {
+				continue;
+			}
+			int distance = target == -1 ? 0
+					: Math.abs(targetX - x) + Math.abs(targetY - y);
+			if(distance < bestDistance) {
+				best = direction;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the fruit nearest to the head.
+	 * @param board The board.
+	 * @param head The packed index of the head.
+	 * @return The packed index of the fruit, or -1 if there is none.
+	 */
+	private static long findFruit(Board board, long head) {
+		int colCount = board.getColCount();
+		long headX = head % colCount;
+		long headY = head / colCount;
+		long nearest = -1;
+		long nearestDistance = Long.MAX_VALUE;
+		for(long index = 0; index < board.getTileCount(); index++) {
+			if(isFruit(board.getTile(index))) {
+				long distance = Math.abs(index % colCount - headX)
+						+ Math.abs(index / colCount - headY);
+				if(distance < nearestDistance) {
+					nearest = index;
+					nearestDistance = distance;
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Checks whether a tile holds a fruit that is good to eat.
+	 * @param tile The tile.
+	 * @return Whether it is a red, blue or green fruit.
+	 */
+	private static boolean isFruit(TileType tile) {
+		return tile == TileType.Fruit || tile == TileType.FruitBlue
+				|| tile == TileType.FruitGreen;
+	}
+
+	/**
+	 * Gets the change of column of a move.
+	 * @param direction The direction of the move.
+	 * @return -1, 0 or 1.
+	 */
+	private static int dx(Direction direction) {
+		return direction == Direction.East ? 1
+				: direction == Direction.West ? -1 : 0;
+	}
+
+	/**
+	 * Gets the change of row of a move.
+	 * @param direction The direction of the move.
+	 * @return -1, 0 or 1.
+	 */
+	private static int dy(Direction direction) {
+		return direction == Direction.South ? 1
+				: direction == Direction.North ? -1 : 0;
+	}
+
+}
@@ -0,0 +1,192 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@code InputLatency} class follows each turn from the moment its key
+ * is pressed to the first frame that shows the snake moving the new way,
+ * and records how long it spends in each stage:
+ * <ul>
+ * <li>queue wait: from the key press until the game loop drains it,</li>
+ * <li>tick wait: from then until the tick that moves the snake with it,</li>
+ * <li>render wait: from that tick until a frame showing it is drawn.</li>
+ * </ul>
+ * The first two stages are recorded by the game loop, the last one (and
+ * the total) by whichever thread draws the board.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class InputLatency {
+
+	/**
+	 * A turn that was applied by a tick, waiting to be displayed.
+	 */
+	private static final class Applied {
+
+		/**
+		 * The time at which the key was pressed.
+		 */
+		private final long pressNanos;
+
+		/**
+		 * The time at which the tick that applied it ran.
+		 */
+		private final long tickNanos;
+
+		/**
+		 * The number of the tick that applied it.
+		 */
+		private final long tick;
+
+		/**
+		 * Creates a new Applied turn.
+		 * @param pressNanos The time of the key press.
+		 * @param tickNanos The time of the tick.
+		 * @param tick The number of the tick.
+		 */
+		private Applied(long pressNanos, long tickNanos, long tick) {
+			this.pressNanos = pressNanos;
+			this.tickNanos = tickNanos;
+			this.tick = tick;
+		}
+
+	}
+
+	/**
+	 * The time from a key press until the game loop drains it.
+	 */
+	private final LatencyHistogram queueWait =
+			new LatencyHistogram("queue");
+
+	/**
+	 * The time from draining a turn until the tick that applies it.
+	 */
+	private final LatencyHistogram tickWait = new LatencyHistogram("tick");
+
+	/**
+	 * The time from the tick that applies a turn until it is displayed.
+	 */
+	private final LatencyHistogram renderWait =
+			new LatencyHistogram("render");
+
+	/**
+	 * The time from a key press until the turn is displayed.
+	 */
+	private final LatencyHistogram total = new LatencyHistogram("total");
+
+	/**
+	 * The press times of the queued turns, oldest first.
+	 */
+	private final long[] pressTimes = new long[SnakeEngine.MAX_DIRECTIONS];
+
+	/**
+	 * The drain times of the queued turns, oldest first.
+	 */
+	private final long[] drainTimes = new long[SnakeEngine.MAX_DIRECTIONS];
+
+	/**
+	 * The position of each queued turn in the engine's direction queue.
+	 * The turn at position 0 moves the snake on the next tick.
+	 */
+	private final int[] positions = new int[SnakeEngine.MAX_DIRECTIONS];
+
+	/**
+	 * The number of queued turns being followed.
+	 */
+	private int pendingCount;
+
+	/**
+	 * The last turn applied by a tick, or null once it was displayed.
+	 */
+	private final AtomicReference<Applied> applied =
+			new AtomicReference<Applied>();
+
+	/**
+	 * Records the queue wait of a key press, and starts following it if it
+	 * was queued as a turn. Only called from the game loop.
+	 * @param pressNanos The time at which the key was pressed.
+	 * @param drainNanos The time at which the game loop drained it.
+	 * @param position The position of the turn in the engine's direction
+	 * queue, or -1 if the key was not queued as a turn.
+	 */
+	public void inputDrained(long pressNanos, long drainNanos, int position) {
+		queueWait.record(drainNanos - pressNanos);
+		if(position < 0 || pendingCount == pressTimes.length) {
+			return;
+		}
+		pressTimes[pendingCount] = pressNanos;
+		drainTimes[pendingCount] = drainNanos;
+		positions[pendingCount] = position;
+		pendingCount++;
+	}
+
+	/**
+	 * Records the tick wait of the turn applied by a tick, if any. Only
+	 * called from the game loop, right after the tick.
+	 * @param tickNanos The time at which the tick ran.
+	 * @param tick The number of the tick.
+	 * @param polled Whether the engine moved on to the next queued
+	 * direction during the tick.
+	 */
+	public void tickRan(long tickNanos, long tick, boolean polled) {
+		if(pendingCount > 0 && positions[0] == 0) {
+			tickWait.record(tickNanos - drainTimes[0]);
+			applied.set(new Applied(pressTimes[0], tickNanos, tick));
+			remove();
+		}
+		if(polled) {
+			for(int i = 0; i < pendingCount; i++) {
+				positions[i]--;
+			}
+		}
+	}
+
+	/**
+	 * Stops following the queued turns, after the direction queue was
+	 * cleared. Only called from the game loop.
+	 */
+	public void clear() {
+		pendingCount = 0;
+	}
+
+	/**
+	 * Records the render wait and the total latency of the last applied
+	 * turn if the frame just drawn is the first to show it. Only called
+	 * from the thread that draws the board.
+	 * @param tick The number of the last tick shown by the frame.
+	 * @param shownNanos The time at which the frame was drawn.
+	 */
+	public void frameShown(long tick, long shownNanos) {
+		Applied turn = applied.get();
+		if(turn != null && tick >= turn.tick
+				&& applied.compareAndSet(turn, null)) {
+			renderWait.record(shownNanos - turn.tickNanos);
+			total.record(shownNanos - turn.pressNanos);
+		}
+	}
+
+	/**
+	 * Formats the p50, p99, p99.9 and maximum of each stage.
+	 * @return The report, one stage per line.
+	 */
+	public String report() {
+		StringBuilder builder = new StringBuilder("input latency:\n");
+		builder.append(queueWait.summary(1000.0, "us")).append('\n');
+		builder.append(tickWait.summary(1000.0, "us")).append('\n');
+		builder.append(renderWait.summary(1000.0, "us")).append('\n');
+		builder.append(total.summary(1000.0, "us")).append('\n');
+		return builder.toString();
+	}
+
+	/**
+	 * Removes the oldest queued turn.
+	 */
+	private void remove() {
+		for(int i = 1; i < pendingCount; i++) {
+			pressTimes[i - 1] = pressTimes[i];
+			drainTimes[i - 1] = drainTimes[i];
+			positions[i - 1] = positions[i];
+		}
+		pendingCount--;
+	}
+
+}
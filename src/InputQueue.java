@@ -0,0 +1,109 @@
+
+/**
+ * The {@code InputQueue} class hands key presses from the event dispatch
+ * thread to the game loop. It is a bounded ring buffer for exactly one
+ * producer and one consumer: the producer only writes the tail and the
+ * consumer only writes the head, so no locks are needed, and events are
+ * stored in parallel arrays so that queueing one does not allocate.
+ * <p>
+ * Each event is a key code stamped with the {@code System.nanoTime} at
+ * which it was pressed.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class InputQueue {
+
+	/**
+	 * The key codes of the queued events.
+	 */
+	private final int[] keyCodes;
+
+	/**
+	 * The times at which the queued events happened.
+	 */
+	private final long[] times;
+
+	/**
+	 * The mask that turns a sequence number into a position in the arrays.
+	 */
+	private final int mask;
+
+	/**
+	 * The sequence number of the next event to read. Only written by the
+	 * consumer.
+	 */
+	private volatile long head;
+
+	/**
+	 * The sequence number of the next event to write. Only written by the
+	 * producer.
+	 */
+	private volatile long tail;
+
+	/**
+	 * Creates a new, empty InputQueue.
+	 * @param capacity The largest number of queued events, rounded up to a
+	 * power of two.
+	 */
+	public InputQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.keyCodes = new int[size];
+		this.times = new long[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Queues an event. Only called from the producer thread.
+	 * @param keyCode The key code of the event.
+	 * @param time The {@code System.nanoTime} at which it happened.
+	 * @return Whether the event was queued, false if the queue is full.
+	 */
+	public boolean offer(int keyCode, long time) {
+		long t = tail;
+		if(t - head == keyCodes.length) {
+			return false;
+		}
+		int index = (int)t & mask;
+		keyCodes[index] = keyCode;
+		times[index] = time;
+		tail = t + 1;
+		return true;
+	}
+
+	/**
+	 * Checks whether there are events left to read. Only called from the
+	 * consumer thread.
+	 * @return Whether the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return head == tail;
+	}
+
+	/**
+	 * Gets the key code of the oldest event. Only called from the consumer
+	 * thread, when the queue is not empty.
+	 * @return The key code.
+	 */
+	public int peekKeyCode() {
+		return keyCodes[(int)head & mask];
+	}
+
+	/**
+	 * Gets the time of the oldest event. Only called from the consumer
+	 * thread, when the queue is not empty.
+	 * @return The {@code System.nanoTime} at which it happened.
+	 */
+	public long peekTime() {
+		return times[(int)head & mask];
+	}
+
+	/**
+	 * Removes the oldest event. Only called from the consumer thread, when
+	 * the queue is not empty.
+	 */
+	public void remove() {
+		head = head + 1;
+	}
+
+}
@@ -0,0 +1,532 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code Journal} class autosaves the game as it is played, so that a
+ * crash loses at most a fraction of a second. Every so many ticks a full
+ * checkpoint is written as a {@link GameFile}; in between, only what
+ * changed is appended to a journal file:
+ * <ul>
+ * <li>each turn queued, as one byte,</li>
+ * <li>each tick, as one byte, plus the tile of the fruit spawned and the
+ * change of score when a fruit was eaten.</li>
+ * </ul>
+ * The game loop records into a buffer, which costs a few nanoseconds per
+ * tick. The buffer is handed to a background thread at most every
+ * {@code commitNanos}, which appends it as one CRC-checked frame and flushes
+ * it to the disk, so that one flush covers many ticks.
+ * <p>
+ * {@code recover} loads the checkpoint and replays the frames of the
+ * journal written after it, up to the first torn or corrupt one.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class Journal {
+
+	/**
+	 * The first four bytes of a journal file ("SNKJ").
+	 */
+	private static final int MAGIC = 0x534E4B4A;
+
+	/**
+	 * The size of the journal header: the magic number and the checksum of
+	 * the checkpoint the journal continues.
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * The size of the header of each frame: its length and its CRC-32.
+	 */
+	private static final int FRAME_HEADER_SIZE = 8;
+
+	/**
+	 * The initial capacity of the record buffer.
+	 */
+	private static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * The record of a tick that did not eat a fruit.
+	 */
+	private static final int STEP = 0;
+
+	/**
+	 * The record of a tick that ate a fruit, followed by the tile of the
+	 * new fruit plus one and the zig-zag encoded change of score.
+	 */
+	private static final int STEP_EAT = 1;
+
+	/**
+	 * The record of a queued turn, plus the code of the direction.
+	 */
+	private static final int TURN = 4;
+
+	/**
+	 * The longest time to wait for the last records to be written when the
+	 * game exits, in milliseconds.
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 2000L;
+
+	/**
+	 * The directions, indexed by their code in the journal.
+	 */
+	private static final Direction[] DIRECTIONS = {
+		Direction.North, Direction.East, Direction.South, Direction.West
+	};
+
+	/**
+	 * The file the checkpoints are written to.
+	 */
+	private final Path checkpointFile;
+
+	/**
+	 * The file the journal is appended to.
+	 */
+	private final Path journalFile;
+
+	/**
+	 * The number of ticks between checkpoints.
+	 */
+	private final int checkpointTicks;
+
+	/**
+	 * The longest time records are kept in memory before being written, in
+	 * nanoseconds.
+	 */
+	private final long commitNanos;
+
+	/**
+	 * The thread that writes the files.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The buffer the game loop records into.
+	 */
+	private ByteBuffer records = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * A buffer already written by the background thread, ready to be
+	 * recorded into again, or null while it is in use.
+	 */
+	private final AtomicReference<ByteBuffer> spare =
+			new AtomicReference<ByteBuffer>(ByteBuffer.allocate(BUFFER_SIZE));
+
+	/**
+	 * Whether a checkpoint was taken, without which records are useless.
+	 */
+	private boolean hasCheckpoint;
+
+	/**
+	 * The number of ticks recorded since the last checkpoint.
+	 */
+	private int ticksSinceCheckpoint;
+
+	/**
+	 * The score after the last tick recorded.
+	 */
+	private int lastScore;
+
+	/**
+	 * The time of the last commit.
+	 */
+	private long lastCommit;
+
+	/**
+	 * The open journal file. Only used by the background thread.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Creates a new Journal and its thread. Nothing is written until the
+	 * first checkpoint.
+	 * @param checkpointFile The file the checkpoints are written to.
+	 * @param journalFile The file the journal is appended to.
+	 * @param checkpointTicks The number of ticks between checkpoints.
+	 * @param commitNanos The longest time records are kept in memory, in
+	 * nanoseconds.
+	 */
+	public Journal(Path checkpointFile, Path journalFile, int checkpointTicks,
+			long commitNanos) {
+		this.checkpointFile = checkpointFile;
+		this.journalFile = journalFile;
+		this.checkpointTicks = checkpointTicks;
+		this.commitNanos = commitNanos;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Journal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Records a turn queued in the engine. Only called from the game loop.
+	 * @param direction The direction queued.
+	 */
+	public void recordTurn(Direction direction) {
+		if(hasCheckpoint) {
+			ensureRemaining(1);
+			records.put((byte)(TURN | codeOf(direction)));
+		}
+	}
+
+	/**
+	 * Records a tick of the engine. Only called from the game loop, right
+	 * after the tick.
+	 * @param engine The engine that ticked.
+	 */
+	public void recordStep(SnakeEngine engine) {
+		if(!hasCheckpoint) {
+			return;
+		}
+		int score = engine.getScore();
+		if(score == lastScore) {
+			ensureRemaining(1);
+			records.put((byte)STEP);
+		} else {
+			long delta = score - lastScore;
+			ensureRemaining(21);
+			records.put((byte)STEP_EAT);
+			GameFile.putVarLong(records, engine.getLastSpawn() + 1);
+			GameFile.putVarLong(records, (delta << 1) ^ (delta >> 63));
+			lastScore = score;
+		}
+		ticksSinceCheckpoint++;
+	}
+
+	/**
+	 * Checks whether enough ticks were recorded to take a new checkpoint.
+	 * @return Whether a checkpoint is due.
+	 */
+	public boolean isCheckpointDue() {
+		return hasCheckpoint && ticksSinceCheckpoint >= checkpointTicks;
+	}
+
+	/**
+	 * Takes a checkpoint, after which the journal starts over. The records
+	 * not yet committed are dropped, since the checkpoint holds them. Only
+	 * called from the game loop, between ticks.
+	 * @param game The game, copied by the game loop.
+	 */
+	public void checkpoint(final SavedGame game) {
+		records.clear();
+		hasCheckpoint = true;
+		ticksSinceCheckpoint = 0;
+		lastScore = game.getScore();
+		lastCommit = System.nanoTime();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					/*
+					 * Frames are dropped until the new journal is started,
+					 * since they would not follow the old checkpoint.
+					 */
+					closeChannel();
+					ByteBuffer encoded = GameFile.encode(game, true);
+					int checksum = GameFile.getChecksum(encoded);
+					GameFile.write(encoded, checkpointFile);
+					startJournal(checksum);
+				} catch (IOException ex) {
+					Logger.getLogger(Journal.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Hands the records to the background thread if the last commit was at
+	 * least {@code commitNanos} ago. Only called from the game loop.
+	 * @param now The current {@code System.nanoTime}.
+	 */
+	public void commitIfDue(long now) {
+		if(now - lastCommit >= commitNanos) {
+			commit();
+			lastCommit = now;
+		}
+	}
+
+	/**
+	 * Hands the records to the background thread, if there are any. If the
+	 * previous batch is still being written, recording goes on in a new
+	 * buffer rather than waiting for it. Only called from the game loop.
+	 */
+	public void commit() {
+		if(records.position() == 0) {
+			return;
+		}
+		final ByteBuffer batch = records;
+		ByteBuffer next = spare.getAndSet(null);
+		records = next != null ? next : ByteBuffer.allocate(BUFFER_SIZE);
+		batch.flip();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					appendFrame(batch);
+				} catch (IOException ex) {
+					Logger.getLogger(Journal.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+				batch.clear();
+				spare.set(batch);
+			}
+		});
+	}
+
+	/**
+	 * Deletes the checkpoint and the journal, once the game they protect is
+	 * over. Nothing is recorded until the next checkpoint.
+	 */
+	public void discard() {
+		records.clear();
+		hasCheckpoint = false;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					closeChannel();
+					Files.deleteIfExists(journalFile);
+					Files.deleteIfExists(checkpointFile);
+				} catch (IOException ex) {
+					Logger.getLogger(Journal.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Commits the last records and waits a little for them to be written.
+	 * Called when the game exits. Only called from the game loop.
+	 */
+	public void close() {
+		commit();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					closeChannel();
+				} catch (IOException ex) {
+					Logger.getLogger(Journal.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+		executor.shutdown();
+		try {
+			executor.awaitTermination(CLOSE_TIMEOUT_MILLIS,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Loads the last checkpoint into an engine and replays the journal
+	 * written after it. Replay stops at the first torn or corrupt frame,
+	 * or if the game diverges from what was recorded.
+	 * @param engine The engine to load the game into.
+	 * @param checkpointFile The file the checkpoints were written to.
+	 * @param journalFile The file the journal was appended to.
+	 * @return The number of ticks replayed after the checkpoint.
+	 * @throws IOException If the checkpoint could not be loaded.
+	 */
+	public static int recover(SnakeEngine engine, Path checkpointFile,
+			Path journalFile) throws IOException {
+		ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(
+				checkpointFile));
+		int checksum = GameFile.getChecksum(checkpoint);
+		GameFile.load(engine, checkpoint);
+		if(!Files.exists(journalFile)) {
+			return 0;
+		}
+
+		/*
+		 * A journal that does not start with the checksum of the checkpoint
+		 * belongs to an older one, and the checkpoint already holds it.
+		 */
+		ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(journalFile));
+		if(journal.remaining() < HEADER_SIZE || journal.getInt() != MAGIC
+				|| journal.getInt() != checksum) {
+			return 0;
+		}
+		int ticks = 0;
+		CRC32 crc = new CRC32();
+		while(journal.remaining() >= FRAME_HEADER_SIZE) {
+			int length = journal.getInt();
+			int frameCrc = journal.getInt();
+			if(length < 0 || length > journal.remaining()) {
+				break;
+			}
+			ByteBuffer frame = journal.slice();
+			frame.limit(length);
+			crc.reset();
+			crc.update(frame.array(), frame.arrayOffset(), length);
+			if((int)crc.getValue() != frameCrc) {
+				break;
+			}
+			journal.position(journal.position() + length);
+			int replayed = replayFrame(engine, frame);
+			if(replayed < 0) {
+				Logger.getLogger(Journal.class.getName()).log(Level.WARNING,
+						"The journal diverged from the game, or was torn,"
+						+ " after {0} ticks.",
+						ticks);
+				break;
+			}
+			ticks += replayed;
+		}
+		return ticks;
+	}
+
+	/**
+	 * Replays the records of a frame.
+	 * @param engine The engine to replay them on.
+	 * @param frame The records.
+	 * @return The number of ticks replayed, or -1 if the game diverged or
+	 * the frame ends in the middle of a record.
+	 */
+	private static int replayFrame(SnakeEngine engine, ByteBuffer frame) {
+		try {
+			return replayRecords(engine, frame);
+		} catch (BufferUnderflowException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Replays the records of a frame, which may end in the middle of one.
+	 * @param engine The engine to replay them on.
+	 * @param frame The records.
+	 * @return The number of ticks replayed, or -1 if the game diverged.
+	 * @throws BufferUnderflowException If the frame ends in the middle of
+	 * a record.
+	 */
+	private static int replayRecords(SnakeEngine engine, ByteBuffer frame) {
+		int ticks = 0;
+		while(frame.hasRemaining()) {
+			int record = frame.get();
+			if((record & TURN) != 0) {
+				if(!engine.queueDirection(DIRECTIONS[record & 3])) {
+					return -1;
+				}
+				continue;
+			}
+			int score = engine.getScore();
+			if(record == STEP_EAT) {
+				engine.forceNextSpawn(GameFile.getVarLong(frame) - 1);
+				long zigzag = GameFile.getVarLong(frame);
+				long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+				engine.step();
+				if(engine.getScore() - score != delta) {
+					return -1;
+				}
+			} else {
+				engine.step();
+				if(engine.getScore() != score) {
+					return -1;
+				}
+			}
+			ticks++;
+		}
+		return ticks;
+	}
+
+	/**
+	 * Starts a new journal after a checkpoint. Only called from the
+	 * background thread.
+	 * @param checksum The checksum of the checkpoint.
+	 * @throws IOException If the journal could not be written.
+	 */
+	private void startJournal(int checksum) throws IOException {
+		channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(checksum).flip();
+		while(header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Appends a frame of records to the journal and flushes it to the disk.
+	 * Frames recorded before the first checkpoint was written are dropped.
+	 * Only called from the background thread.
+	 * @param batch The records.
+	 * @throws IOException If the frame could not be written.
+	 */
+	private void appendFrame(ByteBuffer batch) throws IOException {
+		if(channel == null) {
+			return;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(batch.array(), 0, batch.limit());
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		header.putInt(batch.limit()).putInt((int)crc.getValue()).flip();
+		ByteBuffer[] frame = { header, batch };
+		while(header.hasRemaining() || batch.hasRemaining()) {
+			channel.write(frame);
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Closes the journal file, if it is open. Only called from the
+	 * background thread.
+	 * @throws IOException If the file could not be closed.
+	 */
+	private void closeChannel() throws IOException {
+		if(channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Makes room for a record in the buffer, growing it if the background
+	 * thread has fallen behind.
+	 * @param size The largest size of the record.
+	 */
+	private void ensureRemaining(int size) {
+		if(records.remaining() < size) {
+			ByteBuffer larger = ByteBuffer.allocate(records.capacity() * 2);
+			records.flip();
+			larger.put(records);
+			records = larger;
+		}
+	}
+
+	/**
+	 * Gets the code of a direction in the journal.
+	 * @param direction The direction.
+	 * @return The code.
+	 */
+	private static int codeOf(Direction direction) {
+		for(int i = 0; i < DIRECTIONS.length; i++) {
+			if(DIRECTIONS[i] == direction) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown direction " + direction);
+	}
+
+}
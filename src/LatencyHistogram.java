@@ -0,0 +1,193 @@
+
+/**
+ * The {@code LatencyHistogram} class counts recorded values in logarithmic
+ * buckets, each power of two split into 32 linear sub-buckets, so that any
+ * value is kept within about 3% of its real size. Recording is a couple of
+ * shifts and an array increment and never allocates, so it can be done
+ * every frame. Values are usually nanoseconds, but any non-negative long
+ * works.
+ * <p>
+ * A histogram is meant to be written by a single thread. Reading it from
+ * another thread is safe, though the result may miss the latest values.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of bits of precision kept for each value.
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of sub-buckets in each power of two.
+	 */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The number of buckets needed to cover every positive long.
+	 */
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS)
+			* SUB_BUCKET_COUNT;
+
+	/**
+	 * The name shown when the histogram is reported.
+	 */
+	private final String name;
+
+	/**
+	 * The number of values recorded in each bucket.
+	 */
+	private final long[] counts;
+
+	/**
+	 * The number of values recorded.
+	 */
+	private long totalCount;
+
+	/**
+	 * The sum of the values recorded.
+	 */
+	private long totalSum;
+
+	/**
+	 * The largest value recorded.
+	 */
+	private long max;
+
+	/**
+	 * Creates a new, empty LatencyHistogram.
+	 * @param name The name shown when the histogram is reported.
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+		this.counts = new long[BUCKET_COUNT];
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 * @param value The value to record.
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		counts[indexOf(value)]++;
+		totalCount++;
+		totalSum += value;
+		if(value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Removes every recorded value.
+	 */
+	public void reset() {
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		totalCount = 0;
+		totalSum = 0;
+		max = 0;
+	}
+
+	/**
+	 * Gets the name of the histogram.
+	 * @return The name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of values recorded.
+	 * @return The count.
+	 */
+	public long getCount() {
+		return totalCount;
+	}
+
+	/**
+	 * Gets the largest value recorded.
+	 * @return The maximum, or 0 if nothing was recorded.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Gets the mean of the values recorded.
+	 * @return The mean, or 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		return totalCount == 0 ? 0.0 : (double)totalSum / totalCount;
+	}
+
+	/**
+	 * Gets the value below which the given percentage of the recorded
+	 * values fall, rounded up to the end of its bucket.
+	 * @param percentile The percentile, from 0 to 100.
+	 * @return The value, or 0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount;
+		if(count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(highestEquivalent(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Formats the count, p50, p99, p99.9 and maximum of the histogram.
+	 * @param scale The value to divide by before printing (1000 to print
+	 * nanoseconds as microseconds, for example).
+	 * @param unit The unit printed after each value.
+	 * @return The summary.
+	 */
+	public String summary(double scale, String unit) {
+		return String.format("%-10s n=%-8d p50=%.1f%s p99=%.1f%s "
+				+ "p99.9=%.1f%s max=%.1f%s", name, getCount(),
+				getValueAtPercentile(50.0) / scale, unit,
+				getValueAtPercentile(99.0) / scale, unit,
+				getValueAtPercentile(99.9) / scale, unit,
+				getMax() / scale, unit);
+	}
+
+	/**
+	 * Gets the bucket a value is counted in.
+	 * @param value The value, 0 or more.
+	 * @return The index of the bucket.
+	 */
+	private static int indexOf(long value) {
+		if(value < 2 * SUB_BUCKET_COUNT) {
+			return (int)value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int)(value >>> shift);
+	}
+
+	/**
+	 * Gets the largest value counted in a bucket.
+	 * @param index The index of the bucket.
+	 * @return The largest value of the bucket.
+	 */
+	private static long highestEquivalent(int index) {
+		if(index < 2 * SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long sub = index - (long)shift * SUB_BUCKET_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,571 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code Leaderboard} class keeps the result of every finished game in
+ * a results log, and answers leaderboard queries from memory. Each result
+ * is appended to the log as one small record:
+ * <ul>
+ * <li>the length of the record, as one byte,</li>
+ * <li>the length and bytes of the player's name,</li>
+ * <li>the score and the fruits eaten, as varints,</li>
+ * <li>the CRC-32 of all of them.</li>
+ * </ul>
+ * Opening a leaderboard reads the log once, from start to end, and rebuilds
+ * from it:
+ * <ul>
+ * <li>a min-heap of the best {@code topSize} results, for {@code getTop},</li>
+ * <li>the best result of each player, for {@code getBest},</li>
+ * <li>a sorted array of the best score of each player, for
+ * {@code getRank}.</li>
+ * </ul>
+ * A torn record at the end of the log, left by a crash, is cut off. A
+ * corrupt record before the last one is not torn, so the log is refused
+ * rather than cut there, which would lose the results after it. The
+ * queries take a binary search or a sort of the heap, so they do not
+ * depend on the number of results.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class Leaderboard {
+
+	/**
+	 * The first four bytes of a results log ("SNKL").
+	 */
+	private static final int MAGIC = 0x534E4B4C;
+
+	/**
+	 * The version of the format written.
+	 */
+	private static final short VERSION = 1;
+
+	/**
+	 * The size of the header of the log: the magic number and the version.
+	 */
+	private static final int HEADER_SIZE = 6;
+
+	/**
+	 * The size of the CRC-32 ending each record.
+	 */
+	private static final int CRC_SIZE = 4;
+
+	/**
+	 * The most bytes of a name, encoded as UTF-8.
+	 */
+	public static final int MAX_NAME_BYTES = SlotStore.MAX_NAME_BYTES;
+
+	/**
+	 * The greatest length of a record before its CRC-32: the length of the
+	 * name, the longest name, and two varints of up to five bytes.
+	 */
+	private static final int MAX_RECORD_LENGTH = 1 + MAX_NAME_BYTES + 10;
+
+	/**
+	 * The size of the buffer the log is read through.
+	 */
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The number of results shown by {@code main} by default.
+	 */
+	private static final int DEFAULT_TOP = 10;
+
+	/**
+	 * The number of results kept in the heap when run from {@code main}.
+	 */
+	private static final int MAIN_TOP_SIZE = 100;
+
+	/**
+	 * Orders results from worst to best: by score, then by fruits eaten,
+	 * then earliest first among equal ones.
+	 */
+	private static final Comparator<Result> WORST_FIRST =
+			new Comparator<Result>() {
+		@Override
+		public int compare(Result a, Result b) {
+			if(a.score != b.score) {
+				return a.score < b.score ? -1 : 1;
+			}
+			if(a.fruitsEaten != b.fruitsEaten) {
+				return a.fruitsEaten < b.fruitsEaten ? -1 : 1;
+			}
+			return a.sequence > b.sequence ? -1
+					: a.sequence < b.sequence ? 1 : 0;
+		}
+	};
+
+	/**
+	 * The {@code Result} class is the result of one finished game.
+	 */
+	public static final class Result {
+
+		/**
+		 * The name of the player.
+		 */
+		private final String name;
+
+		/**
+		 * The final score.
+		 */
+		private final int score;
+
+		/**
+		 * The number of fruits eaten.
+		 */
+		private final int fruitsEaten;
+
+		/**
+		 * The position of the result in the log, counting from zero.
+		 */
+		private final long sequence;
+
+		/**
+		 * Creates a new Result.
+		 * @param name The name of the player.
+		 * @param score The final score.
+		 * @param fruitsEaten The number of fruits eaten.
+		 * @param sequence The position of the result in the log.
+		 */
+		private Result(String name, int score, int fruitsEaten,
+				long sequence) {
+			this.name = name;
+			this.score = score;
+			this.fruitsEaten = fruitsEaten;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Gets the name of the player.
+		 * @return The name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the final score.
+		 * @return The score.
+		 */
+		public int getScore() {
+			return score;
+		}
+
+		/**
+		 * Gets the number of fruits eaten.
+		 * @return The fruits eaten.
+		 */
+		public int getFruitsEaten() {
+			return fruitsEaten;
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + score + " (" + fruitsEaten + " fruits)";
+		}
+
+	}
+
+	/**
+	 * The results log, open for appending.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The number of results kept in the heap.
+	 */
+	private final int topSize;
+
+	/**
+	 * The best {@code topSize} results, worst at the head.
+	 */
+	private final PriorityQueue<Result> top;
+
+	/**
+	 * The best result of each player.
+	 */
+	private final HashMap<String, Result> best =
+			new HashMap<String, Result>();
+
+	/**
+	 * The best score of each player, in ascending order, in the first
+	 * {@code best.size()} elements.
+	 */
+	private int[] bestScores = new int[16];
+
+	/**
+	 * Whether {@code bestScores} is kept up to date, which it is once the
+	 * log was read.
+	 */
+	private boolean isSorted;
+
+	/**
+	 * The number of results in the log.
+	 */
+	private long resultCount;
+
+	/**
+	 * Computes the checksums of records.
+	 */
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Opens a leaderboard, creating its log if it does not exist, and
+	 * rebuilds it from the log.
+	 * @param logFile The results log.
+	 * @param topSize The number of best results kept for {@code getTop}.
+	 * @throws IOException If the log could not be read, is not a results
+	 * log, or has a corrupt record before its last one.
+	 */
+	public Leaderboard(Path logFile, int topSize) throws IOException {
+		this.topSize = topSize;
+		this.top = new PriorityQueue<Result>(topSize + 1, WORST_FIRST);
+		this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long end = rebuild();
+			sortBestScores();
+			channel.truncate(end);
+			channel.position(end);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Reads the log from start to end, adding every result to memory. An
+	 * empty log is given its header.
+	 * @return The position after the last whole record.
+	 * @throws IOException If the log could not be read, is not a results
+	 * log, or has a corrupt record before its last one.
+	 */
+	private long rebuild() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		if(channel.size() == 0) {
+			buffer.putInt(MAGIC).putShort(VERSION).flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer, buffer.position());
+			}
+			return HEADER_SIZE;
+		}
+		buffer.limit(HEADER_SIZE);
+		channel.read(buffer, 0);
+		if(buffer.position() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("The file is not a results log.");
+		}
+		short version = buffer.getShort(4);
+		if(version != VERSION) {
+			throw new IOException("Unsupported results log version "
+					+ version + ".");
+		}
+		buffer.clear();
+
+		/*
+		 * Read the records a buffer at a time. A record cut by the end of
+		 * the buffer is moved to its start and read with the next one; one
+		 * cut by the end of the log is torn. A corrupt record reaching the
+		 * end of the log may be torn too, as the file can grow before the
+		 * bytes of the record reach the disk. A length no record can have
+		 * is never torn, as the length is written with the record.
+		 */
+		long size = channel.size();
+		long position = HEADER_SIZE;
+		channel.position(HEADER_SIZE);
+		while(channel.read(buffer) > 0) {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				int length = buffer.get(buffer.position()) & 0xFF;
+				if(length > MAX_RECORD_LENGTH) {
+					throw corruptRecord(position);
+				}
+				if(buffer.remaining() < 1 + length + CRC_SIZE) {
+					break;
+				}
+				if(!readRecord(buffer, length)) {
+					if(position + 1 + length + CRC_SIZE < size) {
+						throw corruptRecord(position);
+					}
+					return position;
+				}
+				position += 1 + length + CRC_SIZE;
+			}
+			buffer.compact();
+		}
+		return position;
+	}
+
+	/**
+	 * Creates the error for a corrupt record that is not torn.
+	 * @param position The position of the record in the log.
+	 * @return The error.
+	 */
+	private static IOException corruptRecord(long position) {
+		return new IOException("The results log has a corrupt record at byte "
+				+ position + ".");
+	}
+
+	/**
+	 * Fills the sorted best scores from the best results of the players at
+	 * once, rather than moving scores each time a player improved while
+	 * the log was read.
+	 */
+	private void sortBestScores() {
+		bestScores = new int[Math.max(16, best.size())];
+		int count = 0;
+		for(Result result : best.values()) {
+			bestScores[count++] = result.score;
+		}
+		Arrays.sort(bestScores, 0, count);
+		isSorted = true;
+	}
+
+	/**
+	 * Reads one whole record and adds its result to memory.
+	 * @param buffer The buffer, at the record.
+	 * @param length The length of the record, before its CRC-32.
+	 * @return Whether the record was read, or false if it is corrupt.
+	 */
+	private boolean readRecord(ByteBuffer buffer, int length) {
+		if(length < 3) {
+			return false;
+		}
+		int start = buffer.position();
+		int end = start + 1 + length;
+		ByteBuffer record = buffer.duplicate();
+		record.position(start).limit(end);
+		crc.reset();
+		crc.update(record);
+		if((int)crc.getValue() != buffer.getInt(end)) {
+			return false;
+		}
+		buffer.position(start + 1);
+		int nameLength = buffer.get() & 0xFF;
+		if(nameLength == 0 || nameLength > length - 3) {
+			return false;
+		}
+		String name = new String(buffer.array(),
+				buffer.arrayOffset() + buffer.position(), nameLength,
+				StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + nameLength);
+		int score = (int)GameFile.getVarLong(buffer);
+		int fruitsEaten = (int)GameFile.getVarLong(buffer);
+		buffer.position(end + CRC_SIZE);
+		add(name, score, fruitsEaten);
+		return true;
+	}
+
+	/**
+	 * Appends the result of a finished game to the log, flushes it to the
+	 * disk, and adds it to the leaderboard.
+	 * @param name The name of the player.
+	 * @param score The final score.
+	 * @param fruitsEaten The number of fruits eaten.
+	 * @throws IOException If the name is empty or too long, or the log
+	 * could not be written.
+	 */
+	public synchronized void record(String name, int score, int fruitsEaten)
+			throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if(nameBytes.length == 0 || nameBytes.length > MAX_NAME_BYTES) {
+			throw new IOException("The name must have 1 to "
+					+ MAX_NAME_BYTES + " bytes.");
+		}
+		ByteBuffer record = ByteBuffer.allocate(2 + nameBytes.length + 10
+				+ CRC_SIZE);
+		record.put((byte)0).put((byte)nameBytes.length).put(nameBytes);
+		GameFile.putVarLong(record, score);
+		GameFile.putVarLong(record, fruitsEaten);
+		record.put(0, (byte)(record.position() - 1));
+		crc.reset();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int)crc.getValue());
+		record.flip();
+		while(record.hasRemaining()) {
+			channel.write(record);
+		}
+		channel.force(false);
+		add(name, score, fruitsEaten);
+	}
+
+	/**
+	 * Adds a result to the heap and to the best results of the players.
+	 * @param name The name of the player.
+	 * @param score The final score.
+	 * @param fruitsEaten The number of fruits eaten.
+	 */
+	private synchronized void add(String name, int score, int fruitsEaten) {
+		Result result = new Result(name, score, fruitsEaten, resultCount++);
+		if(top.size() < topSize) {
+			top.add(result);
+		} else if(topSize > 0 && WORST_FIRST.compare(result, top.peek()) > 0) {
+			top.poll();
+			top.add(result);
+		}
+
+		Result previous = best.get(name);
+		if(previous == null) {
+			best.put(name, result);
+			if(isSorted) {
+				insertScore(score, best.size() - 1);
+			}
+		} else if(WORST_FIRST.compare(result, previous) > 0) {
+			best.put(name, result);
+			if(isSorted && score != previous.score) {
+				removeScore(previous.score, best.size());
+				insertScore(score, best.size() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Inserts a score into the sorted best scores.
+	 * @param score The score.
+	 * @param count The number of scores before the insertion.
+	 */
+	private void insertScore(int score, int count) {
+		if(count == bestScores.length) {
+			bestScores = Arrays.copyOf(bestScores, count * 2);
+		}
+		int at = upperBound(score, count);
+		System.arraycopy(bestScores, at, bestScores, at + 1, count - at);
+		bestScores[at] = score;
+	}
+
+	/**
+	 * Removes one occurrence of a score from the sorted best scores.
+	 * @param score The score, which must be there.
+	 * @param count The number of scores before the removal.
+	 */
+	private void removeScore(int score, int count) {
+		int at = upperBound(score, count) - 1;
+		System.arraycopy(bestScores, at + 1, bestScores, at, count - at - 1);
+	}
+
+	/**
+	 * Finds the first best score greater than a score.
+	 * @param score The score.
+	 * @param count The number of best scores.
+	 * @return The index of the first greater score, or {@code count}.
+	 */
+	private int upperBound(int score, int count) {
+		int low = 0;
+		int high = count;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(bestScores[middle] <= score) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Gets the best results, best first.
+	 * @param count The number of results, at most {@code topSize}.
+	 * @return The best results, fewer if not that many games were played.
+	 */
+	public synchronized Result[] getTop(int count) {
+		Result[] results = top.toArray(new Result[top.size()]);
+		Arrays.sort(results, WORST_FIRST);
+		int length = Math.min(count, results.length);
+		Result[] bestFirst = new Result[length];
+		for(int i = 0; i < length; i++) {
+			bestFirst[i] = results[results.length - 1 - i];
+		}
+		return bestFirst;
+	}
+
+	/**
+	 * Gets the best result of a player.
+	 * @param name The name of the player.
+	 * @return The result, or null if the player never finished a game.
+	 */
+	public synchronized Result getBest(String name) {
+		return best.get(name);
+	}
+
+	/**
+	 * Gets the rank of a player among all players, by their best score.
+	 * Players with the same best score share a rank.
+	 * @param name The name of the player.
+	 * @return The rank, from 1, or 0 if the player never finished a game.
+	 */
+	public synchronized int getRank(String name) {
+		Result result = best.get(name);
+		if(result == null) {
+			return 0;
+		}
+		int count = best.size();
+		return count - upperBound(result.score, count) + 1;
+	}
+
+	/**
+	 * Gets the number of players who finished a game.
+	 * @return The number of players.
+	 */
+	public synchronized int getPlayerCount() {
+		return best.size();
+	}
+
+	/**
+	 * Gets the number of results in the log.
+	 * @return The number of results.
+	 */
+	public synchronized long getResultCount() {
+		return resultCount;
+	}
+
+	/**
+	 * Closes the log.
+	 * @throws IOException If the log could not be closed.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Prints the best results of a results log, and the rank of a player.
+	 * @param args The log file, then optionally the number of results to
+	 * print and the name of a player.
+	 * @throws IOException If the log could not be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: Leaderboard <log> [count] [name]");
+			System.exit(2);
+		}
+		long start = System.nanoTime();
+		Leaderboard leaderboard = new Leaderboard(Paths.get(args[0]),
+				MAIN_TOP_SIZE);
+		long read = System.nanoTime() - start;
+		System.out.println(leaderboard.getResultCount() + " results of "
+				+ leaderboard.getPlayerCount() + " players read in "
+				+ read / 1000000 + " ms");
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TOP;
+		Result[] results = leaderboard.getTop(count);
+		for(int i = 0; i < results.length; i++) {
+			System.out.println((i + 1) + ". " + results[i]);
+		}
+		if(args.length > 2) {
+			System.out.println(args[2] + ": rank "
+					+ leaderboard.getRank(args[2]) + " of "
+					+ leaderboard.getPlayerCount() + ", best "
+					+ leaderboard.getBest(args[2]));
+		}
+		leaderboard.close();
+	}
+
+}
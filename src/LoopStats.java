@@ -0,0 +1,95 @@
+
+/**
+ * The {@code LoopStats} class holds the timing histograms of the game loop:
+ * how long each logic tick and each frame take, how late the loop wakes up
+ * after waiting, how many ticks are missed, and how long the render thread
+ * takes to draw a frame. The loop records into them every frame without
+ * allocating; the summary is printed on demand and when the game exits.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class LoopStats {
+
+	/**
+	 * The duration of each logic tick, in nanoseconds.
+	 */
+	private final LatencyHistogram tick = new LatencyHistogram("tick");
+
+	/**
+	 * The work done in each frame of the game loop, ticks included, in
+	 * nanoseconds.
+	 */
+	private final LatencyHistogram frame = new LatencyHistogram("frame");
+
+	/**
+	 * How late the game loop wakes up after waiting, in nanoseconds.
+	 */
+	private final LatencyHistogram overshoot =
+			new LatencyHistogram("overshoot");
+
+	/**
+	 * The number of ticks missed in each frame: ticks run late to catch up
+	 * plus ticks dropped by the clock.
+	 */
+	private final LatencyHistogram missed = new LatencyHistogram("missed");
+
+	/**
+	 * The time the render thread takes to draw and show a frame, in
+	 * nanoseconds.
+	 */
+	private final LatencyHistogram render = new LatencyHistogram("render");
+
+	/**
+	 * Records the duration of a logic tick.
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public void recordTick(long nanos) {
+		tick.record(nanos);
+	}
+
+	/**
+	 * Records the work done in a frame of the game loop.
+	 * @param nanos The duration in nanoseconds.
+	 * @param ticks The number of ticks run in the frame.
+	 * @param dropped The number of ticks the clock dropped in the frame.
+	 */
+	public void recordFrame(long nanos, int ticks, long dropped) {
+		frame.record(nanos);
+		missed.record(Math.max(0, ticks - 1) + dropped);
+	}
+
+	/**
+	 * Records how late the game loop woke up.
+	 * @param nanos The lateness in nanoseconds.
+	 */
+	public void recordOvershoot(long nanos) {
+		overshoot.record(nanos);
+	}
+
+	/**
+	 * Records the time the render thread took to draw a frame. Only called
+	 * from the render thread.
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public void recordRender(long nanos) {
+		render.record(nanos);
+	}
+
+	/**
+	 * Formats the p50, p99, p99.9 and maximum of every histogram.
+	 * @return The report, one histogram per line.
+	 */
+	public String report() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(tick.summary(1000.0, "us")).append('\n');
+		builder.append(frame.summary(1000.0, "us")).append('\n');
+		builder.append(overshoot.summary(1000.0, "us")).append('\n');
+		builder.append(missed.summary(1.0, "")).append('\n');
+		if(render.getCount() > 0) {
+			builder.append(render.summary(1000.0, "us")).append('\n');
+		}
+		return builder.toString();
+	}
+
+}
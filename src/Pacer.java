@@ -0,0 +1,91 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code Pacer} class waits until a deadline given in
+ * {@code System.nanoTime} units. It sleeps for most of the wait, and spins
+ * (yielding the CPU) for the last stretch, since sleeping alone wakes up
+ * late by up to a millisecond or more depending on the operating system.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class Pacer {
+
+	/**
+	 * The default time spent spinning before a deadline, in nanoseconds.
+	 */
+	public static final long DEFAULT_SPIN_NANOS = 1000000L;
+
+	/**
+	 * The time spent spinning before a deadline, in nanoseconds.
+	 */
+	private final long spinNanos;
+
+	/**
+	 * Creates a new Pacer that spins for the default time.
+	 */
+	public Pacer() {
+		this(DEFAULT_SPIN_NANOS);
+	}
+
+	/**
+	 * Creates a new Pacer.
+	 * @param spinNanos The time spent spinning before a deadline, in
+	 * nanoseconds. Larger values are more precise but use more CPU.
+	 */
+	public Pacer(long spinNanos) {
+		this.spinNanos = spinNanos;
+	}
+
+	/**
+	 * Waits until the given time, returning right away if it has passed.
+	 * @param deadline The {@code System.nanoTime} to wait for.
+	 * @return How late the wait ended, in nanoseconds (0 or more).
+	 */
+	public long waitUntil(long deadline) {
+		long remaining = deadline - System.nanoTime();
+		while(remaining > spinNanos) {
+			LockSupport.parkNanos(this, remaining - spinNanos);
+			remaining = deadline - System.nanoTime();
+		}
+		while(remaining > 0) {
+			Thread.yield();
+			remaining = deadline - System.nanoTime();
+		}
+		return -remaining;
+	}
+
+	/**
+	 * Measures the tick jitter of a {@link Clock} paced by a Pacer: how
+	 * late each tick is seen compared to when it was due, printed as
+	 * percentiles in microseconds.
+	 * @param args The tick rate (default 1000), the number of seconds to
+	 * run (default 5) and the spin time in microseconds (default 1000).
+	 */
+	public static void main(String[] args) {
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long spin = args.length > 2 ? Long.parseLong(args[2]) * 1000L
+				: DEFAULT_SPIN_NANOS;
+
+		Pacer pacer = new Pacer(spin);
+		Clock clock = new Clock(rate);
+		clock.setMaxCyclesPerUpdate(1);
+		LatencyHistogram lateness = new LatencyHistogram("lateness");
+		long ticks = (long)rate * seconds;
+		long due = clock.getNextCycleTime();
+		while(lateness.getCount() < ticks) {
+			pacer.waitUntil(due);
+			clock.update();
+			if(clock.hasElapsedCycle()) {
+				lateness.record(System.nanoTime() - due);
+			}
+			due = clock.getNextCycleTime();
+		}
+
+		System.out.printf("%d ticks at %d Hz, dropped %d%n", ticks, rate,
+				clock.getDroppedCycles());
+		System.out.println(lateness.summary(1000.0, "us"));
+	}
+
+}
@@ -0,0 +1,637 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code Replay} class records a game so that it can be played again
+ * exactly. Since the only randomness of a {@link SnakeEngine} comes from
+ * the seed it was reset with, a game is fully described by its board size,
+ * its seed and the turns queued at each tick.
+ * <p>
+ * So that a long game can be reviewed from any point without playing it
+ * from the start, a keyframe is also kept every {@code keyframeTicks}
+ * ticks: the whole game as saved by {@link GameFile} (the board as packed
+ * tile codes, the same codes {@code BoardPanel.getState} exposes, and the
+ * snake), the state of the random number generator, and where the turns
+ * resume. {@code seek} starts from the last keyframe before the tick asked
+ * for, so it plays at most {@code keyframeTicks - 1} ticks.
+ * <p>
+ * A replay is laid out as follows, big-endian:
+ * <pre>
+ * int    magic ("SNKR")
+ * short  version
+ * long   seed
+ * int    checksum of the final game, as saved by {@link GameFile}
+ * byte[] payload
+ * byte[] keyframes
+ * byte[] index, one long tick and one int position per keyframe
+ * int    number of keyframes
+ * int    position of the index
+ * int    CRC-32 of everything before it
+ * </pre>
+ * The payload holds, as unsigned varints: the number of columns and rows,
+ * the number of ticks played, the final score, the number of turns, the
+ * ticks between keyframes, the length of the turns, and each turn as the
+ * ticks since the previous turn shifted left by two, plus the code of the
+ * direction. Each keyframe holds the state of the random number generator
+ * as a long, then as varints its tick, the number and the length of the
+ * turns before it, the tick of the last of them, and the length of the
+ * saved game that follows.
+ * <p>
+ * {@code main} plays replay files headless and checks that they end in
+ * exactly the recorded game.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class Replay {
+
+	/**
+	 * The default number of ticks between keyframes.
+	 */
+	public static final int DEFAULT_KEYFRAME_TICKS = 1000;
+
+	/**
+	 * The first four bytes of a replay ("SNKR").
+	 */
+	private static final int MAGIC = 0x534E4B52;
+
+	/**
+	 * The version of the format written.
+	 */
+	private static final short VERSION = 2;
+
+	/**
+	 * The size of the header, before the payload.
+	 */
+	private static final int HEADER_SIZE = 18;
+
+	/**
+	 * The size of the footer after the index: the number of keyframes, the
+	 * position of the index and the CRC-32.
+	 */
+	private static final int FOOTER_SIZE = 12;
+
+	/**
+	 * The initial capacity of the turn buffer.
+	 */
+	private static final int BUFFER_SIZE = 256;
+
+	/**
+	 * The directions, indexed by their code in the replay.
+	 */
+	private static final Direction[] DIRECTIONS = {
+		Direction.North, Direction.East, Direction.South, Direction.West
+	};
+
+	/**
+	 * A copy of the game at a tick, to start playing from.
+	 */
+	private static final class Keyframe {
+
+		/**
+		 * The tick of the keyframe.
+		 */
+		private final long tick;
+
+		/**
+		 * The state of the random number generator.
+		 */
+		private final long randomState;
+
+		/**
+		 * The number of turns recorded before the keyframe.
+		 */
+		private final int turnIndex;
+
+		/**
+		 * The length of the turns recorded before the keyframe, in bytes.
+		 */
+		private final int turnOffset;
+
+		/**
+		 * The tick of the last turn recorded before the keyframe.
+		 */
+		private final long lastTurnTick;
+
+		/**
+		 * The game, while recording, or null once it was encoded.
+		 */
+		private SavedGame game;
+
+		/**
+		 * The game as saved by {@link GameFile}, once encoded.
+		 */
+		private ByteBuffer encoded;
+
+		/**
+		 * Creates a new Keyframe.
+		 * @param tick The tick of the keyframe.
+		 * @param randomState The state of the random number generator.
+		 * @param turnIndex The number of turns before the keyframe.
+		 * @param turnOffset The length of the turns before the keyframe.
+		 * @param lastTurnTick The tick of the last turn before it.
+		 */
+		private Keyframe(long tick, long randomState, int turnIndex,
+				int turnOffset, long lastTurnTick) {
+			this.tick = tick;
+			this.randomState = randomState;
+			this.turnIndex = turnIndex;
+			this.turnOffset = turnOffset;
+			this.lastTurnTick = lastTurnTick;
+		}
+
+		/**
+		 * Encodes the game, if it was not yet.
+		 * @return The game as saved by {@link GameFile}.
+		 */
+		private ByteBuffer getEncoded() {
+			if(encoded == null) {
+				encoded = GameFile.encode(game, true);
+				game = null;
+			}
+			return encoded.duplicate();
+		}
+
+	}
+
+	/**
+	 * The number of columns on the board.
+	 */
+	private final int colCount;
+
+	/**
+	 * The number of rows on the board.
+	 */
+	private final int rowCount;
+
+	/**
+	 * The seed the engine was reset with.
+	 */
+	private final long seed;
+
+	/**
+	 * The number of ticks between keyframes.
+	 */
+	private final int keyframeTicks;
+
+	/**
+	 * The keyframes, in order.
+	 */
+	private final List<Keyframe> keyframes = new ArrayList<Keyframe>();
+
+	/**
+	 * The turns, encoded as varints.
+	 */
+	private ByteBuffer turns;
+
+	/**
+	 * The number of turns recorded.
+	 */
+	private int turnCount;
+
+	/**
+	 * The number of ticks played.
+	 */
+	private long ticks;
+
+	/**
+	 * The tick of the last turn recorded.
+	 */
+	private long lastTurnTick;
+
+	/**
+	 * The final score, once the game is finished.
+	 */
+	private int score;
+
+	/**
+	 * The game at the end, once the game is finished and until the
+	 * checksum is computed.
+	 */
+	private SavedGame finalGame;
+
+	/**
+	 * The checksum of the game at the end, once computed.
+	 */
+	private int checksum;
+
+	/**
+	 * Starts recording a game, with the default number of ticks between
+	 * keyframes. The engine must be reset with the same seed.
+	 * @param colCount The number of columns on the board.
+	 * @param rowCount The number of rows on the board.
+	 * @param seed The seed the engine is reset with.
+	 */
+	public Replay(int colCount, int rowCount, long seed) {
+		this(colCount, rowCount, seed, DEFAULT_KEYFRAME_TICKS);
+	}
+
+	/**
+	 * Starts recording a game. The engine must be reset with the same seed.
+	 * @param colCount The number of columns on the board.
+	 * @param rowCount The number of rows on the board.
+	 * @param seed The seed the engine is reset with.
+	 * @param keyframeTicks The number of ticks between keyframes.
+	 */
+	public Replay(int colCount, int rowCount, long seed, int keyframeTicks) {
+		if(keyframeTicks < 1) {
+			throw new IllegalArgumentException("Invalid keyframe interval: "
+					+ keyframeTicks);
+		}
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.seed = seed;
+		this.keyframeTicks = keyframeTicks;
+		this.turns = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * Records a turn queued in the engine, before the next tick. Only
+	 * called from the game loop.
+	 * @param direction The direction queued.
+	 */
+	public void recordTurn(Direction direction) {
+		if(turns.remaining() < 10) {
+			ByteBuffer larger = ByteBuffer.allocate(turns.capacity() * 2);
+			turns.flip();
+			larger.put(turns);
+			turns = larger;
+		}
+		GameFile.putVarLong(turns, (ticks - lastTurnTick) << 2
+				| codeOf(direction));
+		lastTurnTick = ticks;
+		turnCount++;
+	}
+
+	/**
+	 * Records a tick of the engine, and keeps a keyframe if one is due.
+	 * Only called from the game loop, right after the tick.
+	 * @param engine The engine that ticked.
+	 */
+	public void recordStep(SnakeEngine engine) {
+		ticks++;
+		if(ticks % keyframeTicks == 0) {
+			Keyframe keyframe = new Keyframe(ticks, engine.getRandomState(),
+					turnCount, turns.position(), lastTurnTick);
+			keyframe.game = SavedGame.capture(engine, false, false);
+			keyframes.add(keyframe);
+		}
+	}
+
+	/**
+	 * Finishes the recording. The final game is only copied here; its
+	 * checksum is computed when the replay is written.
+	 * @param engine The engine at the end of the game.
+	 */
+	public void finish(SnakeEngine engine) {
+		this.score = engine.getScore();
+		this.finalGame = SavedGame.capture(engine, false, false);
+	}
+
+	/**
+	 * Plays the whole replay again on a new engine, without a display.
+	 * @return The engine, at the end of the game.
+	 */
+	public SnakeEngine play() {
+		return seek(ticks);
+	}
+
+	/**
+	 * Plays the replay up to a tick on a new engine, without a display,
+	 * starting from the last keyframe at or before it.
+	 * @param tick The number of ticks to play, clamped to the length of
+	 * the game. Turns queued right after that tick are not applied.
+	 * @return The engine, at that tick.
+	 */
+	public SnakeEngine seek(long tick) {
+		tick = Math.max(0, Math.min(tick, ticks));
+		SnakeEngine engine = new SnakeEngine(colCount, rowCount);
+		Keyframe keyframe = findKeyframe(tick);
+		ByteBuffer input = turns.duplicate();
+		input.flip();
+		long from = 0;
+		int remaining = turnCount;
+		long turnTick = 0;
+		if(keyframe == null) {
+			engine.reset(seed);
+		} else {
+			try {
+				GameFile.decode(keyframe.getEncoded()).install(engine);
+			} catch (IOException ex) {
+				throw new IllegalStateException("Corrupt keyframe at tick "
+						+ keyframe.tick, ex);
+			}
+			engine.setRandomState(keyframe.randomState);
+			from = keyframe.tick;
+			remaining -= keyframe.turnIndex;
+			turnTick = keyframe.lastTurnTick;
+			input.position(keyframe.turnOffset);
+		}
+
+		int turn = 0;
+		if(remaining > 0) {
+			long value = GameFile.getVarLong(input);
+			turnTick += value >>> 2;
+			turn = (int)value & 3;
+		}
+		for(long t = from; t < tick; t++) {
+			while(remaining > 0 && turnTick == t) {
+				engine.queueDirection(DIRECTIONS[turn]);
+				if(--remaining > 0) {
+					long value = GameFile.getVarLong(input);
+					turnTick += value >>> 2;
+					turn = (int)value & 3;
+				}
+			}
+			engine.step();
+		}
+		return engine;
+	}
+
+	/**
+	 * Checks whether an engine ended in exactly the recorded game.
+	 * @param engine The engine.
+	 * @return Whether its game matches the recorded one.
+	 */
+	public boolean matches(SnakeEngine engine) {
+		return engine.getScore() == score
+				&& checksumOf(SavedGame.capture(engine, false, false))
+				== getChecksum();
+	}
+
+	/**
+	 * Gets the seed the engine was reset with.
+	 * @return The seed.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Gets the number of ticks played.
+	 * @return The number of ticks.
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Gets the final score.
+	 * @return The score.
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Gets the number of turns recorded.
+	 * @return The number of turns.
+	 */
+	public int getTurnCount() {
+		return turnCount;
+	}
+
+	/**
+	 * Gets the number of keyframes kept.
+	 * @return The number of keyframes.
+	 */
+	public int getKeyframeCount() {
+		return keyframes.size();
+	}
+
+	/**
+	 * Gets the checksum of the game at the end, computing it on the first
+	 * call.
+	 * @return The checksum.
+	 */
+	public int getChecksum() {
+		if(finalGame != null) {
+			checksum = checksumOf(finalGame);
+			finalGame = null;
+		}
+		return checksum;
+	}
+
+	/**
+	 * Writes the replay to a file. The keyframes are encoded here, so this
+	 * is best done away from the game loop.
+	 * @param file The file to write.
+	 * @throws IOException If the replay could not be written.
+	 */
+	public void write(Path file) throws IOException {
+		long size = HEADER_SIZE + 7 * 10L + turns.position()
+				+ keyframes.size() * (8L + 5 * 10 + 12) + FOOTER_SIZE;
+		for(Keyframe keyframe : keyframes) {
+			size += keyframe.getEncoded().remaining();
+		}
+		if(size > Integer.MAX_VALUE - 8) {
+			throw new IOException("The replay is too large to write.");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int)size);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putLong(seed);
+		buffer.putInt(getChecksum());
+		GameFile.putVarLong(buffer, colCount);
+		GameFile.putVarLong(buffer, rowCount);
+		GameFile.putVarLong(buffer, ticks);
+		GameFile.putVarLong(buffer, score);
+		GameFile.putVarLong(buffer, turnCount);
+		GameFile.putVarLong(buffer, keyframeTicks);
+		GameFile.putVarLong(buffer, turns.position());
+		buffer.put(turns.array(), 0, turns.position());
+
+		int[] positions = new int[keyframes.size()];
+		for(int i = 0; i < positions.length; i++) {
+			Keyframe keyframe = keyframes.get(i);
+			ByteBuffer encoded = keyframe.getEncoded();
+			positions[i] = buffer.position();
+			buffer.putLong(keyframe.randomState);
+			GameFile.putVarLong(buffer, keyframe.tick);
+			GameFile.putVarLong(buffer, keyframe.turnIndex);
+			GameFile.putVarLong(buffer, keyframe.turnOffset);
+			GameFile.putVarLong(buffer, keyframe.lastTurnTick);
+			GameFile.putVarLong(buffer, encoded.remaining());
+			buffer.put(encoded);
+		}
+
+		int indexPosition = buffer.position();
+		for(int i = 0; i < positions.length; i++) {
+			buffer.putLong(keyframes.get(i).tick);
+			buffer.putInt(positions[i]);
+		}
+		buffer.putInt(positions.length);
+		buffer.putInt(indexPosition);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int)crc.getValue());
+		buffer.flip();
+		GameFile.write(buffer, file);
+	}
+
+	/**
+	 * Reads a replay from a file. The keyframes are found through the
+	 * index at the end of the file, and only decoded when seeking.
+	 * @param file The file to read.
+	 * @return The replay.
+	 * @throws IOException If the file is not a valid replay.
+	 */
+	public static Replay read(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		if(buffer.remaining() < HEADER_SIZE + FOOTER_SIZE
+				|| buffer.getInt() != MAGIC) {
+			throw new IOException("Not a replay.");
+		}
+		short version = buffer.getShort();
+		if(version != VERSION) {
+			throw new IOException("Unsupported replay version " + version
+					+ ".");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.limit() - 4);
+		if(buffer.getInt(buffer.limit() - 4) != (int)crc.getValue()) {
+			throw new IOException("The replay is corrupt.");
+		}
+		long seed = buffer.getLong();
+		int checksum = buffer.getInt();
+		try {
+			int colCount = (int)GameFile.getVarLong(buffer);
+			int rowCount = (int)GameFile.getVarLong(buffer);
+			long ticks = GameFile.getVarLong(buffer);
+			int score = (int)GameFile.getVarLong(buffer);
+			int turnCount = (int)GameFile.getVarLong(buffer);
+			int keyframeTicks = (int)GameFile.getVarLong(buffer);
+			int turnLength = (int)GameFile.getVarLong(buffer);
+			Replay replay = new Replay(colCount, rowCount, seed,
+					keyframeTicks);
+			replay.ticks = ticks;
+			replay.score = score;
+			replay.turnCount = turnCount;
+			replay.checksum = checksum;
+			replay.turns = ByteBuffer.allocate(turnLength);
+			ByteBuffer turns = buffer.duplicate();
+			turns.limit(turns.position() + turnLength);
+			replay.turns.put(turns);
+
+			int footer = buffer.limit() - FOOTER_SIZE;
+			int keyframeCount = buffer.getInt(footer);
+			int index = buffer.getInt(footer + 4);
+			if(keyframeCount < 0 || index < 0
+					|| index + keyframeCount * 12L != footer) {
+				throw new IOException("The replay index is invalid.");
+			}
+			for(int i = 0; i < keyframeCount; i++) {
+				buffer.position(buffer.getInt(index + i * 12 + 8));
+				long randomState = buffer.getLong();
+				Keyframe keyframe = new Keyframe(GameFile.getVarLong(buffer),
+						randomState, (int)GameFile.getVarLong(buffer),
+						(int)GameFile.getVarLong(buffer),
+						GameFile.getVarLong(buffer));
+				int length = (int)GameFile.getVarLong(buffer);
+				keyframe.encoded = buffer.slice();
+				keyframe.encoded.limit(length);
+				replay.keyframes.add(keyframe);
+			}
+			return replay;
+		} catch (RuntimeException ex) {
+			throw new IOException("The replay is invalid.", ex);
+		}
+	}
+
+	/**
+	 * Plays replay files headless and checks that each ends in exactly the
+	 * recorded game. With {@code -seek} and a tick first, also times how
+	 * long it takes to reach that tick.
+	 * @param args The replay files, optionally preceded by {@code -seek}
+	 * and a tick.
+	 * @throws IOException If a replay could not be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		int arg = 0;
+		long seekTick = -1;
+		if(args.length > 1 && args[0].equals("-seek")) {
+			seekTick = Long.parseLong(args[1]);
+			arg = 2;
+		}
+		boolean allMatch = true;
+		for(; arg < args.length; arg++) {
+			Replay replay = read(Paths.get(args[arg]));
+			long start = System.nanoTime();
+			SnakeEngine engine = replay.play();
+			long nanos = Math.max(1L, System.nanoTime() - start);
+			boolean match = replay.matches(engine);
+			allMatch &= match;
+			System.out.printf("%s: %dx%d, seed %d, %d ticks, %d turns,"
+					+ " %d keyframes, score %d, %s, %.0f ticks/s%n",
+					args[arg], replay.colCount, replay.rowCount, replay.seed,
+					replay.ticks, replay.turnCount, replay.keyframes.size(),
+					engine.getScore(), match ? "match" : "MISMATCH",
+					replay.ticks * 1e9 / nanos);
+			if(seekTick >= 0) {
+				start = System.nanoTime();
+				engine = replay.seek(seekTick);
+				nanos = System.nanoTime() - start;
+				System.out.printf("  tick %d: score %d, length %d, seek"
+						+ " %.3f ms%n", Math.min(seekTick, replay.ticks),
+						engine.getScore(), engine.getSnakeRing().size(),
+						nanos / 1e6);
+			}
+		}
+		if(!allMatch) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Finds the last keyframe at or before a tick.
+	 * @param tick The tick.
+	 * @return The keyframe, or null if there is none before the tick.
+	 */
+	private Keyframe findKeyframe(long tick) {
+		int low = 0;
+		int high = keyframes.size() - 1;
+		Keyframe found = null;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			Keyframe keyframe = keyframes.get(middle);
+			if(keyframe.tick <= tick) {
+				found = keyframe;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Computes the checksum of a game, as saved by {@link GameFile}.
+	 * @param game The game.
+	 * @return The checksum.
+	 */
+	private static int checksumOf(SavedGame game) {
+		return GameFile.getChecksum(GameFile.encode(game, false));
+	}
+
+	/**
+	 * Gets the code of a direction in the replay.
+	 * @param direction The direction.
+	 * @return The code.
+	 */
+	private static int codeOf(Direction direction) {
+		for(int i = 0; i < DIRECTIONS.length; i++) {
+			if(DIRECTIONS[i] == direction) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown direction " + direction);
+	}
+
+}
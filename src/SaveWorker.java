@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@code SaveWorker} class saves and loads games, and saves replays,
+ * on a background thread, so that file I/O never holds up the game loop.
+ * Games are kept in the slot of the player in a {@link SlotStore}, and the
+ * result of each finished game is added to the {@link Leaderboard}.
+ * The game loop hands it a {@link SavedGame} copied between two ticks to
+ * save, and picks up a loaded game with {@code pollLoaded} between two
+ * ticks to install it. Requests are carried out one at a time, in order.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SaveWorker {
+
+	/**
+	 * The longest time to wait for pending saves when the game exits, in
+	 * milliseconds.
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 2000L;
+
+	/**
+	 * The thread that reads and writes the files.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The last game loaded and not yet installed, or null.
+	 */
+	private final AtomicReference<SavedGame> loaded =
+			new AtomicReference<SavedGame>();
+
+	/**
+	 * The file of the slot store.
+	 */
+	private final Path storeFile;
+
+	/**
+	 * The slot store, opened by the worker's thread the first time a game
+	 * is saved or loaded, or null.
+	 */
+	private SlotStore store;
+
+	/**
+	 * The leaderboard, once rebuilt from its log by the worker's thread, or
+	 * null.
+	 */
+	private volatile Leaderboard leaderboard;
+
+	/**
+	 * Creates a new SaveWorker and its thread, which starts by rebuilding
+	 * the leaderboard.
+	 * @param storeFile The file of the slot store the games are saved in.
+	 * @param resultsFile The results log of the leaderboard.
+	 * @param topSize The number of best results the leaderboard keeps.
+	 */
+	public SaveWorker(Path storeFile, final Path resultsFile,
+			final int topSize) {
+		this.storeFile = storeFile;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Save I/O");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					leaderboard = new Leaderboard(resultsFile, topSize);
+				} catch (IOException ex) {
+					Logger.getLogger(SaveWorker.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes a game to the slot of a player in the background, or to
+	 * {@code <name>.bin} if it is too large for a slot or the name too long
+	 * for one. Errors are logged.
+	 * @param game The game, copied by the game loop.
+	 * @param name The name of the player.
+	 */
+	public void save(final SavedGame game, final String name) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ByteBuffer buffer = GameFile.encode(game, true);
+					if(!SlotStore.canHold(name)) {
+						GameFile.write(buffer, legacyFile(name));
+						return;
+					}
+					SlotStore slots = getStore();
+					if(!slots.put(name, buffer)) {
+						slots.clear(name);
+						GameFile.write(buffer, legacyFile(name));
+					}
+				} catch (IOException ex) {
+					Logger.getLogger(SaveWorker.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes a finished replay to a file in the background. Errors are
+	 * logged.
+	 * @param replay The replay, no longer recorded into.
+	 * @param file The file to write.
+	 */
+	public void saveReplay(final Replay replay, final Path file) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					replay.write(file);
+				} catch (IOException ex) {
+					Logger.getLogger(SaveWorker.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the result of a finished game to the leaderboard and its log in
+	 * the background. Errors are logged.
+	 * @param name The name of the player.
+	 * @param score The final score.
+	 * @param fruitsEaten The number of fruits eaten.
+	 */
+	public void saveResult(final String name, final int score,
+			final int fruitsEaten) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(leaderboard == null) {
+					return;
+				}
+				try {
+					leaderboard.record(name, score, fruitsEaten);
+				} catch (IOException ex) {
+					Logger.getLogger(SaveWorker.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the leaderboard. Its queries can be made from any thread.
+	 * @return The leaderboard, or null while it is being rebuilt, or if its
+	 * log could not be read.
+	 */
+	public Leaderboard getLeaderboard() {
+		return leaderboard;
+	}
+
+	/**
+	 * Reads and decodes the game of a player in the background, from its
+	 * slot or else from {@code <name>.bin}. Once done, the game is handed
+	 * out by {@code pollLoaded}. Errors, including a game saved on a board
+	 * of another size, are logged.
+	 * @param name The name of the player.
+	 * @param board The board the game will be installed on. Only its size
+	 * is read.
+	 */
+	public void load(final String name, Board board) {
+		final int colCount = board.getColCount();
+		final int rowCount = board.getRowCount();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ByteBuffer buffer = SlotStore.canHold(name)
+							? getStore().get(name) : null;
+					SavedGame game = buffer != null ? GameFile.decode(buffer)
+							: GameFile.read(legacyFile(name));
+					if(game.getColCount() != colCount
+							|| game.getRowCount() != rowCount) {
+						throw new IOException("The game was saved on a "
+								+ game.getColCount() + "x"
+								+ game.getRowCount() + " board.");
+					}
+					loaded.set(game);
+				} catch (IOException ex) {
+					Logger.getLogger(SaveWorker.class.getName()).log(
+							Level.SEVERE, null, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes the last game loaded, if any. Only called from the game loop.
+	 * @return The game, or null if no game was loaded since the last call.
+	 */
+	public SavedGame pollLoaded() {
+		return loaded.get() == null ? null : loaded.getAndSet(null);
+	}
+
+	/**
+	 * Opens the slot store, the first time it is needed. Only called from
+	 * the worker's thread.
+	 * @return The store.
+	 * @throws IOException If the store could not be opened.
+	 */
+	private SlotStore getStore() throws IOException {
+		if(store == null) {
+			store = new SlotStore(storeFile);
+		}
+		return store;
+	}
+
+	/**
+	 * Gets the file a player's game was saved to before the slot store, or
+	 * is saved to when it is too large for a slot.
+	 * @param name The name of the player.
+	 * @return The file.
+	 */
+	private static Path legacyFile(String name) {
+		return Paths.get(name + ".bin");
+	}
+
+	/**
+	 * Stops accepting requests and waits a little for pending saves to be
+	 * written, so that quitting right after saving does not lose the game.
+	 * The slot store and the leaderboard are closed once they are.
+	 */
+	public void close() {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(leaderboard != null) {
+					try {
+						leaderboard.close();
+					} catch (IOException ex) {
+						Logger.getLogger(SaveWorker.class.getName()).log(
+								Level.SEVERE, null, ex);
+					}
+				}
+				if(store != null) {
+					try {
+						store.close();
+					} catch (IOException ex) {
+						Logger.getLogger(SaveWorker.class.getName()).log(
+								Level.SEVERE, null, ex);
+					}
+					store = null;
+				}
+			}
+		});
+		executor.shutdown();
+		try {
+			executor.awaitTermination(CLOSE_TIMEOUT_MILLIS,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,309 @@
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * The {@code SavedGame} class is an immutable copy of a game, taken between
+ * two ticks. It is what {@link GameFile} writes and reads, so that saving
+ * and loading can be done on another thread than the game loop: the loop
+ * only takes the copy, or installs one, between ticks.
+ * <p>
+ * Taking a copy is cheap: the chunks of the board are shared with the
+ * {@link Board}, which copies them the next time they change, and only the
+ * cells of the snake are copied.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public final class SavedGame {
+
+	/**
+	 * The number of columns on the board.
+	 */
+	private final int colCount;
+
+	/**
+	 * The number of rows on the board.
+	 */
+	private final int rowCount;
+
+	/**
+	 * The score.
+	 */
+	private final int score;
+
+	/**
+	 * The number of fruits eaten.
+	 */
+	private final int fruitsEaten;
+
+	/**
+	 * The extra score of the next fruit.
+	 */
+	private final int nextFruitScore;
+
+	/**
+	 * The queued directions, oldest first.
+	 */
+	private final Direction[] directions;
+
+	/**
+	 * The packed indices of the snake's cells, head first.
+	 */
+	private final long[] snake;
+
+	/**
+	 * The number of segments the snake still has to grow.
+	 */
+	private final int pendingGrowth;
+
+	/**
+	 * Whether no game was started yet.
+	 */
+	private final boolean isNewGame;
+
+	/**
+	 * Whether the game is paused.
+	 */
+	private final boolean isPaused;
+
+	/**
+	 * Whether the game is over.
+	 */
+	private final boolean isGameOver;
+
+	/**
+	 * The indices of the chunks of the board that hold tiles.
+	 */
+	private final int[] chunkIndices;
+
+	/**
+	 * The codes of each chunk in {@code chunkIndices}, as read by
+	 * {@link Board#typeOf}. They must never be changed.
+	 */
+	private final byte[][] chunkCodes;
+
+	/**
+	 * Creates a new SavedGame. The arrays are kept, not copied.
+	 * @param colCount The number of columns on the board.
+	 * @param rowCount The number of rows on the board.
+	 * @param score The score.
+	 * @param fruitsEaten The number of fruits eaten.
+	 * @param nextFruitScore The extra score of the next fruit.
+	 * @param directions The queued directions, oldest first.
+	 * @param snake The cells of the snake, head first.
+	 * @param pendingGrowth The number of segments the snake still has to
+	 * grow.
+	 * @param isNewGame Whether no game was started yet.
+	 * @param isPaused Whether the game is paused.
+	 * @param isGameOver Whether the game is over.
+	 * @param chunkIndices The indices of the chunks that hold tiles.
+	 * @param chunkCodes The codes of each of these chunks.
+	 */
+	public SavedGame(int colCount, int rowCount, int score, int fruitsEaten,
+			int nextFruitScore, Direction[] directions, long[] snake,
+			int pendingGrowth, boolean isNewGame, boolean isPaused,
+			boolean isGameOver, int[] chunkIndices, byte[][] chunkCodes) {
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.score = score;
+		this.fruitsEaten = fruitsEaten;
+		this.nextFruitScore = nextFruitScore;
+		this.directions = directions;
+		this.snake = snake;
+		this.pendingGrowth = pendingGrowth;
+		this.isNewGame = isNewGame;
+		this.isPaused = isPaused;
+		this.isGameOver = isGameOver;
+		this.chunkIndices = chunkIndices;
+		this.chunkCodes = chunkCodes;
+	}
+
+	/**
+	 * Copies the game held by an engine. Only called between ticks, from
+	 * the thread that runs the engine.
+	 * @param engine The engine holding the game.
+	 * @param isNewGame Whether no game was started yet.
+	 * @param isPaused Whether the game is paused.
+	 * @return The copy.
+	 */
+	public static SavedGame capture(SnakeEngine engine, boolean isNewGame,
+			boolean isPaused) {
+		Board board = engine.getBoard();
+		int live = board.getLiveChunkCount();
+		int[] chunkIndices = new int[live];
+		byte[][] chunkCodes = new byte[live][];
+		board.shareChunks(chunkIndices, chunkCodes);
+
+		SnakeRing ring = engine.getSnakeRing();
+		long[] snake = new long[ring.size()];
+		for(int i = 0; i < snake.length; i++) {
+			snake[i] = ring.get(i);
+		}
+		Direction[] directions = engine.getDirections().toArray(
+				new Direction[0]);
+		return new SavedGame(board.getColCount(), board.getRowCount(),
+				engine.getScore(), engine.getFruitsEaten(),
+				engine.getNextFruitScore(), directions, snake,
+				engine.getPendingGrowth(), isNewGame, isPaused,
+				engine.isGameOver(), chunkIndices, chunkCodes);
+	}
+
+	/**
+	 * Replaces the game held by an engine with this one. Only called
+	 * between ticks, from the thread that runs the engine.
+	 * @param engine The engine to install the game into.
+	 * @return The {@link BoardSnapshot} flags {@code NEW_GAME} and
+	 * {@code PAUSED} of the game.
+	 * @throws IllegalArgumentException If the engine's board is not the
+	 * size of this game's.
+	 */
+	public int install(SnakeEngine engine) {
+		Board board = engine.getBoard();
+		if(!fits(board)) {
+			throw new IllegalArgumentException("The game was saved on a "
+					+ colCount + "x" + rowCount + " board.");
+		}
+		board.clear();
+		int chunkCols = board.getChunkCols();
+		for(int i = 0; i < chunkIndices.length; i++) {
+			byte[] codes = chunkCodes[i];
+			int baseX = (chunkIndices[i] % chunkCols) * Board.CHUNK_SIZE;
+			int baseY = (chunkIndices[i] / chunkCols) * Board.CHUNK_SIZE;
+			for(int offset = 0; offset < codes.length; offset++) {
+				if(codes[offset] != 0) {
+					board.setTile(baseX + offset % Board.CHUNK_SIZE,
+							baseY + offset / Board.CHUNK_SIZE,
+							Board.typeOf(codes[offset]));
+				}
+			}
+		}
+
+		engine.setScore(score);
+		engine.setFruitsEaten(fruitsEaten);
+		engine.setNextFruitScore(nextFruitScore);
+		engine.setDirections(new LinkedList<Direction>(
+				Arrays.asList(directions)));
+		engine.setGameOver(isGameOver);
+		engine.setSnakeCells(snake, snake.length, pendingGrowth);
+		return (isNewGame ? BoardSnapshot.NEW_GAME : 0)
+				| (isPaused ? BoardSnapshot.PAUSED : 0);
+	}
+
+	/**
+	 * Checks whether this game can be installed on a board.
+	 * @param board The board.
+	 * @return Whether the board has the size of this game's.
+	 */
+	public boolean fits(Board board) {
+		return board.getColCount() == colCount
+				&& board.getRowCount() == rowCount;
+	}
+
+	/**
+	 * Gets the number of columns on the board.
+	 * @return The number of columns.
+	 */
+	public int getColCount() {
+		return colCount;
+	}
+
+	/**
+	 * Gets the number of rows on the board.
+	 * @return The number of rows.
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Gets the score.
+	 * @return The score.
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Gets the number of fruits eaten.
+	 * @return The fruits eaten.
+	 */
+	public int getFruitsEaten() {
+		return fruitsEaten;
+	}
+
+	/**
+	 * Gets the extra score of the next fruit.
+	 * @return The next fruit score.
+	 */
+	public int getNextFruitScore() {
+		return nextFruitScore;
+	}
+
+	/**
+	 * Gets the queued directions, oldest first.
+	 * @return The directions. The array must not be changed.
+	 */
+	public Direction[] getDirections() {
+		return directions;
+	}
+
+	/**
+	 * Gets the cells of the snake.
+	 * @return The packed indices of the cells, head first. The array must
+	 * not be changed.
+	 */
+	public long[] getSnake() {
+		return snake;
+	}
+
+	/**
+	 * Gets the number of segments the snake still has to grow.
+	 * @return The pending growth.
+	 */
+	public int getPendingGrowth() {
+		return pendingGrowth;
+	}
+
+	/**
+	 * Gets the flag that indicates whether no game was started yet.
+	 * @return The new game flag.
+	 */
+	public boolean isNewGame() {
+		return isNewGame;
+	}
+
+	/**
+	 * Gets the flag that indicates whether the game is paused.
+	 * @return The paused flag.
+	 */
+	public boolean isPaused() {
+		return isPaused;
+	}
+
+	/**
+	 * Gets the flag that indicates whether the game is over.
+	 * @return The game over flag.
+	 */
+	public boolean isGameOver() {
+		return isGameOver;
+	}
+
+	/**
+	 * Gets the indices of the chunks of the board that hold tiles, in no
+	 * particular order.
+	 * @return The chunk indices. The array must not be changed.
+	 */
+	public int[] getChunkIndices() {
+		return chunkIndices;
+	}
+
+	/**
+	 * Gets the codes of the chunks in {@code getChunkIndices()}.
+	 * @return The chunk codes, as read by {@link Board#typeOf}. The arrays
+	 * must not be changed.
+	 */
+	public byte[][] getChunkCodes() {
+		return chunkCodes;
+	}
+
+}
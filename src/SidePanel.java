@@ -3,17 +3,20 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
 
 /**
  * The {@code SidePanel} class is responsible for displaying statistics and
- * controls to the player.
+ * controls to the player. The static text is drawn once into an image, and
+ * only the statistics are repainted, when the engine reports a change.
  * @author Miguel Bazan
  * @author Ricardo Licea
  *
  */
-public class SidePanel extends JPanel {
+public class SidePanel extends JPanel implements StatsListener {
 	
 	/**
 	 * Serial Version UID.
@@ -47,9 +50,11 @@ public class SidePanel extends JPanel {
 	public SidePanel(SnakeGame game) {
 		this.game = game;
 		
-		setPreferredSize(new Dimension(300, BoardPanel.ROW_COUNT *
-                        BoardPanel.TILE_SIZE));
+		setPreferredSize(new Dimension(300, Math.min(BoardPanel.ROW_COUNT,
+                        game.getBoard().getRowCount()) * BoardPanel.TILE_SIZE));
 		setBackground(Color.BLACK);
+		statsChanged(game.getScore(), game.getFruitsEaten(),
+				game.getNextFruitScore());
 	}
 	
 	private static final int STATISTICS_OFFSET = 150;
@@ -62,9 +67,67 @@ public class SidePanel extends JPanel {
 	
 	private static final int LARGE_OFFSET = 50;
 	
+	/**
+	 * The static content of the panel (title, labels, controls and fruit
+	 * legend), drawn once for the current size of the panel.
+	 */
+	private BufferedImage staticLayer;
+	
+	/**
+	 * The x coordinate of the statistics values, right after the widest
+	 * label.
+	 */
+	private int valueOffset;
+	
+	/**
+	 * The text of the statistics values, rebuilt only when they change.
+	 */
+	private volatile String score, fruitsEaten, nextFruitScore;
+	
+	/**
+	 * Updates the statistics values and repaints the part of the panel
+	 * that shows them. May be called from any thread.
+	 */
+	@Override
+	public void statsChanged(int score, int fruitsEaten,
+			int nextFruitScore) {
+		this.score = Integer.toString(score);
+		this.fruitsEaten = Integer.toString(fruitsEaten);
+		this.nextFruitScore = Integer.toString(nextFruitScore);
+		repaint(0, STATISTICS_OFFSET, getWidth(), 4 * MESSAGE_STRIDE);
+	}
+	
 	@Override
 	public void paintComponent(Graphics g) {
-		super.paintComponent(g);
+		/*
+		 * Draw the static content, then the statistics values over it.
+		 */
+		g.drawImage(getStaticLayer(), 0, 0, null);
+		g.setColor(Color.CYAN);
+		g.setFont(SMALL_FONT);
+		int drawY = STATISTICS_OFFSET;
+		g.drawString(score, valueOffset, drawY += MESSAGE_STRIDE);
+		g.drawString(fruitsEaten, valueOffset, drawY += MESSAGE_STRIDE);
+		g.drawString(nextFruitScore, valueOffset, drawY += MESSAGE_STRIDE);
+	}
+	
+	/**
+	 * Gets the image of the static content, drawing it again if the size
+	 * of the panel changed since it was last drawn.
+	 * @return The static content.
+	 */
+	private BufferedImage getStaticLayer() {
+		int width = Math.max(1, getWidth());
+		int height = Math.max(1, getHeight());
+		if(staticLayer != null && staticLayer.getWidth() == width
+				&& staticLayer.getHeight() == height) {
+			return staticLayer;
+		}
+		staticLayer = SpriteAtlas.createImage(width, height,
+				Transparency.OPAQUE);
+		Graphics g = staticLayer.getGraphics();
+		g.setColor(getBackground());
+		g.fillRect(0, 0, width, height);
 		
 		/*
 		 * Set the color to draw the font in to white.
@@ -75,7 +138,7 @@ public class SidePanel extends JPanel {
 		 * Draw the game name onto the window.
 		 */
 		g.setFont(LARGE_FONT);
-		g.drawString("Snake Game", getWidth() / 
+		g.drawString("Snake Game", width / 
                         2 - g.getFontMetrics().stringWidth("Snake Game")
                                 / 2, 50);
 		
@@ -91,14 +154,15 @@ public class SidePanel extends JPanel {
 		 */
 		g.setFont(SMALL_FONT);
 		
-		//Draw the content for the statistics category.
+		//Draw the labels for the statistics category.
 		int drawY = STATISTICS_OFFSET;
-		g.drawString("Total Score: " + game.getScore(), 
-                        LARGE_OFFSET, drawY += MESSAGE_STRIDE);
-		g.drawString("Fruit Eaten: " + game.getFruitsEaten(), 
-                        LARGE_OFFSET, drawY += MESSAGE_STRIDE);
-		g.drawString("Extra Score: " + game.getNextFruitScore(),
-                        LARGE_OFFSET, drawY += MESSAGE_STRIDE);
+		g.drawString("Total Score: ", LARGE_OFFSET, drawY += MESSAGE_STRIDE);
+		g.drawString("Fruit Eaten: ", LARGE_OFFSET, drawY += MESSAGE_STRIDE);
+		g.drawString("Extra Score: ", LARGE_OFFSET, drawY += MESSAGE_STRIDE);
+		valueOffset = LARGE_OFFSET + Math.max(Math.max(
+				g.getFontMetrics().stringWidth("Total Score: "),
+				g.getFontMetrics().stringWidth("Fruit Eaten: ")),
+				g.getFontMetrics().stringWidth("Extra Score: "));
 		//Draw the content for the controls category.
 		drawY = CONTROLS_OFFSET;
 		g.drawString("Move Up: Up Arrowkey", LARGE_OFFSET, 
@@ -123,7 +187,8 @@ public class SidePanel extends JPanel {
                         drawY += MESSAGE_STRIDE);
                 g.drawString("Brown = Game Over.", LARGE_OFFSET,
                         drawY += MESSAGE_STRIDE);
-                
+		g.dispose();
+		return staticLayer;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,544 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code SlotStore} class keeps the saved games of every player in a
+ * single memory-mapped file, instead of one small file per player. The
+ * file is made of fixed-size pages:
+ * <ul>
+ * <li>a header page, with the number of slots and how many are used,</li>
+ * <li>two pages per slot, each holding the player's name and a game as
+ * written by {@link GameFile},</li>
+ * <li>an index, an open-addressed hash table from the hash of a name to
+ * its slot.</li>
+ * </ul>
+ * Saving overwrites the older of the slot's two pages in place and loading
+ * reads the newer valid one, so a save torn by a crash leaves the previous
+ * game readable. Neither creates a file nor walks a directory: both are a
+ * hash lookup and a page copy. When every slot is used, the file is grown
+ * to twice as many slots and the index is rebuilt after them.
+ * <p>
+ * A store is not thread safe; the {@link SaveWorker} only uses it from its
+ * thread.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SlotStore {
+
+	/**
+	 * The first four bytes of a store file ("SNKS").
+	 */
+	private static final int MAGIC = 0x534E4B53;
+
+	/**
+	 * The version of the file format.
+	 */
+	private static final short VERSION = 1;
+
+	/**
+	 * The size of every page, in bytes.
+	 */
+	public static final int PAGE_SIZE = 4096;
+
+	/**
+	 * The most bytes of a name, encoded as UTF-8.
+	 */
+	public static final int MAX_NAME_BYTES = 62;
+
+	/**
+	 * The size of the header of a slot page: the sequence number, the
+	 * length and bytes of the name, the length of the game and the CRC-32
+	 * of all of them.
+	 */
+	private static final int PAGE_HEADER_SIZE = 8 + 2 + MAX_NAME_BYTES + 4 + 4;
+
+	/**
+	 * The most bytes of a game a page holds.
+	 */
+	public static final int MAX_GAME_BYTES = PAGE_SIZE - PAGE_HEADER_SIZE;
+
+	/**
+	 * The size of an entry of the index: the hash of the name and the slot
+	 * plus one, or zero for an empty entry.
+	 */
+	private static final int ENTRY_SIZE = 8;
+
+	/**
+	 * The number of slots of a new store.
+	 */
+	private static final int INITIAL_SLOTS = 256;
+
+	/**
+	 * The most slots a store can have, so that it can be mapped at once.
+	 */
+	private static final int MAX_SLOTS = 1 << 17;
+
+	/**
+	 * The position of the number of slots in the header page.
+	 */
+	private static final int CAPACITY_POSITION = 12;
+
+	/**
+	 * The position of the number of slots used in the header page.
+	 */
+	private static final int USED_POSITION = 16;
+
+	/**
+	 * The file of the store.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The mapping of the whole file.
+	 */
+	private MappedByteBuffer map;
+
+	/**
+	 * The number of slots.
+	 */
+	private int capacity;
+
+	/**
+	 * The number of slots given to a player.
+	 */
+	private int used;
+
+	/**
+	 * Computes the checksums of pages.
+	 */
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Opens a store, creating it if the file does not exist.
+	 * @param file The file of the store.
+	 * @throws IOException If the file could not be opened, or is not a
+	 * store.
+	 */
+	public SlotStore(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if(channel.size() == 0) {
+				create();
+			} else {
+				open();
+			}
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Lays out an empty store in the new file.
+	 * @throws IOException If the file could not be written.
+	 */
+	private void create() throws IOException {
+		this.capacity = INITIAL_SLOTS;
+		this.used = 0;
+		this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				fileSize(capacity));
+		map.putInt(0, MAGIC);
+		map.putShort(4, VERSION);
+		map.putInt(8, PAGE_SIZE);
+		map.putInt(CAPACITY_POSITION, capacity);
+		map.putInt(USED_POSITION, used);
+		map.force();
+	}
+
+	/**
+	 * Checks and maps an existing store.
+	 * @throws IOException If the file is not a store.
+	 */
+	private void open() throws IOException {
+		if(channel.size() < PAGE_SIZE) {
+			throw new IOException("The save store is truncated.");
+		}
+		ByteBuffer header = ByteBuffer.allocate(USED_POSITION + 4);
+		channel.read(header, 0);
+		if(header.getInt(0) != MAGIC || header.getShort(4) != VERSION
+				|| header.getInt(8) != PAGE_SIZE) {
+			throw new IOException("The file is not a save store.");
+		}
+		this.capacity = header.getInt(CAPACITY_POSITION);
+		this.used = header.getInt(USED_POSITION);
+		if(capacity <= 0 || capacity > MAX_SLOTS || used < 0
+				|| used > capacity || channel.size() < fileSize(capacity)) {
+			throw new IOException("The save store is corrupt.");
+		}
+		this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				fileSize(capacity));
+	}
+
+	/**
+	 * Writes a game to the slot of a player, taking a free slot the first
+	 * time, and flushes it to the disk.
+	 * @param name The name of the player.
+	 * @param game The game, as encoded by {@link GameFile}, from its
+	 * position to its limit. Its position is not changed.
+	 * @return Whether the game was written, or false if it does not fit in
+	 * a page.
+	 * @throws IOException If the name is too long, or the store is full.
+	 */
+	public boolean put(String name, ByteBuffer game) throws IOException {
+		if(game.remaining() > MAX_GAME_BYTES) {
+			return false;
+		}
+		byte[] nameBytes = encodeName(name);
+		int hash = hash(nameBytes);
+		int slot = find(nameBytes, hash);
+		if(slot < 0) {
+			slot = allocate(nameBytes, hash);
+		}
+		writePage(slot, nameBytes, game);
+		map.force();
+		return true;
+	}
+
+	/**
+	 * Reads the game in the slot of a player.
+	 * @param name The name of the player.
+	 * @return The game, as encoded by {@link GameFile}, or null if the
+	 * player has no slot, or its slot was cleared.
+	 * @throws IOException If the name is too long.
+	 */
+	public ByteBuffer get(String name) throws IOException {
+		byte[] nameBytes = encodeName(name);
+		int slot = find(nameBytes, hash(nameBytes));
+		if(slot < 0) {
+			return null;
+		}
+		int page = currentPage(slot);
+		if(page < 0) {
+			return null;
+		}
+		int length = map.getInt(page + 8 + 2 + MAX_NAME_BYTES);
+		if(length == 0) {
+			return null;
+		}
+		ByteBuffer game = ByteBuffer.allocate(length);
+		ByteBuffer source = map.duplicate();
+		source.position(page + PAGE_HEADER_SIZE).limit(
+				page + PAGE_HEADER_SIZE + length);
+		game.put(source);
+		game.flip();
+		return game;
+	}
+
+	/**
+	 * Empties the slot of a player, if it has one, so that {@code get}
+	 * returns null until the next {@code put}.
+	 * @param name The name of the player.
+	 * @throws IOException If the name is too long.
+	 */
+	public void clear(String name) throws IOException {
+		byte[] nameBytes = encodeName(name);
+		int slot = find(nameBytes, hash(nameBytes));
+		if(slot >= 0) {
+			writePage(slot, nameBytes, ByteBuffer.allocate(0));
+			map.force();
+		}
+	}
+
+	/**
+	 * Gets the number of slots given to players.
+	 * @return The slots used.
+	 */
+	public int getUsedSlots() {
+		return used;
+	}
+
+	/**
+	 * Flushes and closes the file.
+	 * @throws IOException If the file could not be closed.
+	 */
+	public void close() throws IOException {
+		map.force();
+		channel.close();
+	}
+
+	/**
+	 * Looks up the slot of a player in the index.
+	 * @param nameBytes The name of the player.
+	 * @param hash The hash of the name.
+	 * @return The slot, or -1 if the player has none.
+	 */
+	private int find(byte[] nameBytes, int hash) {
+		int mask = tableSize(capacity) - 1;
+		int base = indexPosition(capacity);
+		for(int i = hash & mask; ; i = (i + 1) & mask) {
+			int entry = base + i * ENTRY_SIZE;
+			int slot = map.getInt(entry + 4) - 1;
+			if(slot < 0) {
+				return -1;
+			}
+			if(map.getInt(entry) == hash && slot < used
+					&& hasName(slot, nameBytes)) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Gives the next free slot to a player, growing the store if needed.
+	 * The slot is counted as used before it is indexed, so that a crash in
+	 * between wastes it instead of handing it out twice.
+	 * @param nameBytes The name of the player.
+	 * @param hash The hash of the name.
+	 * @return The slot.
+	 * @throws IOException If the store is full.
+	 */
+	private int allocate(byte[] nameBytes, int hash) throws IOException {
+		if(used == capacity) {
+			grow();
+		}
+		int slot = used++;
+		map.putInt(USED_POSITION, used);
+		map.putLong(pagePosition(slot, 0), 0L);
+		map.putLong(pagePosition(slot, 1), 0L);
+		insert(indexPosition(capacity), tableSize(capacity) - 1, hash, slot);
+		return slot;
+	}
+
+	/**
+	 * Doubles the number of slots. The file is extended and the new index
+	 * is written past the new slots before the header is changed, so that
+	 * a crash in between leaves the old store intact.
+	 * @throws IOException If the store is full, or could not be extended.
+	 */
+	private void grow() throws IOException {
+		if(capacity >= MAX_SLOTS) {
+			throw new IOException("The save store is full.");
+		}
+		int newCapacity = capacity * 2;
+		MappedByteBuffer grown = channel.map(FileChannel.MapMode.READ_WRITE,
+				0, fileSize(newCapacity));
+		int base = indexPosition(newCapacity);
+		int mask = tableSize(newCapacity) - 1;
+		for(int i = 0; i <= mask; i++) {
+			grown.putLong(base + i * ENTRY_SIZE, 0L);
+		}
+		this.map = grown;
+		for(int slot = 0; slot < used; slot++) {
+			int page = currentPage(slot);
+			if(page >= 0) {
+				insert(base, mask, hash(readName(page)), slot);
+			}
+		}
+		map.force();
+		map.putInt(CAPACITY_POSITION, newCapacity);
+		map.force();
+		this.capacity = newCapacity;
+	}
+
+	/**
+	 * Adds an entry to an index, in the first empty entry from the hash.
+	 * @param base The position of the index.
+	 * @param mask The number of entries of the index minus one.
+	 * @param hash The hash of the name.
+	 * @param slot The slot.
+	 */
+	private void insert(int base, int mask, int hash, int slot) {
+		int i = hash & mask;
+		while(map.getInt(base + i * ENTRY_SIZE + 4) != 0) {
+			i = (i + 1) & mask;
+		}
+		map.putInt(base + i * ENTRY_SIZE, hash);
+		map.putInt(base + i * ENTRY_SIZE + 4, slot + 1);
+	}
+
+	/**
+	 * Overwrites the older page of a slot with a newer game.
+	 * @param slot The slot.
+	 * @param nameBytes The name of the player.
+	 * @param game The game, from its position to its limit.
+	 */
+	private void writePage(int slot, byte[] nameBytes, ByteBuffer game) {
+		int current = currentPage(slot);
+		long sequence = current < 0 ? 1L : map.getLong(current) + 1;
+		int page = pagePosition(slot,
+				current == pagePosition(slot, 0) ? 1 : 0);
+		ByteBuffer target = map.duplicate();
+		target.position(page);
+		target.putLong(sequence);
+		target.putShort((short)nameBytes.length);
+		target.put(nameBytes);
+		target.position(page + 8 + 2 + MAX_NAME_BYTES);
+		target.putInt(game.remaining());
+		target.putInt(checksum(page, game.remaining(), game.duplicate()));
+		target.put(game.duplicate());
+	}
+
+	/**
+	 * Finds the page of a slot holding the newest game.
+	 * @param slot The slot.
+	 * @return The position of the newest valid page, or -1 if neither page
+	 * was ever fully written.
+	 */
+	private int currentPage(int slot) {
+		int first = pagePosition(slot, 0);
+		int second = pagePosition(slot, 1);
+		boolean firstValid = isValid(first);
+		boolean secondValid = isValid(second);
+		if(firstValid && secondValid) {
+			return map.getLong(first) >= map.getLong(second) ? first : second;
+		}
+		return firstValid ? first : secondValid ? second : -1;
+	}
+
+	/**
+	 * Checks that a page was fully written.
+	 * @param page The position of the page.
+	 * @return Whether the page was written and its checksum matches.
+	 */
+	private boolean isValid(int page) {
+		if(map.getLong(page) <= 0) {
+			return false;
+		}
+		int length = map.getInt(page + 8 + 2 + MAX_NAME_BYTES);
+		if(length < 0 || length > MAX_GAME_BYTES) {
+			return false;
+		}
+		ByteBuffer game = map.duplicate();
+		game.position(page + PAGE_HEADER_SIZE).limit(
+				page + PAGE_HEADER_SIZE + length);
+		return map.getInt(page + 8 + 2 + MAX_NAME_BYTES + 4)
+				== checksum(page, length, game);
+	}
+
+	/**
+	 * Computes the checksum of a page, over its header and a game.
+	 * @param page The position of the page, whose header is written.
+	 * @param length The length of the game.
+	 * @param game The game, from its position to its limit, which is
+	 * consumed.
+	 * @return The CRC-32.
+	 */
+	private int checksum(int page, int length, ByteBuffer game) {
+		ByteBuffer header = map.duplicate();
+		header.position(page).limit(page + 8 + 2 + MAX_NAME_BYTES + 4);
+		crc.reset();
+		crc.update(header);
+		crc.update(game);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Checks whether the newest page of a slot belongs to a player.
+	 * @param slot The slot.
+	 * @param nameBytes The name of the player.
+	 * @return Whether the names match.
+	 */
+	private boolean hasName(int slot, byte[] nameBytes) {
+		int page = currentPage(slot);
+		if(page < 0 || map.getShort(page + 8) != nameBytes.length) {
+			return false;
+		}
+		for(int i = 0; i < nameBytes.length; i++) {
+			if(map.get(page + 10 + i) != nameBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the name of the player from a page.
+	 * @param page The position of the page.
+	 * @return The name, as UTF-8.
+	 */
+	private byte[] readName(int page) {
+		byte[] nameBytes = new byte[map.getShort(page + 8)];
+		for(int i = 0; i < nameBytes.length; i++) {
+			nameBytes[i] = map.get(page + 10 + i);
+		}
+		return nameBytes;
+	}
+
+	/**
+	 * Checks whether a player's name can be given a slot.
+	 * @param name The name.
+	 * @return Whether the name has 1 to {@code MAX_NAME_BYTES} bytes, as
+	 * UTF-8.
+	 */
+	public static boolean canHold(String name) {
+		int length = name.getBytes(StandardCharsets.UTF_8).length;
+		return length > 0 && length <= MAX_NAME_BYTES;
+	}
+
+	/**
+	 * Encodes the name of a player.
+	 * @param name The name.
+	 * @return The name, as UTF-8.
+	 * @throws IOException If the name is empty or too long.
+	 */
+	private static byte[] encodeName(String name) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if(nameBytes.length == 0 || nameBytes.length > MAX_NAME_BYTES) {
+			throw new IOException("The name must have 1 to "
+					+ MAX_NAME_BYTES + " bytes.");
+		}
+		return nameBytes;
+	}
+
+	/**
+	 * Hashes the name of a player.
+	 * @param nameBytes The name, as UTF-8.
+	 * @return The hash, with its bits mixed so that similar names spread
+	 * over the index.
+	 */
+	private static int hash(byte[] nameBytes) {
+		int hash = 0;
+		for(int i = 0; i < nameBytes.length; i++) {
+			hash = hash * 31 + nameBytes[i];
+		}
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Gets the position of a page of a slot.
+	 * @param slot The slot.
+	 * @param copy Which of the two pages of the slot, 0 or 1.
+	 * @return The position in the file.
+	 */
+	private static int pagePosition(int slot, int copy) {
+		return PAGE_SIZE + (slot * 2 + copy) * PAGE_SIZE;
+	}
+
+	/**
+	 * Gets the position of the index.
+	 * @param capacity The number of slots.
+	 * @return The position in the file, right after the slots.
+	 */
+	private static int indexPosition(int capacity) {
+		return pagePosition(capacity, 0);
+	}
+
+	/**
+	 * Gets the number of entries of the index, twice the number of slots
+	 * so that lookups stop at an empty entry after a probe or two.
+	 * @param capacity The number of slots.
+	 * @return The number of entries, a power of two.
+	 */
+	private static int tableSize(int capacity) {
+		return Integer.highestOneBit(capacity * 2 - 1) << 1;
+	}
+
+	/**
+	 * Gets the size of a store file.
+	 * @param capacity The number of slots.
+	 * @return The size in bytes.
+	 */
+	private static long fileSize(int capacity) {
+		return indexPosition(capacity) + (long)tableSize(capacity) * ENTRY_SIZE;
+	}
+
+}
@@ -0,0 +1,597 @@
+import java.util.Arrays;
+
+/**
+ * The {@code SnakeBatch} class runs many games at once, in lockstep, for
+ * training agents. It follows the rules of {@link SnakeEngine} exactly, so
+ * that a game seeded and played the same way scores the same in both, but
+ * keeps the state of every game in flat arrays indexed by game instead of
+ * one engine each:
+ * <ul>
+ * <li>the tiles of every board, one code per tile as read by
+ * {@link Board#typeOf},</li>
+ * <li>a bitset of the occupied tiles of every board, to pick where fruits
+ * spawn,</li>
+ * <li>a ring of the cells of every snake,</li>
+ * <li>the direction, score, fruits eaten, extra fruit score, pending
+ * growth and random number generator state of every game.</li>
+ * </ul>
+ * {@code step} advances every game by one tick in one pass over these
+ * arrays, without allocating. A game that ends is started again at once
+ * from its own random number generator, like {@link SnakeEngine#reset()},
+ * and flagged as done for that tick.
+ * <p>
+ * Game {@code g} holds the tile {@code (x, y)} at index
+ * {@code g * getTileCount() + y * getColCount() + x} of {@code getTiles()}.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SnakeBatch {
+
+	/**
+	 * The multiplier of the random number generator, the same as
+	 * {@link GameRandom}'s.
+	 */
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+
+	/**
+	 * The increment of the random number generator.
+	 */
+	private static final long ADDEND = 0xBL;
+
+	/**
+	 * The mask of the 48 bits of state of the random number generator.
+	 */
+	private static final long MASK = (1L << 48) - 1;
+
+	/**
+	 * The code of a red fruit.
+	 */
+	private static final byte FRUIT = Board.codeOf(TileType.Fruit);
+
+	/**
+	 * The code of the head of a snake.
+	 */
+	private static final byte HEAD = Board.codeOf(TileType.SnakeHead);
+
+	/**
+	 * The code of the body of a snake.
+	 */
+	private static final byte BODY = Board.codeOf(TileType.SnakeBody);
+
+	/**
+	 * The code of a green fruit.
+	 */
+	private static final byte GREEN = Board.codeOf(TileType.FruitGreen);
+
+	/**
+	 * The code of a blue fruit.
+	 */
+	private static final byte BLUE = Board.codeOf(TileType.FruitBlue);
+
+	/**
+	 * The code of a bad fruit.
+	 */
+	private static final byte BAD = Board.codeOf(TileType.badFruit);
+
+	/**
+	 * The code of the direction North, the direction of a new game.
+	 */
+	private static final int NORTH = Direction.North.ordinal();
+
+	/**
+	 * The number of games.
+	 */
+	private final int gameCount;
+
+	/**
+	 * The number of columns on each board.
+	 */
+	private final int colCount;
+
+	/**
+	 * The number of rows on each board.
+	 */
+	private final int rowCount;
+
+	/**
+	 * The number of tiles on each board.
+	 */
+	private final int tileCount;
+
+	/**
+	 * The number of words of the bitset of each board.
+	 */
+	private final int wordCount;
+
+	/**
+	 * The tiles of every board.
+	 */
+	private final byte[] tiles;
+
+	/**
+	 * The occupied tiles of every board, {@code wordCount} words per board.
+	 */
+	private final long[] occupied;
+
+	/**
+	 * The number of occupied tiles on each board.
+	 */
+	private final int[] occupiedCount;
+
+	/**
+	 * The cells of every snake, in a ring of {@code tileCount} cells per
+	 * game.
+	 */
+	private final int[] snakes;
+
+	/**
+	 * The position of the tail of each snake in its ring.
+	 */
+	private final int[] tails;
+
+	/**
+	 * The number of cells of each snake.
+	 */
+	private final int[] lengths;
+
+	/**
+	 * The direction of each snake, as a {@link Direction} ordinal.
+	 */
+	private final int[] directions;
+
+	/**
+	 * The number of segments each snake still has to grow.
+	 */
+	private final int[] pendingGrowth;
+
+	/**
+	 * The score of each game.
+	 */
+	private final int[] scores;
+
+	/**
+	 * The number of fruits eaten in each game.
+	 */
+	private final int[] fruitsEaten;
+
+	/**
+	 * The extra score of the next fruit of each game.
+	 */
+	private final int[] nextFruitScores;
+
+	/**
+	 * The state of the random number generator of each game.
+	 */
+	private final long[] randomStates;
+
+	/**
+	 * The change of score of each game in the last tick.
+	 */
+	private final int[] rewards;
+
+	/**
+	 * Whether each game ended in the last tick.
+	 */
+	private final boolean[] dones;
+
+	/**
+	 * The score each game ended with, the last time it ended.
+	 */
+	private final int[] finalScores;
+
+	/**
+	 * Creates a new SnakeBatch. The games must be started with
+	 * {@code reset} before they are stepped.
+	 * @param gameCount The number of games.
+	 * @param colCount The number of columns on each board.
+	 * @param rowCount The number of rows on each board.
+	 * @throws IllegalArgumentException If there are no games, a board is
+	 * empty, or the boards do not fit in one array.
+	 */
+	public SnakeBatch(int gameCount, int colCount, int rowCount) {
+		long tiles = (long)colCount * rowCount;
+		if(gameCount <= 0 || colCount <= 0 || rowCount <= 0
+				|| tiles * gameCount > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Cannot run " + gameCount
+					+ " games on " + colCount + "x" + rowCount + " boards.");
+		}
+		this.gameCount = gameCount;
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.tileCount = (int)tiles;
+		this.wordCount = (tileCount + 63) >>> 6;
+		this.tiles = new byte[gameCount * tileCount];
+		this.occupied = new long[gameCount * wordCount];
+		this.occupiedCount = new int[gameCount];
+		this.snakes = new int[gameCount * tileCount];
+		this.tails = new int[gameCount];
+		this.lengths = new int[gameCount];
+		this.directions = new int[gameCount];
+		this.pendingGrowth = new int[gameCount];
+		this.scores = new int[gameCount];
+		this.fruitsEaten = new int[gameCount];
+		this.nextFruitScores = new int[gameCount];
+		this.randomStates = new long[gameCount];
+		this.rewards = new int[gameCount];
+		this.dones = new boolean[gameCount];
+		this.finalScores = new int[gameCount];
+	}
+
+	/**
+	 * Starts every game from a seed.
+	 * @param seeds The seed of each game.
+	 */
+	public void reset(long[] seeds) {
+		for(int game = 0; game < gameCount; game++) {
+			reset(game, seeds[game]);
+		}
+	}
+
+	/**
+	 * Starts a game from a seed, like {@link SnakeEngine#reset(long)}.
+	 * @param game The game.
+	 * @param seed The seed.
+	 */
+	public void reset(int game, long seed) {
+		randomStates[game] = (seed ^ MULTIPLIER) & MASK;
+		reset(game);
+	}
+
+	/**
+	 * Starts a game again, drawing from where its random number generator
+	 * left off, like {@link SnakeEngine#reset()}.
+	 * @param game The game.
+	 */
+	private void reset(int game) {
+		scores[game] = 0;
+		fruitsEaten[game] = 0;
+		pendingGrowth[game] = 0;
+		directions[game] = NORTH;
+		Arrays.fill(tiles, game * tileCount, (game + 1) * tileCount, (byte)0);
+		Arrays.fill(occupied, game * wordCount, (game + 1) * wordCount, 0L);
+		occupiedCount[game] = 0;
+
+		int head = rowCount / 2 * colCount + colCount / 2;
+		tails[game] = 0;
+		lengths[game] = 1;
+		snakes[game * tileCount] = head;
+		setTile(game, head, HEAD);
+
+		spawnFruit(game, FRUIT);
+		spawnFruit(game, BLUE);
+		spawnFruit(game, GREEN);
+		int badFruits = nextInt(game, SnakeEngine.MAX_BAD_FRUITS) + 1;
+		for(int i = 0; i < badFruits; i++) {
+			spawnFruit(game, BAD);
+		}
+	}
+
+	/**
+	 * Advances every game by one tick, like {@link SnakeEngine#step(Direction)}.
+	 * Games that end are started again.
+	 * @param actions The direction each snake turns to, as a
+	 * {@link Direction} ordinal. Any other value, or the direction the
+	 * snake is going in or its opposite, keeps it going straight.
+	 * @return The change of score of each game in this tick. The array is
+	 * reused by the next call.
+	 */
+	public int[] step(int[] actions) {
+		for(int game = 0; game < gameCount; game++) {
+			int action = actions[game];
+			int direction = directions[game];
+			if(action >= 0 && action < 4 && ((action ^ direction) & 1) != 0) {
+				directions[game] = action;
+			}
+			int oldScore = scores[game];
+			boolean isDead = step(game);
+			rewards[game] = scores[game] - oldScore;
+			dones[game] = isDead;
+			if(isDead) {
+				finalScores[game] = scores[game];
+				reset(game);
+			}
+		}
+		return rewards;
+	}
+
+	/**
+	 * Advances a game by one tick.
+	 * @param game The game.
+	 * @return Whether the snake died.
+	 */
+	private boolean step(int game) {
+		int base = game * tileCount;
+		int ring = game * tileCount;
+		int length = lengths[game];
+		int current = snakes[ring + (tails[game] + length - 1) % tileCount];
+
+		/*
+		 * Move the head, dying against a wall.
+		 */
+		int head = current;
+		int x = current % colCount;
+		switch(directions[game]) {
+		case 0:
+			if(head < colCount) {
+				return true;
+			}
+			head -= colCount;
+			break;
+		case 1:
+			if(x == colCount - 1) {
+				return true;
+			}
+			head++;
+			break;
+		case 2:
+			head += colCount;
+			if(head >= tileCount) {
+				return true;
+			}
+			break;
+		default:
+			if(x == 0) {
+				return true;
+			}
+			head--;
+			break;
+		}
+
+		/*
+		 * Move the tail unless the snake eats, is growing or is short.
+		 */
+		byte old = tiles[base + head];
+		if(old != FRUIT && old != GREEN && old != BLUE
+				&& length > SnakeEngine.MIN_SNAKE_LENGTH) {
+			if(pendingGrowth[game] > 0) {
+				pendingGrowth[game]--;
+			} else {
+				int tail = snakes[ring + tails[game]];
+				tails[game] = (tails[game] + 1) % tileCount;
+				lengths[game] = --length;
+				setTile(game, tail, (byte)0);
+				old = tiles[base + head];
+			}
+		}
+		if(old == BODY) {
+			return true;
+		}
+		setTile(game, current, BODY);
+		snakes[ring + (tails[game] + length) % tileCount] = head;
+		lengths[game] = length + 1;
+		setTile(game, head, HEAD);
+
+		/*
+		 * Score the fruit eaten, or let the extra score decay.
+		 */
+		if(old == FRUIT) {
+			fruitsEaten[game]++;
+			scores[game] += 50 + nextFruitScores[game];
+			spawnFruit(game, FRUIT);
+		} else if(old == BLUE) {
+			fruitsEaten[game]++;
+			scores[game] += 100 + nextFruitScores[game];
+			spawnFruit(game, BLUE);
+			pendingGrowth[game] += 1;
+		} else if(old == GREEN) {
+			fruitsEaten[game]++;
+			scores[game] += 200 + nextFruitScores[game];
+			spawnFruit(game, GREEN);
+			pendingGrowth[game] += 2;
+		} else if(old == BAD) {
+			return true;
+		} else if(nextFruitScores[game] > 10) {
+			nextFruitScores[game]--;
+		}
+		return false;
+	}
+
+	/**
+	 * Places a fruit on a random empty tile of a board, and sets the extra
+	 * score of the next fruit, like {@link SnakeEngine}.
+	 * @param game The game.
+	 * @param code The code of the fruit.
+	 */
+	private void spawnFruit(int game, byte code) {
+		if(code == FRUIT) {
+			nextFruitScores[game] = 50;
+		} else if(code == BLUE) {
+			nextFruitScores[game] = 100;
+		} else if(code == GREEN) {
+			nextFruitScores[game] = 200;
+		}
+		int free = tileCount - occupiedCount[game];
+		if(free == 0) {
+			return;
+		}
+
+		/*
+		 * Pick the n-th empty tile in row-major order, as Board does.
+		 */
+		int rank = nextInt(game, free);
+		int first = game * wordCount;
+		for(int w = 0; w < wordCount; w++) {
+			long empty = ~occupied[first + w];
+			if(w == wordCount - 1 && (tileCount & 63) != 0) {
+				empty &= (1L << tileCount) - 1;
+			}
+			int count = Long.bitCount(empty);
+			if(rank >= count) {
+				rank -= count;
+				continue;
+			}
+			for(; rank > 0; rank--) {
+				empty &= empty - 1;
+			}
+			setTile(game, (w << 6) + Long.numberOfTrailingZeros(empty), code);
+			return;
+		}
+	}
+
+	/**
+	 * Sets a tile of a board, keeping its bitset and count of occupied
+	 * tiles up to date.
+	 * @param game The game.
+	 * @param tile The index of the tile.
+	 * @param code The code of the tile, or 0 to empty it.
+	 */
+	private void setTile(int game, int tile, byte code) {
+		int index = game * tileCount + tile;
+		boolean wasEmpty = tiles[index] == 0;
+		tiles[index] = code;
+		if(wasEmpty != (code == 0)) {
+			int word = game * wordCount + (tile >>> 6);
+			occupied[word] ^= 1L << tile;
+			occupiedCount[game] += wasEmpty ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Draws a number from the random number generator of a game, exactly
+	 * as {@link java.util.Random#nextInt(int)} does.
+	 * @param game The game.
+	 * @param bound The upper bound, exclusive.
+	 * @return A number from 0 to {@code bound - 1}.
+	 */
+	private int nextInt(int game, int bound) {
+		int r = next31(game);
+		int m = bound - 1;
+		if((bound & m) == 0) {
+			return (int)((bound * (long)r) >> 31);
+		}
+		for(int u = r; u - (r = u % bound) + m < 0; u = next31(game)) {
+		}
+		return r;
+	}
+
+	/**
+	 * Advances the random number generator of a game.
+	 * @param game The game.
+	 * @return The next 31 random bits.
+	 */
+	private int next31(int game) {
+		long state = (randomStates[game] * MULTIPLIER + ADDEND) & MASK;
+		randomStates[game] = state;
+		return (int)(state >>> 17);
+	}
+
+	/**
+	 * Gets the number of games.
+	 * @return The number of games.
+	 */
+	public int getGameCount() {
+		return gameCount;
+	}
+
+	/**
+	 * Gets the number of columns on each board.
+	 * @return The number of columns.
+	 */
+	public int getColCount() {
+		return colCount;
+	}
+
+	/**
+	 * Gets the number of rows on each board.
+	 * @return The number of rows.
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Gets the number of tiles on each board.
+	 * @return The number of tiles.
+	 */
+	public int getTileCount() {
+		return tileCount;
+	}
+
+	/**
+	 * Gets the tiles of every board, {@code getTileCount()} per game.
+	 * @return The codes of the tiles, as read by {@link Board#typeOf}. The
+	 * array is live and must not be changed.
+	 */
+	public byte[] getTiles() {
+		return tiles;
+	}
+
+	/**
+	 * Gets whether each game ended in the last tick, and was started again.
+	 * @return The flags. The array is live and must not be changed.
+	 */
+	public boolean[] getDones() {
+		return dones;
+	}
+
+	/**
+	 * Gets the score of each game.
+	 * @return The scores. The array is live and must not be changed.
+	 */
+	public int[] getScores() {
+		return scores;
+	}
+
+	/**
+	 * Gets the score each game ended with, the last time it ended.
+	 * @return The final scores. The array is live and must not be changed.
+	 */
+	public int[] getFinalScores() {
+		return finalScores;
+	}
+
+	/**
+	 * Gets the number of fruits eaten in each game.
+	 * @return The fruits eaten. The array is live and must not be changed.
+	 */
+	public int[] getFruitsEaten() {
+		return fruitsEaten;
+	}
+
+	/**
+	 * Gets the extra score of the next fruit of each game.
+	 * @return The next fruit scores. The array is live and must not be
+	 * changed.
+	 */
+	public int[] getNextFruitScores() {
+		return nextFruitScores;
+	}
+
+	/**
+	 * Gets the direction of each snake.
+	 * @return The directions, as {@link Direction} ordinals. The array is
+	 * live and must not be changed.
+	 */
+	public int[] getDirections() {
+		return directions;
+	}
+
+	/**
+	 * Gets the number of cells of each snake.
+	 * @return The lengths. The array is live and must not be changed.
+	 */
+	public int[] getLengths() {
+		return lengths;
+	}
+
+	/**
+	 * Gets the cell of the head of a snake.
+	 * @param game The game.
+	 * @return The index of the tile of the head.
+	 */
+	public int getHead(int game) {
+		return snakes[game * tileCount
+				+ (tails[game] + lengths[game] - 1) % tileCount];
+	}
+
+	/**
+	 * Gets the state of the random number generator of a game.
+	 * @param game The game.
+	 * @return The state, as taken by {@link GameRandom#setState}.
+	 */
+	public long getRandomState(int game) {
+		return randomStates[game];
+	}
+
+}
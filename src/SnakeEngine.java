@@ -0,0 +1,690 @@
+
+import java.awt.Point;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The {@code SnakeEngine} class holds the rules of the game. It owns the
+ * board, the snake, the queued directions and the score, and advances the
+ * game one tick at a time through {@code step}. It does not depend on Swing
+ * or on any timer, so games can be stepped as fast as the CPU allows.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SnakeEngine {
+
+	/**
+	 * The minimum length of the snake. This allows the snake to grow right
+	 * when the game starts, so that we're not just a head moving around on
+	 * the board.
+	 */
+	public static final int MIN_SNAKE_LENGTH = 5;
+
+	/**
+	 * The maximum number of directions that we can have polled in the
+	 * direction list.
+	 */
+	public static final int MAX_DIRECTIONS = 3;
+
+	/**
+	 * The initial capacity of the snake ring on boards too large to size it
+	 * to every tile up front.
+	 */
+	private static final int INITIAL_SNAKE_CAPACITY = 1 << 16;
+
+	/**
+	 * The maximum number of bad fruits spawned when a game starts.
+	 */
+	static final int MAX_BAD_FRUITS = 8;
+
+	/**
+	 * The board the game is played on.
+	 */
+	private final Board board;
+
+	/**
+	 * The random number generator (used for spawning fruits). It is the
+	 * only source of randomness of the game.
+	 */
+	private final GameRandom random;
+
+	/**
+	 * The ring buffer that contains the cells of the snake.
+	 */
+	private final SnakeRing snake;
+
+	/**
+	 * The queued directions, stored as a small ring so that steering the
+	 * snake does not allocate.
+	 */
+	private final Direction[] directions;
+
+	/**
+	 * The position of the first queued direction.
+	 */
+	private int directionHead;
+
+	/**
+	 * The number of queued directions.
+	 */
+	private int directionCount;
+
+	/**
+	 * The number of extra segments the snake still has to grow. While it
+	 * is above zero the tail is kept instead of removed.
+	 */
+	private int pendingGrowth;
+
+	/**
+	 * The packed index of the head before the last tick, or -1.
+	 */
+	private long previousHead;
+
+	/**
+	 * The packed index of the tail removed during the last tick, or -1 if
+	 * the tail was kept.
+	 */
+	private long previousTail;
+
+	/**
+	 * The packed index of the fruit spawned during the last tick, or -1.
+	 */
+	private long lastSpawn = -1;
+
+	/**
+	 * The packed index the next fruit is spawned at instead of a random
+	 * tile, or -1. Used to replay a recorded game.
+	 */
+	private long forcedSpawn = -1;
+
+	/**
+	 * Whether or not the game is over.
+	 */
+	private boolean isGameOver;
+
+	/**
+	 * The current score.
+	 */
+	private int score;
+
+	/**
+	 * The number of fruits that we've eaten.
+	 */
+	private int fruitsEaten;
+
+	/**
+	 * The number of points that the next fruit will award us.
+	 */
+	private int nextFruitScore;
+
+	/**
+	 * The listener notified when the statistics change, or null.
+	 */
+	private StatsListener statsListener;
+
+	/**
+	 * Creates a new SnakeEngine instance with an empty board.
+	 * @param colCount The number of columns on the board.
+	 * @param rowCount The number of rows on the board.
+	 */
+	public SnakeEngine(int colCount, int rowCount) {
+		this.board = new Board(colCount, rowCount);
+		this.random = new GameRandom();
+		this.snake = new SnakeRing((int)Math.min(board.getTileCount(),
+				INITIAL_SNAKE_CAPACITY), board.getTileCount());
+		this.directions = new Direction[MAX_DIRECTIONS];
+	}
+
+	/**
+	 * Seeds the random number generator and starts a new game. Two engines
+	 * of the same size reset with the same seed and given the same turns
+	 * at the same ticks play exactly the same game.
+	 * @param seed The seed.
+	 */
+	public void reset(long seed) {
+		random.setSeed(seed);
+		reset();
+	}
+
+	/**
+	 * Resets the game's variables to their default states and starts a new
+	 * game.
+	 */
+	public void reset() {
+		/*
+		 * Reset the score statistics. (Note that nextFruitScore is reset in
+		 * the spawnFruit function later on).
+		 */
+		this.score = 0;
+		this.fruitsEaten = 0;
+		this.isGameOver = false;
+		this.pendingGrowth = 0;
+
+		/*
+		 * Create the head at the center of the board, and clear the snake,
+		 * the board and the directions.
+		 */
+		long head = (long)(board.getRowCount() / 2) * board.getColCount()
+				+ board.getColCount() / 2;
+		snake.clear();
+		snake.pushHead(head);
+		previousHead = head;
+		previousTail = -1;
+		board.clear();
+		board.setTile(head, TileType.SnakeHead);
+
+		/*
+		 * North is the default direction.
+		 */
+		directionHead = 0;
+		directionCount = 1;
+		directions[0] = Direction.North;
+
+		/*
+		 * Spawn one fruit of each kind, and a random number of bad fruits.
+		 */
+		spawnFruit(TileType.Fruit);
+		spawnFruit(TileType.FruitBlue);
+		spawnFruit(TileType.FruitGreen);
+		int badFruits = random.nextInt(MAX_BAD_FRUITS) + 1;
+		for(int i = 0; i < badFruits; i++) {
+			spawnFruit(TileType.badFruit);
+		}
+		fireStatsChanged();
+	}
+
+	/**
+	 * Queues a direction for the snake. The direction is only queued if
+	 * the queue is not full and the most recently queued direction is
+	 * adjacent to it (neither the same nor the opposite direction).
+	 * @param direction The direction to queue.
+	 * @return Whether or not the direction was queued.
+	 */
+	public boolean queueDirection(Direction direction) {
+		if(directionCount >= MAX_DIRECTIONS) {
+			return false;
+		}
+		Direction last = directionCount == 0 ? null
+				: directions[(directionHead + directionCount - 1)
+						% MAX_DIRECTIONS];
+		if(last == direction || last == direction.opposite()) {
+			return false;
+		}
+		directions[(directionHead + directionCount) % MAX_DIRECTIONS]
+				= direction;
+		directionCount++;
+		return true;
+	}
+
+	/**
+	 * Turns the snake to face the given direction, unless that would
+	 * reverse it onto itself, and advances the game by one tick. Any
+	 * directions queued through {@code queueDirection} are discarded.
+	 * @param direction The direction to move in.
+	 * @return The tile that the head collided with.
+	 */
+	public TileType step(Direction direction) {
+		Direction current = getDirection();
+		if(current == null || direction != current
+				&& direction != current.opposite()) {
+			directionHead = 0;
+			directionCount = 1;
+			directions[0] = direction;
+		}
+		return step();
+	}
+
+	/**
+	 * Advances the game by one tick. Nothing happens once the game is over.
+	 * @return The tile that the head collided with. A collision with a wall
+	 * is reported as {@code SnakeBody}.
+	 */
+	public TileType step() {
+		if(isGameOver) {
+			return null;
+		}
+		int oldScore = score;
+		int oldFruitsEaten = fruitsEaten;
+		int oldNextFruitScore = nextFruitScore;
+		lastSpawn = -1;
+
+		/*
+		 * Gets the type of tile that the head of the snake collided with. If
+		 * the snake hit a wall, SnakeBody will be returned, as both
+		 * conditions are handled identically.
+		 */
+		TileType collision = updateSnake();
+
+		/*
+		 * Here we handle the different possible collisions.
+		 *
+		 * Fruit: If we collided with a fruit, we increment the number of
+		 * fruits that we've eaten, update the score, and spawn a new fruit.
+		 *
+		 * SnakeBody and badFruit: If we collided with our tail (or a wall)
+		 * or ate a bad fruit, we flag that the game is over.
+		 *
+		 * If no collision occurred, we simply decrement the number of
+		 * points that the next fruit will give us if it's high enough. This
+		 * adds a bit of skill to the game as collecting fruits more quickly
+		 * will yield a higher score.
+		 */
+		if(collision == TileType.Fruit) {
+			fruitsEaten++;
+			score += 50 + nextFruitScore;
+			spawnFruit(TileType.Fruit);
+
+		} else if(collision == TileType.FruitBlue) {
+			fruitsEaten++;
+			score += 100 + nextFruitScore;
+			spawnFruit(TileType.FruitBlue);
+			pendingGrowth += 1;
+
+		} else if(collision == TileType.FruitGreen) {
+			fruitsEaten++;
+			score += 200 + nextFruitScore;
+			spawnFruit(TileType.FruitGreen);
+			pendingGrowth += 2;
+
+		} else if(collision == TileType.SnakeBody) {
+			isGameOver = true;
+
+		} else if(collision == TileType.badFruit) {
+			isGameOver = true;
+
+		} else if(nextFruitScore > 10) {
+			nextFruitScore--;
+		}
+		if(score != oldScore || fruitsEaten != oldFruitsEaten
+				|| nextFruitScore != oldNextFruitScore) {
+			fireStatsChanged();
+		}
+		return collision;
+	}
+
+	/**
+	 * Updates the snake's position and size.
+	 * @return Tile tile that the head moved into.
+	 */
+	private TileType updateSnake() {
+		/*
+		 * Here we peek at the next direction rather than polling it. While
+		 * not game breaking, polling the direction here causes a small bug
+		 * where the snake's direction will change after a game over (though
+		 * it will not move).
+		 */
+		Direction direction = directions[directionHead];
+		previousHead = snake.peekHead();
+		previousTail = -1;
+
+		/*
+		 * Here we calculate the cell that the snake's head will be at after
+		 * the update. If the snake would move out of bounds ('hit' a wall),
+		 * we can just return that it's collided with itself, as both cases
+		 * are handled identically.
+		 */
+		int colCount = board.getColCount();
+		long head = snake.peekHead();
+		long x = head % colCount;
+		switch(direction) {
+		case North:
+			if(head < colCount) {
+				return TileType.SnakeBody; //Pretend we collided with our body.
+			}
+			head -= colCount;
+			break;
+
+		case South:
+			head += colCount;
+			if(head >= board.getTileCount()) {
+				return TileType.SnakeBody;
+			}
+			break;
+
+		case West:
+			if(x == 0) {
+				return TileType.SnakeBody;
+			}
+			head--;
+			break;
+
+		case East:
+			if(x == colCount - 1) {
+				return TileType.SnakeBody;
+			}
+			head++;
+			break;
+		}
+
+		/*
+		 * Here we get the tile that was located at the new head position and
+		 * remove the tail from of the snake and the board if the snake is
+		 * long enough, and the tile it moved onto is not a fruit. If the
+		 * snake still has to grow from a blue or green fruit, the tail is
+		 * kept instead.
+		 *
+		 * If the tail was removed, we need to retrieve the old tile again
+		 * incase the tile we hit was the tail piece that was just removed
+		 * to prevent a false game over.
+		 */
+		TileType old = board.getTile(head);
+		if(old != TileType.Fruit && old != TileType.FruitGreen
+				&& old != TileType.FruitBlue
+				&& snake.size() > MIN_SNAKE_LENGTH) {
+			if(pendingGrowth > 0) {
+				pendingGrowth--;
+			} else {
+				previousTail = snake.popTail();
+				board.setTile(previousTail, null);
+				old = board.getTile(head);
+			}
+		}
+
+		/*
+		 * Update the snake's position on the board if we didn't collide with
+		 * our tail:
+		 *
+		 * 1. Set the old head position to a body tile.
+		 * 2. Add the new head to the snake.
+		 * 3. Set the new head position to a head tile.
+		 *
+		 * If more than one direction is in the queue, poll it to read new
+		 * input.
+		 */
+		if(old != TileType.SnakeBody) {
+			board.setTile(snake.peekHead(), TileType.SnakeBody);
+			snake.pushHead(head);
+			board.setTile(head, TileType.SnakeHead);
+			if(directionCount > 1) {
+				directionHead = (directionHead + 1) % MAX_DIRECTIONS;
+				directionCount--;
+			}
+		}
+
+		return old;
+	}
+
+	/**
+	 * Spawns a new fruit of the given type onto the board, and resets the
+	 * extra score to the base score of that fruit.
+	 * @param type The type of fruit to spawn.
+	 * @return The packed index of the new fruit, or -1 if the board is
+	 * full.
+	 */
+	long spawnFruit(TileType type) {
+		if(type == TileType.Fruit) {
+			this.nextFruitScore = 50;
+		} else if(type == TileType.FruitBlue) {
+			this.nextFruitScore = 100;
+		} else if(type == TileType.FruitGreen) {
+			this.nextFruitScore = 200;
+		}
+
+		/*
+		 * The board draws a rank among its empty tiles and picks the tile
+		 * of that rank in row-major order. A Fenwick tree of the occupied
+		 * counts of blocks of 4096 tiles finds the block holding it, so a
+		 * pick costs one step per level of the tree plus a scan of one
+		 * block. Boards larger than DENSE_LIMIT sample random tiles
+		 * instead, and if that fails pick by rank too, skipping whole
+		 * chunks by their occupied counts.
+		 */
+		long index = forcedSpawn;
+		if(index != -1) {
+			forcedSpawn = -1;
+		} else {
+			index = board.randomFreeTile(random);
+		}
+		if(index != -1) {
+			board.setTile(index, type);
+		}
+		lastSpawn = index;
+		return index;
+	}
+
+	/**
+	 * Makes the next fruit spawn at the given tile instead of a random one.
+	 * Only used to replay a recorded game, where the tile is known to be
+	 * empty.
+	 * @param index The packed index of the tile.
+	 */
+	void forceNextSpawn(long index) {
+		this.forcedSpawn = index;
+	}
+
+	/**
+	 * Gets the state of the random number generator, which together with
+	 * a {@link SavedGame} describes the game completely.
+	 * @return The state.
+	 */
+	public long getRandomState() {
+		return random.getState();
+	}
+
+	/**
+	 * Restores the state of the random number generator.
+	 * @param state The state, as returned by {@code getRandomState}.
+	 */
+	public void setRandomState(long state) {
+		random.setState(state);
+	}
+
+	/**
+	 * Gets the tile a fruit was spawned at during the last tick.
+	 * @return The packed index of the fruit, or -1 if none was spawned.
+	 */
+	public long getLastSpawn() {
+		return lastSpawn;
+	}
+
+	/**
+	 * Gets the board the game is played on.
+	 * @return The board.
+	 */
+	public Board getBoard() {
+		return board;
+	}
+
+	/**
+	 * Gets the flag that indicates whether or not the game is over.
+	 * @return The game over flag.
+	 */
+	public boolean isGameOver() {
+		return isGameOver;
+	}
+
+	/**
+	 * Gets the current score.
+	 * @return The score.
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Gets the number of fruits eaten.
+	 * @return The fruits eaten.
+	 */
+	public int getFruitsEaten() {
+		return fruitsEaten;
+	}
+
+	/**
+	 * Gets the next fruit score.
+	 * @return The next fruit score.
+	 */
+	public int getNextFruitScore() {
+		return nextFruitScore;
+	}
+
+	/**
+	 * Gets the current direction of the snake.
+	 * @return The current direction.
+	 */
+	public Direction getDirection() {
+		return directionCount > 0 ? directions[directionHead] : null;
+	}
+
+	/**
+	 * Gets the number of queued directions, the current one included.
+	 * @return The number of directions.
+	 */
+	public int getDirectionCount() {
+		return directionCount;
+	}
+
+	/**
+	 * Gets the ring buffer that holds the cells of the snake.
+	 * @return The snake ring.
+	 */
+	public SnakeRing getSnakeRing() {
+		return snake;
+	}
+
+	/**
+	 * Gets the number of extra segments the snake still has to grow.
+	 * @return The pending growth.
+	 */
+	public int getPendingGrowth() {
+		return pendingGrowth;
+	}
+
+	/**
+	 * Sets the listener notified every time the score, the number of
+	 * fruits eaten or the extra score of the next fruit changes.
+	 * @param listener The listener, or null to remove it.
+	 */
+	public void setStatsListener(StatsListener listener) {
+		this.statsListener = listener;
+	}
+
+	/**
+	 * Notifies the stats listener, if any, of the current statistics.
+	 */
+	private void fireStatsChanged() {
+		if(statsListener != null) {
+			statsListener.statsChanged(score, fruitsEaten, nextFruitScore);
+		}
+	}
+
+	/**
+	 * Gets the head of the snake before the last tick. It equals the
+	 * current head if the snake did not move.
+	 * @return The packed index of the previous head, or -1.
+	 */
+	public long getPreviousHead() {
+		return previousHead;
+	}
+
+	/**
+	 * Gets the tail removed from the snake during the last tick.
+	 * @return The packed index of the removed tail, or -1 if the snake
+	 * kept its tail.
+	 */
+	public long getPreviousTail() {
+		return previousTail;
+	}
+
+	/**
+	 * Copies the queued directions into a new list.
+	 * @return The direction list.
+	 */
+	public LinkedList<Direction> getDirections() {
+		LinkedList<Direction> list = new LinkedList<>();
+		for(int i = 0; i < directionCount; i++) {
+			list.add(directions[(directionHead + i) % MAX_DIRECTIONS]);
+		}
+		return list;
+	}
+
+	/**
+	 * Copies the snake into a new list of points, head first. Pending
+	 * growth is stored as repeated head points, which is how older saves
+	 * represented it.
+	 * @return The snake list.
+	 */
+	public LinkedList<Point> getSnake() {
+		int colCount = board.getColCount();
+		LinkedList<Point> list = new LinkedList<>();
+		for(int i = 0; i < snake.size(); i++) {
+			long cell = snake.get(i);
+			list.add(new Point((int)(cell % colCount),
+					(int)(cell / colCount)));
+		}
+		for(int i = 0; i < pendingGrowth; i++) {
+			list.addFirst(list.peekFirst());
+		}
+		return list;
+	}
+
+	public void setScore(int iScore) {
+		score = iScore;
+		fireStatsChanged();
+	}
+
+	public void setDirections(LinkedList<Direction> lklDirections) {
+		directionHead = 0;
+		directionCount = 0;
+		for(Direction direction : lklDirections) {
+			if(directionCount < MAX_DIRECTIONS) {
+				directions[directionCount++] = direction;
+			}
+		}
+	}
+
+	public void setFruitsEaten(int iFruitsEaten) {
+		fruitsEaten = iFruitsEaten;
+		fireStatsChanged();
+	}
+
+	public void setGameOver(boolean bGameOver) {
+		isGameOver = bGameOver;
+	}
+
+	public void setNextFruitScore(int iNewFruitScore) {
+		nextFruitScore = iNewFruitScore;
+		fireStatsChanged();
+	}
+
+	/**
+	 * Replaces the snake with the given cells. The board is not changed.
+	 * @param cells The packed indices of the cells, head first.
+	 * @param length The number of cells to use.
+	 * @param growth The number of segments the snake still has to grow.
+	 */
+	public void setSnakeCells(long[] cells, int length, int growth) {
+		snake.clear();
+		for(int i = length - 1; i >= 0; i--) {
+			snake.pushHead(cells[i]);
+		}
+		pendingGrowth = growth;
+		previousHead = length > 0 ? cells[0] : -1;
+		previousTail = -1;
+	}
+
+	/**
+	 * Replaces the snake with the given points, head first. Repeated
+	 * points are turned into pending growth.
+	 * @param lklSnake The snake list.
+	 */
+	public void setSnake(LinkedList<Point> lklSnake) {
+		snake.clear();
+		pendingGrowth = 0;
+		long last = -1;
+		Iterator<Point> iterator = lklSnake.descendingIterator();
+		while(iterator.hasNext()) {
+			Point point = iterator.next();
+			long cell = (long)point.y * board.getColCount() + point.x;
+			if(cell == last) {
+				pendingGrowth++;
+			} else {
+				snake.pushHead(cell);
+				last = cell;
+			}
+		}
+		previousHead = snake.size() > 0 ? snake.peekHead() : -1;
+		previousTail = -1;
+	}
+
+}
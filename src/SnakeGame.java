@@ -1,30 +1,32 @@
 
 import java.awt.BorderLayout;
-import java.awt.Point;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 /**
- * The {@code SnakeGame} class is responsible for handling much of the game's
- * logic.
+ * The {@code SnakeGame} class is the window of the game. It runs the game
+ * loop and forwards input to the {@link SnakeEngine}, which handles the
+ * game's logic.
  *
  * @author Miguel Bazan
  * @author Ricardo Licea
  *
  */
-public class SnakeGame extends JFrame {
+public class SnakeGame extends JFrame implements GameView {
 
     /**
      * The Serial Version UID.
@@ -32,106 +34,219 @@ public class SnakeGame extends JFrame {
     private static final long serialVersionUID = 6678292058307426314L;
 
     /**
-     * The number of milliseconds that should pass between each frame.
+     * The number of nanoseconds that should pass between each frame.
      */
-    private static final long FRAME_TIME = 1000L / 50L;
+    private static final long FRAME_NANOS = 1000000000L / 50L;
 
     /**
-     * The minimum length of the snake. This allows the snake to grow right when
-     * the game starts, so that we're not just a head moving around on the
-     * board.
+     * The largest number of logic ticks run in one frame to catch up after
+     * a stall. Ticks beyond it are dropped.
      */
-    private static final int MIN_SNAKE_LENGTH = 5;
+    private static final int MAX_STEPS_PER_FRAME = 5;
 
     /**
-     * The maximum number of directions that we can have polled in the direction
-     * list.
+     * The largest number of key presses waiting for the game loop.
      */
-    private static final int MAX_DIRECTIONS = 3;
+    private static final int INPUT_CAPACITY = 64;
 
     /**
-     * The BoardPanel instance.
+     * The file the autosave checkpoints are written to.
+     */
+    private static final String AUTOSAVE_FILE = "autosave.bin";
+
+    /**
+     * The file the autosave journal is appended to.
+     */
+    private static final String JOURNAL_FILE = "autosave.journal";
+
+    /**
+     * The file the games saved by the players are kept in.
+     */
+    private static final String SLOTS_FILE = "saves.slots";
+
+    /**
+     * The file the result of every finished game is appended to.
+     */
+    private static final String RESULTS_FILE = "results.log";
+
+    /**
+     * The number of best results kept by the leaderboard.
+     */
+    private static final int LEADERBOARD_SIZE = 100;
+
+    /**
+     * The file the replay of the last game is written to.
+     */
+    private static final String REPLAY_FILE = "last.replay";
+
+    /**
+     * The longest time the shutdown hook waits for the game loop to close
+     * the journal, in milliseconds.
+     */
+    private static final long QUIT_TIMEOUT_MILLIS = 3000L;
+
+    /**
+     * The number of ticks between autosave checkpoints.
+     */
+    private static final int CHECKPOINT_TICKS = 1000;
+
+    /**
+     * The longest time the autosave journal keeps records in memory, in
+     * nanoseconds.
+     */
+    private static final long COMMIT_NANOS = 200000000L;
+
+    /**
+     * The Pacer used to wait for the next frame or tick.
+     */
+    private final Pacer pacer = new Pacer();
+
+    /**
+     * The timing histograms of the game loop.
+     */
+    private final LoopStats stats = new LoopStats();
+
+    /**
+     * The key presses waiting to be applied by the game loop.
+     */
+    private final InputQueue input = new InputQueue(INPUT_CAPACITY);
+
+    /**
+     * The latency of turns, from key press to display.
+     */
+    private final InputLatency latency = new InputLatency();
+
+    /**
+     * The background thread that saves and loads games.
+     */
+    private final SaveWorker saveWorker = new SaveWorker(
+            Paths.get(SLOTS_FILE), Paths.get(RESULTS_FILE),
+            LEADERBOARD_SIZE);
+
+    /**
+     * The autosave journal, which records the game as it is played.
+     */
+    private final Journal journal = new Journal(Paths.get(AUTOSAVE_FILE),
+            Paths.get(JOURNAL_FILE), CHECKPOINT_TICKS, COMMIT_NANOS);
+
+    /**
+     * The session's random number generator, which seeds each game.
+     */
+    private final Random seeds;
+
+    /**
+     * The name the results of finished games are recorded under: the last
+     * valid one given to save or load a game, or else the user's login.
+     */
+    private volatile String playerName = "Player";
+
+    /**
+     * The replay of the game being played, or null if it was not started
+     * from a seed.
+     */
+    private Replay replay;
+
+    /**
+     * The BoardPanel instance, or null when rendering actively.
      */
     private BoardPanel board;
 
     /**
-     * The SidePanel instance.
+     * The BoardCanvas instance, or null when rendering through Swing.
      */
-    private SidePanel side;
+    private BoardCanvas canvas;
 
     /**
-     * The random number generator (used for spawning fruits).
+     * The latest snapshot of the board, published by the game loop for the
+     * render thread.
      */
-    private Random random;
+    private volatile BoardSnapshot snapshot;
 
     /**
-     * The Clock instance for handling the game logic.
+     * Whether the board changed outside of a tick and a new snapshot must
+     * be published.
      */
-    private Clock logicTimer;
+    private volatile boolean isSnapshotStale;
 
     /**
-     * Whether or not we're running a new game.
+     * The number of logic ticks run so far.
      */
-    private boolean isNewGame;
+    private volatile long ticks;
 
     /**
-     * Whether or not the game is over.
+     * Whether the game is exiting, set by the shutdown hook so that the
+     * game loop commits and closes the journal itself.
      */
-    private boolean isGameOver;
+    private volatile boolean isQuitting;
 
     /**
-     * Whether or not the game is paused.
+     * Counted down by the game loop once it closed the journal on exit.
      */
-    private boolean isPaused;
+    private final CountDownLatch journalClosed = new CountDownLatch(1);
 
     /**
-     * The list that contains the points for the snake.
+     * The SidePanel instance.
      */
-    private LinkedList<Point> snake;
+    private SidePanel side;
 
     /**
-     * The list that contains the queued directions.
+     * The SnakeEngine instance, which holds the game's state and rules.
      */
-    private LinkedList<Direction> directions;
+    private SnakeEngine engine;
 
     /**
-     * The current score.
+     * The Clock instance for handling the game logic.
      */
-    private int score;
+    private Clock logicTimer;
 
     /**
-     * The number of fruits that we've eaten.
+     * Whether or not we're running a new game.
      */
-    private int fruitsEaten;
+    private volatile boolean isNewGame;
 
     /**
-     * The number of points that the next fruit will award us.
+     * Whether or not the game is paused.
      */
-    private int nextFruitScore;
+    private volatile boolean isPaused;
 
-    private TileType currentTileType = null;
-    
     private final SoundClip scSound = new SoundClip("pacman.wav");
 
     /**
      * Creates a new SnakeGame instance. Creates a new window, and sets up the
      * controller input.
+     *
+     * @param colCount The number of columns on the board.
+     * @param rowCount The number of rows on the board.
+     * @param activeRendering Whether to draw the board from a render thread
+     * instead of through Swing.
+     * @param seed The seed of the session, from which each game's seed is
+     * drawn.
      */
-    private SnakeGame() {
+    private SnakeGame(int colCount, int rowCount, boolean activeRendering,
+            long seed) {
         
         super("Snake Remake");
+        this.seeds = new Random(seed);
+        adoptPlayerName(System.getProperty("user.name", ""));
         setLayout(new BorderLayout());
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setResizable(false);
         scSound.setLooping(true);
 
         /*
-		 * Initialize the game's panels and add them to the window.
+		 * Initialize the game's engine and panels and add the panels
+		 * to the window.
          */
-        this.board = new BoardPanel(this);
+        this.engine = new SnakeEngine(colCount, rowCount);
         this.side = new SidePanel(this);
-
-        add(board, BorderLayout.CENTER);
+        engine.setStatsListener(side);
+        if (activeRendering) {
+            this.canvas = new BoardCanvas(this);
+            add(canvas, BorderLayout.CENTER);
+        } else {
+            this.board = new BoardPanel(this);
+            add(board, BorderLayout.CENTER);
+        }
         add(side, BorderLayout.EAST);
 
         /*
@@ -145,99 +260,22 @@ public class SnakeGame extends JFrame {
         switch (e.getKeyCode()) {
 
                     /*
-		 * If the game is not paused, and the game is not over...
-		 * 
-		 * Ensure that the direction list is not full, and that the most
-		 * recent direction is adjacent to North before adding the
-		 * direction to the list.
+		 * Game input is stamped and handed to the game loop, which
+		 * applies it at the start of its next frame.
                      */
                     case KeyEvent.VK_UP:
-                        if (!isPaused && !isGameOver) {
-                            if (directions.size() < MAX_DIRECTIONS) {
-                                Direction last = directions.peekLast();
-                                if (last != Direction.South
-                                        && last != Direction.North) {
-                                    directions.addLast(Direction.North);
-                                }
-                            }
-                        }
-                        break;
-                    /*
-		 * If the game is not paused, and the game is not over...
-		 * 
-		 * Ensure that the direction list is not full, and that the most
-		 * recent direction is adjacent to South before adding the
-		 * direction to the list.
-                     */
                     case KeyEvent.VK_DOWN:
-                        if (!isPaused && !isGameOver) {
-                            if (directions.size() < MAX_DIRECTIONS) {
-                                Direction last = directions.peekLast();
-                                if (last != Direction.North
-                                        && last != Direction.South) {
-                                    directions.addLast(Direction.South);
-                                }
-                            }
-                        }
-                        break;
-                    /*
-			 * If the game is not paused, and the game is not over...
-			 * 
-		 * Ensure that the direction list is not full, and that the most
-			 * recent direction is adjacent to West before adding the
-			 * direction to the list.
-                     */
                     case KeyEvent.VK_LEFT:
-                        if (!isPaused && !isGameOver) {
-                            if (directions.size() < MAX_DIRECTIONS) {
-                                Direction last = directions.peekLast();
-                                if (last != Direction.East
-                                        && last != Direction.West) {
-                                    directions.addLast(Direction.West);
-                                }
-                            }
-                        }
-                        break;
-
-                    /*
-		 * If the game is not paused, and the game is not over...
-		 * 
-		 * Ensure that the direction list is not full, and that the most
-		 * recent direction is adjacent to East before adding the
-		 * direction to the list.
-                     */
                     case KeyEvent.VK_RIGHT:
-                        if (!isPaused && !isGameOver) {
-                            if (directions.size() < MAX_DIRECTIONS) {
-                                Direction last = directions.peekLast();
-                                if (last != Direction.West
-                                        && last != Direction.East) {
-                                    directions.addLast(Direction.East);
-                                }
-                            }
-                        }
-                        break;
-                    /*
-		 * If the game is not over, toggle the paused flag and update
-			 * the logicTimer's pause flag accordingly.
-                     */
                     case KeyEvent.VK_P:
-                        if (!isGameOver) {
-                            isPaused = !isPaused;
-                            logicTimer.setPaused(isPaused);
-                            scSound.play();
-                            if (isPaused){
-                                scSound.stop();
-                            }
-                        }
+                    case KeyEvent.VK_ENTER:
+                        input.offer(e.getKeyCode(), System.nanoTime());
                         break;
                     /*
-			 * Reset the game if one is not currently in progress.
+			 * Print the timing histograms of the game loop.
                      */
-                    case KeyEvent.VK_ENTER:
-                        if (isNewGame || isGameOver) {
-                            resetGame();
-                        }
+                    case KeyEvent.VK_T:
+                        System.out.print(stats.report() + latency.report());
                         break;
                 }
             }
@@ -247,34 +285,14 @@ public class SnakeGame extends JFrame {
     
                 switch (e.getKeyCode()) {
 
-                    case KeyEvent.VK_G: {
-                        if (!isGameOver) {
-                            try {
-                                scSound.stop();
-                                grabaArchivo();
-                            } catch (IOException ex) {
-                                Logger.getLogger(SnakeGame.
-                                        class.getName()).
-                                        log(Level.SEVERE, null, ex);
-                            }
-                        }
-                    }
-                    break;
-                    case KeyEvent.VK_C: {
-                        if (!isGameOver) {
-                            try {
-                                scSound.stop();
-                                cargaJuego();
-                            } catch (IOException ex) {
-                                Logger.getLogger(SnakeGame.class.
-                                        getName()).log(Level.SEVERE, null, ex);
-                            } catch (ClassNotFoundException ex) {
-                                Logger.getLogger(SnakeGame.class.
-                                        getName()).log(Level.SEVERE, null, ex);
-                            }
-                        }
-                    }
-
+                    /*
+		 * Saving and loading are started by the game loop too, so
+		 * that the game is copied or replaced between two ticks.
+                     */
+                    case KeyEvent.VK_G:
+                    case KeyEvent.VK_C:
+                        input.offer(e.getKeyCode(), System.nanoTime());
+                        break;
                 }
             }
 
@@ -287,6 +305,29 @@ public class SnakeGame extends JFrame {
         pack();
         setLocationRelativeTo(null);
         setVisible(true);
+
+        /*
+		 * When the game exits, have the game loop commit the journal,
+		 * since only it may record into it, then print the timing
+		 * histograms.
+         */
+        Runtime.getRuntime().addShutdownHook(new Thread("Stats") {
+            @Override
+            public void run() {
+                isQuitting = true;
+                try {
+                    journalClosed.await(QUIT_TIMEOUT_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                saveWorker.close();
+                System.out.print(stats.report() + latency.report());
+            }
+        });
+        if (canvas != null) {
+            canvas.start();
+        }
     }
 
     /**
@@ -296,14 +337,16 @@ public class SnakeGame extends JFrame {
         /*
 		 * Initialize everything we're going to be using.
          */
-        this.random = new Random();
-        this.snake = new LinkedList<>();
-        this.directions = new LinkedList<>();
         this.logicTimer = new Clock(9.0f);
+        logicTimer.setMaxCyclesPerUpdate(MAX_STEPS_PER_FRAME);
         this.isNewGame = true;
 
         //Set the timer to paused initially.
         logicTimer.setPaused(true);
+        int lastMessage = -1;
+
+        //Resume the game autosaved by the last session, if any.
+        recoverAutosave();
 
         /*
 	 * This is the game loop. It will update and render the game and will
@@ -313,262 +356,330 @@ public class SnakeGame extends JFrame {
             //Get the current frame's start time.
             long start = System.nanoTime();
 
+            //Commit and close the journal, then stop, if the game exits.
+            if (isQuitting) {
+                journal.close();
+                journalClosed.countDown();
+                return;
+            }
+
+            //Install a game loaded since the last frame, if any.
+            installLoadedGame();
+
+            //Apply the input received since the last frame.
+            processInput();
+
             //Update the logic timer.
             logicTimer.update();
 
             /*
-	 * If a cycle has elapsed on the logic timer, then update the game.
+	 * Update the game once for every cycle that has elapsed on the logic
+	 * timer, which is capped so a stall cannot snowball.
              */
-            if (logicTimer.hasElapsedCycle()) {
+            long dropped = logicTimer.getDroppedCycles();
+            int frameTicks = 0;
+            while (logicTimer.hasElapsedCycle()) {
+                long tickStart = System.nanoTime();
+                int queued = engine.getDirectionCount();
                 updateGame();
+                stats.recordTick(System.nanoTime() - tickStart);
+                latency.tickRan(tickStart, ticks,
+                        engine.getDirectionCount() < queued);
+                frameTicks++;
             }
+            boolean ticked = frameTicks > 0;
 
-            //Repaint the board and side panel with the new content.
-            board.repaint();
-            side.repaint();
+            /*
+		 * Take an autosave checkpoint every so many ticks, and hand the
+		 * journal's records to its thread every so often.
+             */
+            if (journal.isCheckpointDue()) {
+                journal.checkpoint(SavedGame.capture(engine, isNewGame,
+                        isPaused));
+            }
+            journal.commitIfDue(System.nanoTime());
 
             /*
-		 * Calculate the delta time between since the start of the frame
-		 * and sleep for the excess time to cap the frame rate. While not
-		 * incredibly accurate, it is sufficient for our purposes.
+		 * Publish a new snapshot for the render thread if the board or
+		 * the message changed, or repaint the parts of the board that
+		 * changed. The side panel repaints itself when the engine reports
+		 * new statistics.
              */
-            long delta = (System.nanoTime() - start) / 1000000L;
-            if (delta < FRAME_TIME) {
-                try {
-                    Thread.sleep(FRAME_TIME - delta);
-                } catch (Exception e) {
-                    e.printStackTrace();
+            if (canvas != null) {
+                int message = getMessage();
+                if (ticked || isSnapshotStale || message != lastMessage) {
+                    isSnapshotStale = false;
+                    lastMessage = message;
+                    publishSnapshot(ticked);
                 }
+            } else {
+                board.repaintIfDirty();
             }
+
+            /*
+		 * Wait until the next frame is due, or the next tick if it comes
+		 * first, so that ticks run on time rather than on the next frame.
+		 * The pacer sleeps most of the wait and spins for the rest.
+             */
+            long end = System.nanoTime();
+            stats.recordFrame(end - start, frameTicks,
+                    Math.max(0L, logicTimer.getDroppedCycles() - dropped));
+            stats.recordOvershoot(pacer.waitUntil(Math.min(start
+                    + FRAME_NANOS, logicTimer.getNextCycleTime())));
         }
     }
 
     /**
-     * Updates the game's logic.
+     * Applies the key presses queued by the event dispatch thread. Only
+     * called from the game loop, before the frame's ticks, so the engine,
+     * the logic timer and the game flags are only changed by one thread.
      */
-    private void updateGame() {
-        /*
-	 * Gets the type of tile that the head of the snake collided with. If 
-	 * the snake hit a wall, SnakeBody will be returned, as both conditions
-	 * are handled identically.
-         */
-        TileType collision = updateSnake();
-
-        /*
-	 * Here we handle the different possible collisions.
-	 * 
-	 * Fruit: If we collided with a fruit, we increment the number of
-	 * fruits that we've eaten, update the score, and spawn a new fruit.
-	 * 
-	 * SnakeBody: If we collided with our tail (or a wall), we flag that
-	 * the game is over and pause the game.
-	 * 
-	* If no collision occurred, we simply decrement the number of points
-	 * that the next fruit will give us if it's high enough. This adds a
-	 * bit of skill to the game as collecting fruits more quickly will
-	 * yield a higher score.
-         */
-        if (collision == TileType.Fruit) {
-            fruitsEaten++;
-            score += 50 + nextFruitScore;
-            spawnFruit();
-            currentTileType = TileType.Fruit;
-
-        } else if (collision == TileType.SnakeBody) {
-            isGameOver = true;
-            logicTimer.setPaused(true);
-            scSound.stop();
-
-        } else if (collision == TileType.FruitBlue) {
-            fruitsEaten++;
-            score += 100 + nextFruitScore;
-            spawnFruitBlue();
-            currentTileType = TileType.FruitBlue;
-
-        } else if (collision == TileType.FruitGreen) {
-            fruitsEaten++;
-            score += 200 + nextFruitScore;
-            spawnFruitGreen();
-            currentTileType = TileType.FruitGreen;
-
-        } else if (collision == TileType.badFruit) {
-            isGameOver = true;
-            logicTimer.setPaused(true);
-            currentTileType = TileType.badFruit;
-            scSound.stop();
-
-        } else if (nextFruitScore > 10) {
-            nextFruitScore--;
+    private void processInput() {
+        while (!input.isEmpty()) {
+            long now = System.nanoTime();
+            int position = handleKey(input.peekKeyCode());
+            latency.inputDrained(input.peekTime(), now, position);
+            input.remove();
         }
     }
 
     /**
-     * Updates the snake's position and size.
+     * Applies a key press to the game.
      *
-     * @return Tile tile that the head moved into.
+     * @param keyCode The key code of the key pressed.
+     * @return The position of the turn in the direction queue, or -1 if
+     * the key did not queue a turn.
      */
-    
-    private TileType updateSnake() {
-
+    private int handleKey(int keyCode) {
+        int position = -1;
+        switch (keyCode) {
         /*
-	 * Here we peek at the next direction rather than polling it. While
-	 * not game breaking, polling the direction here causes a small bug
-	 * where the snake's direction will change after a game over (though
-	 * it will not move).
+		 * If the game is not paused, and the game is not over...
+		 * 
+		 * Queue North, if it is adjacent to the most recent direction.
          */
-        Direction direction = directions.peekFirst();
-
+        case KeyEvent.VK_UP:
+            if (!isPaused && !isGameOver()) {
+                position = queueTurn(Direction.North);
+            }
+            break;
         /*
-	 * Here we calculate the new point that the snake's head will be at
-	 * after the update.
+		 * If the game is not paused, and the game is not over...
+		 * 
+		 * Queue South, if it is adjacent to the most recent direction.
          */
-        Point head = new Point(snake.peekFirst());
-        switch (direction) {
-            case North:
-                head.y--;
-                break;
-
-            case South:
-                head.y++;
-                break;
-
-            case West:
-                head.x--;
-                break;
-
-            case East:
-                head.x++;
-                break;
-        }
-
+        case KeyEvent.VK_DOWN:
+            if (!isPaused && !isGameOver()) {
+                position = queueTurn(Direction.South);
+            }
+            break;
         /*
-	 * If the snake has moved out of bounds ('hit' a wall), we can just
-	 * return that it's collided with itself, as both cases are handled
-	 * identically.
+			 * If the game is not paused, and the game is not over...
+			 * 
+		 * Queue West, if it is adjacent to the most recent direction.
          */
-        if (head.x < 0 || head.x >= BoardPanel.COL_COUNT
-                || head.y < 0 || head.y >= BoardPanel.ROW_COUNT) {
-            return TileType.SnakeBody; //Pretend we collided with our body.
-        }
+        case KeyEvent.VK_LEFT:
+            if (!isPaused && !isGameOver()) {
+                position = queueTurn(Direction.West);
+            }
+            break;
 
         /*
-	 * Here we get the tile that was located at the new head position and
-	 * remove the tail from of the snake and the board if the snake is
-	 * long enough, and the tile it moved onto is not a fruit.
-	 * 
-	 * If the tail was removed, we need to retrieve the old tile again
-	 * incase the tile we hit was the tail piece that was just removed
-	 * to prevent a false game over.
+		 * If the game is not paused, and the game is not over...
+		 * 
+		 * Queue East, if it is adjacent to the most recent direction.
          */
-        TileType old = board.getTile(head.x, head.y);
-        if (old != TileType.Fruit && old != TileType.FruitGreen
-                && old != TileType.FruitBlue
-                && snake.size() > MIN_SNAKE_LENGTH) {
-            Point tail = snake.removeLast();
-            board.setTile(tail, null);
-            old = board.getTile(head.x, head.y);
-        }
-
+        case KeyEvent.VK_RIGHT:
+            if (!isPaused && !isGameOver()) {
+                position = queueTurn(Direction.East);
+            }
+            break;
         /*
-	 * Update the snake's position on the board if we didn't collide with
-	 * our tail:
-	 * 
-	 * 1. Set the old head position to a body tile.
-	 * 2. Add the new head to the snake.
-	 * 3. Set the new head position to a head tile.
-	 * 
-	 * If more than one direction is in the queue, poll it to read new
-	 * input.
+		 * If the game is not over, toggle the paused flag and update
+			 * the logicTimer's pause flag accordingly.
          */
-        if (old != TileType.SnakeBody) {
-            board.setTile(snake.peekFirst(), TileType.SnakeBody);
-            snake.push(head);
-            board.setTile(head, TileType.SnakeHead);
-            if (directions.size() > 1) {
-                directions.poll();
+        case KeyEvent.VK_P:
+            if (!isGameOver()) {
+                isPaused = !isPaused;
+                logicTimer.setPaused(isPaused);
+                scSound.play();
+                if (isPaused){
+                    scSound.stop();
+                }
             }
-            if (getCurrentTile() == TileType.FruitBlue) {
-                board.setTile(snake.peekFirst(), TileType.SnakeBody);
-                snake.push(head);
-                //    snake.push(head);
-                board.setTile(head, TileType.SnakeHead);
-                currentTileType = null;
+            break;
+        /*
+			 * Reset the game if one is not currently in progress.
+         */
+        case KeyEvent.VK_ENTER:
+            if (isNewGame || isGameOver()) {
+                resetGame();
             }
-
-            if (getCurrentTile() == TileType.FruitGreen) {
-                board.setTile(snake.peekFirst(), TileType.SnakeBody);
-                snake.push(head);
-                snake.push(head);
-                // snake.push(head);
-                board.setTile(head, TileType.SnakeHead);
-                currentTileType = null;
+            break;
+        /*
+		 * If the game is not over, pause it and copy it, then ask for
+		 * a file name on the event dispatch thread and save the copy
+		 * in the background.
+         */
+        case KeyEvent.VK_G:
+            if (!isGameOver()) {
+                pauseGame();
+                final SavedGame game = SavedGame.capture(engine, isNewGame,
+                        isPaused);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        grabaArchivo(game);
+                    }
+                });
+            }
+            break;
+        /*
+		 * If the game is not over, pause it, then ask for a file name
+		 * on the event dispatch thread and load the game in the
+		 * background. It is installed at the start of a later frame.
+         */
+        case KeyEvent.VK_C:
+            if (!isGameOver()) {
+                pauseGame();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        cargaJuego();
+                    }
+                });
             }
+            break;
         }
-
-        return old;
+        return position;
     }
 
     /**
-     * Resets the game's variables to their default states and starts a new
-     * game.
+     * Pauses the game and its music.
      */
-    private void resetGame() {
-        /*
-	 * Reset the score statistics. (Note that nextFruitPoints is reset in
-	 * the spawnFruit function later on).
-         */
-        this.score = 0;
-        this.fruitsEaten = 0;
+    private void pauseGame() {
+        isPaused = true;
+        logicTimer.setPaused(true);
+        scSound.stop();
+    }
 
-        /*
-		 * Reset both the new game and game over flags.
-         */
-        this.isNewGame = false;
-        this.isGameOver = false;
+    /**
+     * Replaces the game with the last one loaded by the save worker, if
+     * any. Only called from the game loop, before the frame's ticks.
+     */
+    private void installLoadedGame() {
+        SavedGame game = saveWorker.pollLoaded();
+        if (game == null) {
+            return;
+        }
+        int flags = game.install(engine);
+        this.setNewGame((flags & BoardSnapshot.NEW_GAME) != 0);
+        this.setPaused((flags & BoardSnapshot.PAUSED) != 0);
+        logicTimer.setPaused(isNewGame || isPaused || isGameOver());
+        latency.clear();
+        isSnapshotStale = true;
+        replay = null;
+        journal.checkpoint(game);
+    }
 
-        /*
-		 * Create the head at the center of the board.
-         */
-        Point head = new Point(BoardPanel.COL_COUNT
-                / 2, BoardPanel.ROW_COUNT / 2);
+    /**
+     * Loads the game autosaved by the last session, if it did not end with
+     * a game over, and leaves it paused. Only called from the game loop,
+     * before the first frame.
+     */
+    private void recoverAutosave() {
+        Path checkpoint = Paths.get(AUTOSAVE_FILE);
+        if (!Files.exists(checkpoint)) {
+            return;
+        }
+        try {
+            Journal.recover(engine, checkpoint, Paths.get(JOURNAL_FILE));
+        } catch (IOException ex) {
+            Logger.getLogger(SnakeGame.class.getName()).log(Level.SEVERE,
+                    null, ex);
+            return;
+        }
+        if (engine.isGameOver()) {
+            engine.reset();
+            journal.discard();
+            return;
+        }
+        isNewGame = false;
+        isPaused = true;
+        isSnapshotStale = true;
+        journal.checkpoint(SavedGame.capture(engine, isNewGame, isPaused));
+    }
 
-        /*
-		 * Clear the snake list and add the head.
-         */
-        snake.clear();
-        snake.add(head);
+    /**
+     * Queues a turn in the engine. Turns pressed before the first game is
+     * started are ignored, since the engine has not been reset yet.
+     *
+     * @param direction The direction to turn to.
+     * @return The position of the turn in the direction queue, or -1 if it
+     * was not queued.
+     */
+    private int queueTurn(Direction direction) {
+        if (isNewGame) {
+            return -1;
+        }
+        int position = engine.getDirectionCount();
+        if (!engine.queueDirection(direction)) {
+            return -1;
+        }
+        journal.recordTurn(direction);
+        if (replay != null) {
+            replay.recordTurn(direction);
+        }
+        return position;
+    }
 
-        /*
-		 * Clear the board and add the head.
-         */
-        board.clearBoard();
-        board.setTile(head, TileType.SnakeHead);
+    /**
+     * Updates the game's logic by advancing the engine by one tick, and
+     * stops the game if the snake died.
+     */
+    private void updateGame() {
+        engine.step();
+        ticks++;
+        journal.recordStep(engine);
+        if (replay != null) {
+            replay.recordStep(engine);
+        }
+        if (engine.isGameOver()) {
+            logicTimer.setPaused(true);
+            scSound.stop();
+            journal.discard();
+            saveWorker.saveResult(playerName, engine.getScore(),
+                    engine.getFruitsEaten());
+            if (replay != null) {
+                replay.finish(engine);
+                saveWorker.saveReplay(replay, Paths.get(REPLAY_FILE));
+                replay = null;
+            }
+        }
+    }
 
+    /**
+     * Resets the game's variables to their default states and starts a new
+     * game.
+     */
+    private void resetGame() {
         /*
-		 * Clear the directions and add north as the
-		 * default direction.
+		 * Reset the new game flag and the engine.
          */
-        directions.clear();
-        directions.add(Direction.North);
+        this.isNewGame = false;
+        long seed = seeds.nextLong();
+        engine.reset(seed);
+        replay = new Replay(engine.getBoard().getColCount(),
+                engine.getBoard().getRowCount(), seed);
+        latency.clear();
 
         /*
 		 * Reset the logic timer.
          */
         logicTimer.reset();
+        isSnapshotStale = true;
         scSound.play();
-
-        /*
-		 * Spawn a new fruit.
-         */
-        spawnFruit();
-        spawnFruitBlue();
-        spawnFruitGreen();
-        // Random de frutas malas 
-        Random rand = new Random();
-        int randomNum = rand.nextInt((8 - 1) + 1) + 1;
-        for (int iR = 0; iR < randomNum; iR++) {
-            spawnFruitBad();
-        }
+        journal.checkpoint(SavedGame.capture(engine, isNewGame, isPaused));
     }
 
     /**
@@ -586,7 +697,7 @@ public class SnakeGame extends JFrame {
      * @return The game over flag.
      */
     public boolean isGameOver() {
-        return isGameOver;
+        return engine.isGameOver();
     }
 
     /**
@@ -599,181 +710,138 @@ public class SnakeGame extends JFrame {
     }
 
     /**
-     * Spawns a new fruit onto the board.
+     * Gets the current score.
+     *
+     * @return The score.
      */
-    private void spawnFruit() {
-        //set the extra score to 50
-        this.nextFruitScore = 50;
-
-        /*
-	 * Get a random index based on the number of free spaces left
-        on the board.
-         */
-        int index = random.nextInt(BoardPanel.COL_COUNT
-                * BoardPanel.ROW_COUNT - snake.size());
-
-        /*
-	 * While we could just as easily choose a random index on the board
-	 * and check it if it's free until we find an empty one, that method
-	 * tends to hang if the snake becomes very large.
-	 * 
-	 * This method simply loops through until it finds the nth free index
-	 * and selects uses that. This means that the game will be able to
-	 * locate an index at a relatively constant rate regardless of the
-	 * size of the snake.
-         */
-        int freeFound = -1;
-        for (int x = 0; x < BoardPanel.COL_COUNT; x++) {
-            for (int y = 0; y < BoardPanel.ROW_COUNT; y++) {
-                TileType type = board.getTile(x, y);
-                if (type == null || type == TileType.Fruit) {
-                    if (++freeFound == index) {
-                        board.setTile(x, y, TileType.Fruit);
-                        break;
-                    }
-                }
-            }
-        }
+    public int getScore() {
+        return engine.getScore();
     }
 
-    private void spawnFruitBlue() {
-        //set the extra score to 100
-        this.nextFruitScore = 100;
-
-        /*
-	 * Get a random index based on the number of free 
-        spaces left on the board.
-         */
-        int index = random.nextInt(BoardPanel.COL_COUNT
-                * BoardPanel.ROW_COUNT - snake.size());
+    /**
+     * Gets the number of fruits eaten.
+     *
+     * @return The fruits eaten.
+     */
+    public int getFruitsEaten() {
+        return engine.getFruitsEaten();
+    }
 
-        /*
-	 * While we could just as easily choose a random index on the board
-	 * and check it if it's free until we find an empty one, that method
-	 * tends to hang if the snake becomes very large.
-	 * 
-	 * This method simply loops through until it finds the nth free index
-	 * and selects uses that. This means that the game will be able to
-	 * locate an index at a relatively constant rate regardless of the
-	 * size of the snake.
-         */
-        int freeFound = -1;
-        for (int x = 0; x < BoardPanel.COL_COUNT; x++) {
-            for (int y = 0; y < BoardPanel.ROW_COUNT; y++) {
-                TileType type = board.getTile(x, y);
-                if (type == null || type == TileType.FruitBlue) {
-                    if (++freeFound == index) {
-                        board.setTile(x, y, TileType.FruitBlue);
-                        break;
-                    }
-                }
-            }
-        }
+    /**
+     * Gets the next fruit score.
+     *
+     * @return The next fruit score.
+     */
+    public int getNextFruitScore() {
+        return engine.getNextFruitScore();
     }
 
-    private void spawnFruitGreen() {
-        // Set the score of the fruit to 200
-        this.nextFruitScore = 200;
+    /**
+     * Gets the current direction of the snake.
+     *
+     * @return The current direction.
+     */
+    @Override
+    public Direction getDirection() {
+        return engine.getDirection();
+    }
 
+    /**
+     * Gets the board the game is played on.
+     *
+     * @return The board.
+     */
+    @Override
+    public Board getBoard() {
+        return engine.getBoard();
+    }
 
-        /*
-	 * Get a random index based on the number of 
-        free spaces left on the board.
-         */
-        int index = random.nextInt(BoardPanel.COL_COUNT
-                * BoardPanel.ROW_COUNT - snake.size());
+    /**
+     * Gets the packed index of the snake's head.
+     *
+     * @return The index of the head, or -1 if there is no snake yet.
+     */
+    @Override
+    public long getHead() {
+        SnakeRing ring = engine.getSnakeRing();
+        return ring.size() > 0 ? ring.peekHead() : -1;
+    }
 
-        /*
-	 * While we could just as easily choose a random index on the board
-	 * and check it if it's free until we find an empty one, that method
-	 * tends to hang if the snake becomes very large.
-	 * 
-	 * This method simply loops through until it finds the nth free index
-	 * and selects uses that. This means that the game will be able to
-	 * locate an index at a relatively constant rate regardless of the
-	 * size of the snake.
-         */
-        int freeFound = -1;
-        for (int x = 0; x < BoardPanel.COL_COUNT; x++) {
-            for (int y = 0; y < BoardPanel.ROW_COUNT; y++) {
-                TileType type = board.getTile(x, y);
-                if (type == null || type == TileType.FruitGreen) {
-                    if (++freeFound == index) {
-                        board.setTile(x, y, TileType.FruitGreen);
-                        break;
-                    }
-                }
-            }
+    /**
+     * Gets the messages that should be shown over the board.
+     *
+     * @return A combination of the {@link BoardSnapshot} message flags.
+     */
+    @Override
+    public int getMessage() {
+        int message = 0;
+        if (isNewGame) {
+            message |= BoardSnapshot.NEW_GAME;
+        } else if (isGameOver()) {
+            message |= BoardSnapshot.GAME_OVER;
+        } else if (isPaused) {
+            message |= BoardSnapshot.PAUSED;
         }
+        return message;
     }
 
-    private void spawnFruitBad() {
-
-        /*
-	 * Get a random index based on the number of
-        free spaces left on the board.
-         */
-        int index = random.nextInt(BoardPanel.COL_COUNT
-                * BoardPanel.ROW_COUNT - snake.size());
-
-        /*
-	 * While we could just as easily choose a random index on the board
-	 * and check it if it's free until we find an empty one, that method
-	 * tends to hang if the snake becomes very large.
-	 * 
-	 * This method simply loops through until it finds the nth free index
-	 * and selects uses that. This means that the game will be able to
-	 * locate an index at a relatively constant rate regardless of the
-	 * size of the snake.
-         */
-        int freeFound = -1;
-        for (int x = 0; x < BoardPanel.COL_COUNT; x++) {
-            for (int y = 0; y < BoardPanel.ROW_COUNT; y++) {
-                TileType type = board.getTile(x, y);
-                if (type == null || type == TileType.badFruit) {
-                    if (++freeFound == index) {
-                        board.setTile(x, y, TileType.badFruit);
-                        break;
-                    }
-                }
-            }
-        }
+    /**
+     * Gets the timing histograms of the game loop.
+     *
+     * @return The loop stats.
+     */
+    public LoopStats getStats() {
+        return stats;
     }
 
     /**
-     * Gets the current score.
+     * Gets the latency of turns, from key press to display.
      *
-     * @return The score.
+     * @return The input latency.
      */
-    public int getScore() {
-        return score;
+    @Override
+    public InputLatency getInputLatency() {
+        return latency;
     }
 
     /**
-     * Gets the number of fruits eaten.
+     * Gets the number of logic ticks run so far.
      *
-     * @return The fruits eaten.
+     * @return The tick count.
      */
-    public int getFruitsEaten() {
-        return fruitsEaten;
+    @Override
+    public long getTicks() {
+        return ticks;
     }
 
     /**
-     * Gets the next fruit score.
+     * Gets the latest snapshot of the board published by the game loop.
      *
-     * @return The next fruit score.
+     * @return The snapshot, or null if none was published yet.
      */
-    public int getNextFruitScore() {
-        return nextFruitScore;
+    public BoardSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
-     * Gets the current direction of the snake.
+     * Copies the visible part of the board into a new snapshot and hands it
+     * to the render thread. Only called from the game loop, between ticks.
+     * The logic timer's excess tells how long ago the last tick was due,
+     * which is where the render thread starts interpolating from.
      *
-     * @return The current direction.
+     * @param ticked Whether the snake moved since the last snapshot.
      */
-    public Direction getDirection() {
-        return directions.peek();
+    private void publishSnapshot(boolean ticked) {
+        long periodNanos = 0L;
+        long tickNanos = System.nanoTime();
+        if (ticked && !logicTimer.isPaused()) {
+            periodNanos = (long) (logicTimer.getMillisPerCycle() * 1000000L);
+            tickNanos -= (long) (logicTimer.getInterpolation() * periodNanos);
+        }
+        snapshot = BoardSnapshot.capture(engine, canvas.getViewCols(),
+                canvas.getViewRows(), getMessage(), ticks, tickNanos,
+                periodNanos);
+        canvas.wake();
     }
 
     private String sGuardar;
@@ -781,71 +849,77 @@ public class SnakeGame extends JFrame {
     /**
      * Entry point of the program.
      *
-     * @param args Unused.
+     * @param args The number of columns and rows on the board, optional.
+     * Boards larger than the window scroll with the snake. A leading
+     * {@code -active} draws the board from a render thread, and
+     * {@code -seed} followed by a number makes the session's games
+     * reproducible.
      */
     public static void main(String[] args) {
-        SnakeGame snake = new SnakeGame();
+        int colCount = BoardPanel.COL_COUNT;
+        int rowCount = BoardPanel.ROW_COUNT;
+        boolean activeRendering = false;
+        long seed = System.nanoTime();
+        int arg = 0;
+        while (arg < args.length && args[arg].startsWith("-")) {
+            if (args[arg].equals("-active")) {
+                activeRendering = true;
+            } else if (args[arg].equals("-seed") && arg + 1 < args.length) {
+                seed = Long.parseLong(args[++arg]);
+            }
+            arg++;
+        }
+        if (args.length - arg >= 2) {
+            colCount = Integer.parseInt(args[arg]);
+            rowCount = Integer.parseInt(args[arg + 1]);
+        }
+        SnakeGame snake = new SnakeGame(colCount, rowCount, activeRendering,
+                seed);
         snake.startGame();
     }
 
-    public void grabaArchivo() throws IOException {
-
-        isPaused = true;
-        logicTimer.setPaused(true);
+    /**
+     * Asks for the player's name and saves a copy of the game under it in
+     * the background. Only called from the event dispatch thread.
+     *
+     * @param game The copy of the game, taken by the game loop.
+     */
+    public void grabaArchivo(SavedGame game) {
         sGuardar = JOptionPane.showInputDialog("Nombre de usuario:");
-        sGuardar += ".bin";
-
-        ObjectOutputStream oArchivo = new 
-        ObjectOutputStream(new FileOutputStream(sGuardar));
-        oArchivo.writeInt(this.score);
-        oArchivo.writeObject(this.directions);
-        oArchivo.writeInt(this.fruitsEaten);
-        oArchivo.writeBoolean(this.isGameOver);
-        oArchivo.writeBoolean(this.isNewGame);
-        oArchivo.writeBoolean(this.isPaused);
-        oArchivo.writeInt(this.nextFruitScore);
-        oArchivo.writeObject(this.board.getTileType());
-        oArchivo.writeObject(this.snake);
-        oArchivo.close();
+        if (sGuardar == null) {
+            return;
+        }
+        adoptPlayerName(sGuardar);
+        saveWorker.save(game, sGuardar);
 
     }
 
-    public void cargaJuego() throws IOException, ClassNotFoundException {
-        isPaused = true;
-        logicTimer.setPaused(true);
+    /**
+     * Asks for the player's name and loads the game saved under it in the
+     * background. Only called from the event dispatch thread.
+     */
+    public void cargaJuego() {
         sGuardar = JOptionPane.showInputDialog("Nombre de usuario:");
-        sGuardar += ".bin";
-
-        try (ObjectInputStream oArchivo = new 
-        ObjectInputStream(new FileInputStream(sGuardar))) {
-            this.setScore((int) oArchivo.readInt());
-            this.setDirection((LinkedList) oArchivo.readObject());
-            this.setFruitsEaten((int) oArchivo.readInt());
-            this.setGameOver((boolean) oArchivo.readBoolean());
-            this.setNewGame((boolean) oArchivo.readBoolean());
-            this.setPaused((boolean) oArchivo.readBoolean());
-            this.setNextFruitScore((int) oArchivo.readInt());
-            this.board.setTile((TileType[]) oArchivo.readObject());
-            this.setSnake((LinkedList) oArchivo.readObject());
-            oArchivo.close();
+        if (sGuardar == null) {
+            return;
         }
+        adoptPlayerName(sGuardar);
+        saveWorker.load(sGuardar, engine.getBoard());
 
     }
 
-    private void setScore(int iScore) {
-        score = iScore;
-    }
-
-    private void setDirection(LinkedList<Direction> lklDirections) {
-        directions = lklDirections;
-    }
-
-    private void setFruitsEaten(int iFruitsEaten) {
-        fruitsEaten = iFruitsEaten;
-    }
-
-    private void setGameOver(boolean bGameOver) {
-        isGameOver = bGameOver;
+    /**
+     * Records the results of later games under a name, if the leaderboard
+     * can hold it, and otherwise keeps the current one.
+     *
+     * @param name The name, as entered.
+     */
+    private void adoptPlayerName(String name) {
+        String trimmed = name.trim();
+        int length = trimmed.getBytes(StandardCharsets.UTF_8).length;
+        if (length > 0 && length <= Leaderboard.MAX_NAME_BYTES) {
+            playerName = trimmed;
+        }
     }
 
     private void setNewGame(boolean bNewGame) {
@@ -856,16 +930,4 @@ public class SnakeGame extends JFrame {
         isPaused = bIsPaused;
     }
 
-    private void setNextFruitScore(int iNewFruitScore) {
-        nextFruitScore = iNewFruitScore;
-    }
-
-    private void setSnake(LinkedList<Point> lklSnake) {
-        snake = lklSnake;
-    }
-
-    private TileType getCurrentTile() {
-        return currentTileType;
-    }
-
-}
+}
\ No newline at end of file
@@ -0,0 +1,134 @@
+
+/**
+ * The {@code SnakeRing} class stores the cells of the snake in a ring buffer
+ * of packed cell indices ({@code y * colCount + x}), head first. Pushing a
+ * new head and popping the tail are O(1) and do not allocate, so the snake
+ * can be moved every tick without creating garbage. The buffer doubles in
+ * size when the snake outgrows it, up to the number of tiles on the board.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SnakeRing {
+
+	/**
+	 * The packed cell indices of the snake.
+	 */
+	private long[] cells;
+
+	/**
+	 * The largest number of cells the snake can ever hold.
+	 */
+	private final long maxSize;
+
+	/**
+	 * The position of the head in the cells array.
+	 */
+	private int head;
+
+	/**
+	 * The number of cells in the snake.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new, empty SnakeRing.
+	 * @param capacity The initial number of cells.
+	 * @param maxSize The largest number of cells, usually the number of
+	 * tiles on the board.
+	 */
+	public SnakeRing(int capacity, long maxSize) {
+		this.cells = new long[capacity];
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Removes every cell from the snake.
+	 */
+	public void clear() {
+		this.head = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a new head to the snake.
+	 * @param cell The packed index of the new head.
+	 */
+	public void pushHead(long cell) {
+		if(size == cells.length) {
+			grow();
+		}
+		head = (head == 0 ? cells.length : head) - 1;
+		cells[head] = cell;
+		size++;
+	}
+
+	/**
+	 * Removes the tail of the snake.
+	 * @return The packed index of the removed tail.
+	 */
+	public long popTail() {
+		long tail = peekTail();
+		size--;
+		return tail;
+	}
+
+	/**
+	 * Gets the head of the snake.
+	 * @return The packed index of the head.
+	 */
+	public long peekHead() {
+		return cells[head];
+	}
+
+	/**
+	 * Gets the tail of the snake.
+	 * @return The packed index of the tail.
+	 */
+	public long peekTail() {
+		return get(size - 1);
+	}
+
+	/**
+	 * Gets a cell of the snake.
+	 * @param i The position of the cell, 0 being the head.
+	 * @return The packed index of the cell.
+	 */
+	public long get(int i) {
+		int index = head + i;
+		return cells[index >= cells.length ? index - cells.length : index];
+	}
+
+	/**
+	 * Gets the number of cells in the snake.
+	 * @return The size of the snake.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of cells the buffer can hold before it grows.
+	 * @return The capacity.
+	 */
+	public int capacity() {
+		return cells.length;
+	}
+
+	/**
+	 * Doubles the size of the buffer, moving the head to the start of it.
+	 */
+	private void grow() {
+		if(size >= maxSize || size >= Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("The snake fills the board.");
+		}
+		long[] grown = new long[(int)Math.min(Math.min(cells.length * 2L + 1,
+				maxSize), Integer.MAX_VALUE - 8)];
+		for(int i = 0; i < size; i++) {
+			grown[i] = get(i);
+		}
+		this.cells = grown;
+		this.head = 0;
+	}
+
+}
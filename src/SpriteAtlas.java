@@ -0,0 +1,152 @@
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The {@code SpriteAtlas} class decodes the fruit images once, scales them
+ * to their size on the board and packs them side by side into a single
+ * image compatible with the screen, so that drawing a fruit is a plain
+ * unscaled blit from the atlas.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class SpriteAtlas {
+
+	/**
+	 * The image resource for each tile type, indexed by ordinal. Tiles
+	 * without an image are null.
+	 */
+	private static final String[] RESOURCES = new String[TileType.values()
+			.length];
+
+	static {
+		RESOURCES[TileType.Fruit.ordinal()] = "candyRed.png";
+		RESOURCES[TileType.FruitBlue.ordinal()] = "candyBlue.png";
+		RESOURCES[TileType.FruitGreen.ordinal()] = "candyGreen.png";
+		RESOURCES[TileType.badFruit.ordinal()] = "creamChoco.png";
+	}
+
+	/**
+	 * The width and height of each sprite in pixels.
+	 */
+	private final int spriteSize;
+
+	/**
+	 * The image holding every sprite, one after the other.
+	 */
+	private final BufferedImage atlas;
+
+	/**
+	 * The x offset of each sprite in the atlas, indexed by ordinal, or -1
+	 * if the tile type has no sprite.
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Creates a new SpriteAtlas, loading and scaling every sprite.
+	 * @param spriteSize The width and height of each sprite in pixels.
+	 */
+	public SpriteAtlas(int spriteSize) {
+		this.spriteSize = spriteSize;
+		this.offsets = new int[RESOURCES.length];
+
+		int count = 0;
+		for(String resource : RESOURCES) {
+			if(resource != null) {
+				count++;
+			}
+		}
+		this.atlas = createImage(count * spriteSize, spriteSize,
+				Transparency.TRANSLUCENT);
+
+		Graphics2D g = atlas.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		int x = 0;
+		for(int i = 0; i < RESOURCES.length; i++) {
+			offsets[i] = -1;
+			if(RESOURCES[i] == null) {
+				continue;
+			}
+			BufferedImage image = load(RESOURCES[i]);
+			if(image != null) {
+				g.drawImage(image, x, 0, spriteSize, spriteSize, null);
+				offsets[i] = x;
+			}
+			x += spriteSize;
+		}
+		g.dispose();
+	}
+
+	/**
+	 * Draws the sprite of a tile type.
+	 * @param g The graphics object to draw to.
+	 * @param type The tile type.
+	 * @param x The x coordinate to draw at (in pixels).
+	 * @param y The y coordinate to draw at (in pixels).
+	 * @return Whether or not the tile type has a sprite.
+	 */
+	public boolean draw(Graphics g, TileType type, int x, int y) {
+		int offset = offsets[type.ordinal()];
+		if(offset < 0) {
+			return false;
+		}
+		g.drawImage(atlas, x, y, x + spriteSize, y + spriteSize,
+				offset, 0, offset + spriteSize, spriteSize, null);
+		return true;
+	}
+
+	/**
+	 * Creates an image in the format of the screen, so that it can be
+	 * accelerated, or a plain RGB or ARGB image when there is no screen.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param transparency The {@link Transparency} mode of the image.
+	 * @return The new image.
+	 */
+	static BufferedImage createImage(int width, int height,
+			int transparency) {
+		if(GraphicsEnvironment.isHeadless()) {
+			return new BufferedImage(width, height,
+					transparency == Transparency.OPAQUE
+					? BufferedImage.TYPE_INT_RGB
+					: BufferedImage.TYPE_INT_ARGB);
+		}
+		GraphicsConfiguration config = GraphicsEnvironment
+				.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+				.getDefaultConfiguration();
+		return config.createCompatibleImage(width, height, transparency);
+	}
+
+	/**
+	 * Decodes an image resource.
+	 * @param resource The name of the resource.
+	 * @return The image, or null if it could not be read.
+	 */
+	private static BufferedImage load(String resource) {
+		URL url = SpriteAtlas.class.getResource(resource);
+		if(url == null) {
+			return null;
+		}
+		try {
+			return ImageIO.read(url);
+		} catch (IOException ex) {
+			Logger.getLogger(SpriteAtlas.class.getName())
+					.log(Level.SEVERE, null, ex);
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+/**
+ * The {@code StatsListener} interface is notified by a {@link SnakeEngine}
+ * every time the score, the number of fruits eaten or the extra score of
+ * the next fruit changes.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public interface StatsListener {
+
+	/**
+	 * Called after one or more of the statistics changed.
+	 * @param score The current score.
+	 * @param fruitsEaten The number of fruits eaten.
+	 * @param nextFruitScore The number of points the next fruit will award.
+	 */
+	void statsChanged(int score, int fruitsEaten, int nextFruitScore);
+
+}
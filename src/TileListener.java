@@ -0,0 +1,18 @@
+
+/**
+ * The {@code TileListener} interface is notified by a {@link Board} every
+ * time one of its tiles changes.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public interface TileListener {
+
+	/**
+	 * Called after the tile at the given coordinate changed.
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 */
+	void tileChanged(int x, int y);
+
+}
@@ -0,0 +1,294 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The {@code Tournament} class plays many seeded games with an
+ * {@link Autopilot}, headless, on every core. The range of seeds is split
+ * in halves, recursively, into tasks of a few games that a work-stealing
+ * {@link ForkJoinPool} spreads over its threads, so that a thread that
+ * drew short games takes work from one that drew long ones.
+ * <p>
+ * Each thread plays its games with one {@link SnakeEngine} and one
+ * autopilot of its own, reset between games, and adds them to its own
+ * {@link TournamentStats}, so that the threads share nothing while they
+ * play. The statistics of the threads are merged at the end. A game played
+ * from a seed always ends the same way, so the merged statistics only
+ * depend on the seeds.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class Tournament {
+
+	/**
+	 * The most games played by one task, below which the range of seeds is
+	 * not split any more.
+	 */
+	private static final int TASK_GAMES = 16;
+
+	/**
+	 * The longest game by default, in ticks, after which an autopilot that
+	 * went around in circles is stopped.
+	 */
+	public static final int DEFAULT_MAX_TICKS = 100000;
+
+	/**
+	 * The number of games played by {@code main} by default.
+	 */
+	private static final int DEFAULT_GAMES = 100000;
+
+	/**
+	 * The number of columns on the board.
+	 */
+	private final int colCount;
+
+	/**
+	 * The number of rows on the board.
+	 */
+	private final int rowCount;
+
+	/**
+	 * The class of the autopilot, created once per thread.
+	 */
+	private final Class<? extends Autopilot> autopilot;
+
+	/**
+	 * The longest game, in ticks.
+	 */
+	private final int maxTicks;
+
+	/**
+	 * The threads that play the games.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * The {@code Worker} class is what one thread plays its games with.
+	 */
+	private final class Worker {
+
+		/**
+		 * The engine, reset for every game.
+		 */
+		private final SnakeEngine engine = new SnakeEngine(colCount, rowCount);
+
+		/**
+		 * The autopilot, reset for every game.
+		 */
+		private final Autopilot pilot = newAutopilot();
+
+		/**
+		 * The statistics of the games played by the thread.
+		 */
+		private final TournamentStats stats = new TournamentStats();
+
+		/**
+		 * Plays one game until the snake dies or the game is too long.
+		 * @param seed The seed of the game.
+		 */
+		private void play(long seed) {
+			engine.reset(seed);
+			pilot.reset(engine);
+			long ticks = 0;
+			TournamentStats.Death death = TournamentStats.Death.Timeout;
+			while(ticks < maxTicks) {
+				Direction direction = pilot.choose(engine);
+				TileType collision = direction == null ? engine.step()
+						: engine.step(direction);
+				if(engine.isGameOver()) {
+					death = collision == TileType.badFruit
+							? TournamentStats.Death.BadFruit
+							: hitsWall() ? TournamentStats.Death.Wall
+							: TournamentStats.Death.Body;
+					break;
+				}
+				ticks++;
+			}
+			stats.add(engine.getScore(), engine.getFruitsEaten(), ticks, death);
+		}
+
+		/**
+		 * Checks whether the snake died against a wall. A snake that dies
+		 * against a wall or its body stays where it was, so it is against a
+		 * wall if its direction leads off the board.
+		 * @return Whether the head faces a wall.
+		 */
+		private boolean hitsWall() {
+			long head = engine.getSnakeRing().peekHead();
+			long x = head % colCount;
+			long y = head / colCount;
+			switch(engine.getDirection()) {
+			case North:
+				return y == 0;
+			case South:
+				return y == rowCount - 1;
+			case West:
+				return x == 0;
+			default:
+				return x == colCount - 1;
+			}
+		}
+
+	}
+
+	/**
+	 * The {@code Games} class is a task that plays a range of seeds, or
+	 * splits it in two tasks.
+	 */
+	private final class Games extends RecursiveAction {
+
+		/**
+		 * The Serial Version UID.
+		 */
+		private static final long serialVersionUID = -2086021764309587412L;
+
+		/**
+		 * The seed of the first game.
+		 */
+		private final long firstSeed;
+
+		/**
+		 * The number of games.
+		 */
+		private final int gameCount;
+
+		/**
+		 * The worker of each thread.
+		 */
+		private final ThreadLocal<Worker> workers;
+
+		/**
+		 * Every worker created, to merge their statistics.
+		 */
+		private final ConcurrentLinkedQueue<Worker> allWorkers;
+
+		/**
+		 * Creates a new Games task.
+		 * @param firstSeed The seed of the first game.
+		 * @param gameCount The number of games.
+		 * @param workers The worker of each thread.
+		 * @param allWorkers Every worker created.
+		 */
+		private Games(long firstSeed, int gameCount,
+				ThreadLocal<Worker> workers,
+				ConcurrentLinkedQueue<Worker> allWorkers) {
+			this.firstSeed = firstSeed;
+			this.gameCount = gameCount;
+			this.workers = workers;
+			this.allWorkers = allWorkers;
+		}
+
+		@Override
+		protected void compute() {
+			if(gameCount > TASK_GAMES) {
+				int half = gameCount / 2;
+				invokeAll(new Games(firstSeed, half, workers, allWorkers),
+						new Games(firstSeed + half, gameCount - half, workers,
+								allWorkers));
+				return;
+			}
+			Worker worker = workers.get();
+			if(worker == null) {
+				worker = new Worker();
+				workers.set(worker);
+				allWorkers.add(worker);
+			}
+			for(int i = 0; i < gameCount; i++) {
+				worker.play(firstSeed + i);
+			}
+		}
+
+	}
+
+	/**
+	 * Creates a new Tournament and its threads.
+	 * @param colCount The number of columns on the board.
+	 * @param rowCount The number of rows on the board.
+	 * @param autopilot The class of the autopilot, which needs a public
+	 * constructor without parameters.
+	 * @param maxTicks The longest game, in ticks.
+	 * @param threads The number of threads.
+	 * @throws IllegalArgumentException If the autopilot cannot be created.
+	 */
+	public Tournament(int colCount, int rowCount,
+			Class<? extends Autopilot> autopilot, int maxTicks, int threads) {
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.autopilot = autopilot;
+		this.maxTicks = maxTicks;
+		newAutopilot();
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Creates an autopilot.
+	 * @return The autopilot.
+	 * @throws IllegalArgumentException If the autopilot cannot be created.
+	 */
+	private Autopilot newAutopilot() {
+		try {
+			return autopilot.getConstructor().newInstance();
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalArgumentException("Cannot create "
+					+ autopilot.getName() + ".", ex);
+		}
+	}
+
+	/**
+	 * Plays a range of seeded games and waits for them to end.
+	 * @param firstSeed The seed of the first game; the others follow.
+	 * @param gameCount The number of games.
+	 * @return The statistics of all the games.
+	 */
+	public TournamentStats run(long firstSeed, int gameCount) {
+		ConcurrentLinkedQueue<Worker> allWorkers =
+				new ConcurrentLinkedQueue<Worker>();
+		pool.invoke(new Games(firstSeed, gameCount, new ThreadLocal<Worker>(),
+				allWorkers));
+		TournamentStats stats = new TournamentStats();
+		for(Worker worker : allWorkers) {
+			stats.merge(worker.stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Plays a tournament and prints its statistics.
+	 * @param args The class of the autopilot, then optionally the number of
+	 * games, the number of threads, and the number of columns and rows.
+	 * @throws ClassNotFoundException If the autopilot does not exist.
+	 */
+	public static void main(String[] args) throws ClassNotFoundException {
+		String name = args.length > 0 ? args[0] : "GreedyAutopilot";
+		int games = args.length > 1 ? Integer.parseInt(args[1])
+				: DEFAULT_GAMES;
+		int threads = args.length > 2 ? Integer.parseInt(args[2])
+				: Runtime.getRuntime().availableProcessors();
+		int colCount = BoardPanel.COL_COUNT;
+		int rowCount = BoardPanel.ROW_COUNT;
+		if(args.length > 4) {
+			colCount = Integer.parseInt(args[3]);
+			rowCount = Integer.parseInt(args[4]);
+		}
+		Tournament tournament = new Tournament(colCount, rowCount,
+				Class.forName(name).asSubclass(Autopilot.class),
+				DEFAULT_MAX_TICKS, threads);
+		long start = System.nanoTime();
+		TournamentStats stats = tournament.run(0L, games);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		tournament.close();
+		System.out.print(stats.report());
+		System.out.println(String.format("%.2f s on %d threads, %.0f games/s,"
+				+ " %.0f ticks/s", seconds, threads, games / seconds,
+				stats.getTotalTicks() / seconds));
+	}
+
+}
@@ -0,0 +1,198 @@
+/**
+ * The {@code TournamentStats} class sums up the games played by an
+ * {@link Autopilot} in a {@link Tournament}. Each worker thread adds its
+ * games to its own statistics, without locking, and the statistics of all
+ * workers are merged once the tournament is over. Every figure is a sum,
+ * a count or a maximum, so the merged statistics do not depend on which
+ * worker played which game.
+ * @author Miguel Bazan
+ * @author Ricardo Licea
+ *
+ */
+public class TournamentStats {
+
+	/**
+	 * The {@code Death} enum is how a game of a tournament ended.
+	 */
+	public enum Death {
+
+		/**
+		 * The snake ran into its own body.
+		 */
+		Body,
+
+		/**
+		 * The snake ran into a wall.
+		 */
+		Wall,
+
+		/**
+		 * The snake ate a bad fruit.
+		 */
+		BadFruit,
+
+		/**
+		 * The game was stopped after the longest number of ticks allowed.
+		 */
+		Timeout
+
+	}
+
+	/**
+	 * The number of games.
+	 */
+	private long games;
+
+	/**
+	 * The sum of the final scores.
+	 */
+	private long totalScore;
+
+	/**
+	 * The sum of the squares of the final scores.
+	 */
+	private long totalScoreSquares;
+
+	/**
+	 * The best final score.
+	 */
+	private int bestScore;
+
+	/**
+	 * The sum of the fruits eaten.
+	 */
+	private long totalFruits;
+
+	/**
+	 * The sum of the ticks survived.
+	 */
+	private long totalTicks;
+
+	/**
+	 * The number of games that ended in each way, by {@link Death} ordinal.
+	 */
+	private final long[] deaths = new long[Death.values().length];
+
+	/**
+	 * Adds a finished game.
+	 * @param score The final score.
+	 * @param fruitsEaten The number of fruits eaten.
+	 * @param ticks The number of ticks survived.
+	 * @param death How the game ended.
+	 */
+	public void add(int score, int fruitsEaten, long ticks, Death death) {
+		games++;
+		totalScore += score;
+		totalScoreSquares += (long)score * score;
+		bestScore = Math.max(bestScore, score);
+		totalFruits += fruitsEaten;
+		totalTicks += ticks;
+		deaths[death.ordinal()]++;
+	}
+
+	/**
+	 * Adds the games of other statistics to these.
+	 * @param other The other statistics, which are not changed.
+	 */
+	public void merge(TournamentStats other) {
+		games += other.games;
+		totalScore += other.totalScore;
+		totalScoreSquares += other.totalScoreSquares;
+		bestScore = Math.max(bestScore, other.bestScore);
+		totalFruits += other.totalFruits;
+		totalTicks += other.totalTicks;
+		for(int i = 0; i < deaths.length; i++) {
+			deaths[i] += other.deaths[i];
+		}
+	}
+
+	/**
+	 * Gets the number of games.
+	 * @return The number of games.
+	 */
+	public long getGames() {
+		return games;
+	}
+
+	/**
+	 * Gets the mean final score.
+	 * @return The mean score, or 0 if no game was played.
+	 */
+	public double getMeanScore() {
+		return games == 0 ? 0.0 : (double)totalScore / games;
+	}
+
+	/**
+	 * Gets the standard deviation of the final scores.
+	 * @return The standard deviation, or 0 if no game was played.
+	 */
+	public double getScoreDeviation() {
+		if(games == 0) {
+			return 0.0;
+		}
+		double mean = getMeanScore();
+		return Math.sqrt(Math.max(0.0,
+				(double)totalScoreSquares / games - mean * mean));
+	}
+
+	/**
+	 * Gets the best final score.
+	 * @return The best score.
+	 */
+	public int getBestScore() {
+		return bestScore;
+	}
+
+	/**
+	 * Gets the mean number of fruits eaten.
+	 * @return The mean fruits eaten, or 0 if no game was played.
+	 */
+	public double getMeanFruits() {
+		return games == 0 ? 0.0 : (double)totalFruits / games;
+	}
+
+	/**
+	 * Gets the mean number of ticks survived.
+	 * @return The mean ticks, or 0 if no game was played.
+	 */
+	public double getMeanTicks() {
+		return games == 0 ? 0.0 : (double)totalTicks / games;
+	}
+
+	/**
+	 * Gets the sum of the ticks survived.
+	 * @return The total ticks.
+	 */
+	public long getTotalTicks() {
+		return totalTicks;
+	}
+
+	/**
+	 * Gets the number of games that ended in a way.
+	 * @param death How the games ended.
+	 * @return The number of games.
+	 */
+	public long getDeaths(Death death) {
+		return deaths[death.ordinal()];
+	}
+
+	/**
+	 * Formats the statistics as text.
+	 * @return The statistics, one figure per line.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("games    %d%n", games));
+		report.append(String.format("score    mean %.1f, sd %.1f, best %d%n",
+				getMeanScore(), getScoreDeviation(), bestScore));
+		report.append(String.format("fruits   mean %.2f%n", getMeanFruits()));
+		report.append(String.format("ticks    mean %.1f%n", getMeanTicks()));
+		for(Death death : Death.values()) {
+			report.append(String.format("%-9s%d (%.1f%%)%n", death,
+					deaths[death.ordinal()],
+					games == 0 ? 0.0 : 100.0 * deaths[death.ordinal()] / games));
+		}
+		return report.toString();
+	}
+
+}